@@ -4,36 +4,81 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import java.io.ByteArrayOutputStream;
+import java.sql.Array;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class represents an external memory block storage system.
+ * <p>
+ * Blocks are cached deserialized in independently locked LRU stripes, bounded
+ * by the serialized size of the cached blocks. Changed blocks are kept aside
+ * until flushed, so they are never lost to eviction. A flush writes all changed
+ * blocks and deletes all freed blocks in one batch each.
+ * <p>
+ * By default {@link #flushDirtyBlocks} writes in the caller's transaction. With
+ * <code>org.model.BlockStore.flushInterval</code> set, it only marks the store
+ * and a background thread flushes it in its own transaction, trading
+ * atomicity with the caller's other writes for latency.
  */
 public class BlockStore {
-    /**
-     * Logging
-     */
-    final int CACHE_SIZE = 1000;
+    /* Cache budget of a store, in serialized bytes */
+    static final long CACHE_BYTES = Long.getLong("org.model.BlockStore.cacheBytes", 4L << 20);
+    /* Background flush interval in milliseconds, 0 to flush in the caller's transaction */
+    static final long FLUSH_INTERVAL = Long.getLong("org.model.BlockStore.flushInterval", 0L);
+    private static final int STRIPES = 16;
+    /* Weight of a block whose serialized size is not known yet */
+    private static final int DEFAULT_BLOCK_BYTES = 1024;
+
+    /* Kryo instances are not thread safe */
+    private static final ThreadLocal<Kryo> kryo = ThreadLocal.withInitial(Kryo::new);
+
+    /* Stores flushed in the background */
+    private static final Set<BlockStore> asyncStores =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static ScheduledExecutorService flusher;
+
     /* Table that persists the block store */
-    private String dataStore;
+    private volatile String dataStore;
     /**
      * A list of blocks
      */
-
-    private Map<Integer, Object> blockCache;
-    private Map<Integer, Object> dirtyBlocks;
-    private Set<Integer> deletedBlocks;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long stripeBytes;
+    private final Map<Integer, Object> dirtyBlocks = new ConcurrentHashMap<>();
+    /* Blocks being written by a flush, still visible to readers */
+    private final Map<Integer, Object> flushingBlocks = new ConcurrentHashMap<>();
+    private final Set<Integer> deletedBlocks = ConcurrentHashMap.newKeySet();
+    private final Object flushLock = new Object();
+    private final AtomicBoolean pending = new AtomicBoolean();
     private int inMemBlockId = 1;
-    /* Serializer */
-    private Kryo kryo;
+
+    /* Metrics */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedBlocks = new LongAdder();
+    private final LongAdder freedBlocks = new LongAdder();
+    private volatile long lastFlushMillis;
 
     // In Memory Block store
     BlockStore() {
@@ -42,16 +87,17 @@ public class BlockStore {
 
     // On DB block store.
     public BlockStore(DBContext context, String dataStore) {
-        dirtyBlocks = new HashMap<>();
-        deletedBlocks = new HashSet<>();
-        kryo = new Kryo();
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
         this.dataStore = dataStore;
         if (dataStore == null) {
             // Infinite cache size for in memory
-            blockCache = new LruCache<>(-1);
+            stripeBytes = Long.MAX_VALUE;
         } else {
-            blockCache = new LruCache<>(CACHE_SIZE);
+            stripeBytes = Math.max(1, CACHE_BYTES / STRIPES);
             createSchema(context, dataStore);
+            if (FLUSH_INTERVAL > 0)
+                startFlusher(this);
         }
         //logger.info("BlockStore created - " + dataStore);
     }
@@ -62,23 +108,26 @@ public class BlockStore {
 
     // Do not call any thing after drop schema.
     public void dropSchemaAndClear(DBContext context) {
-        blockCache.clear();
-        dirtyBlocks.clear();
-        deletedBlocks.clear();
-        if (dataStore == null)
-            return;
+        synchronized (flushLock) {
+            asyncStores.remove(this);
+            clearStripes();
+            dirtyBlocks.clear();
+            deletedBlocks.clear();
+            if (dataStore == null)
+                return;
 
-        try (Statement stmt = context.getConnection().createStatement()) {
-            String createTable = (new StringBuilder())
-                    .append("DROP TABLE ")
-                    .append(dataStore)
-                    .toString();
+            try (Statement stmt = context.getConnection().createStatement()) {
+                String createTable = (new StringBuilder())
+                        .append("DROP TABLE ")
+                        .append(dataStore)
+                        .toString();
 
-            stmt.execute(createTable);
-        } catch (SQLException e) {
-            e.printStackTrace();
+                stmt.execute(createTable);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            dataStore = null;
         }
-        dataStore = null;
     }
 
     public void createSchema(DBContext context, String dataStore) {
@@ -102,15 +151,17 @@ public class BlockStore {
 
     /* Does not flush */
     public void putObject(int block_id, Object obj) {
-        blockCache.put(block_id, obj);
         dirtyBlocks.put(block_id, obj);
+        cache(block_id, obj, -1);
     }
 
 
     public void clearCache() {
+        if (FLUSH_INTERVAL > 0)
+            flushOwn();
         if (!dirtyBlocks.isEmpty())
             throw new RuntimeException("Cannot clear - pending dirty blocks");
-        blockCache.clear();
+        clearStripes();
     }
 
     /**
@@ -118,7 +169,7 @@ public class BlockStore {
      *
      * @return new block_id
      */
-    public int getNewBlockID(DBContext context) {
+    public synchronized int getNewBlockID(DBContext context) {
         if (dataStore == null) {
             return inMemBlockId++;
         }
@@ -138,6 +189,34 @@ public class BlockStore {
         return id;
     }
 
+    /**
+     * Allocate count new block_ids in a single round trip
+     *
+     * @return new block_ids
+     */
+    public synchronized int[] getNewBlockIDs(DBContext context, int count) {
+        int[] ids = new int[count];
+        if (dataStore == null) {
+            for (int i = 0; i < count; i++)
+                ids[i] = inMemBlockId++;
+            return ids;
+        }
+        Arrays.fill(ids, -1);
+
+        String select = "SELECT nextval(?) FROM generate_series(1, ?)";
+        try (PreparedStatement stmt = context.getConnection().prepareStatement(select)) {
+            stmt.setString(1, dataStore + "_block_id_seq");
+            stmt.setInt(2, count);
+            ResultSet rs = stmt.executeQuery();
+            for (int i = 0; i < count && rs.next(); i++)
+                ids[i] = rs.getInt(1);
+            rs.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return ids;
+    }
+
     /**
      * Read a block
      *
@@ -145,12 +224,25 @@ public class BlockStore {
      * @return the block
      */
     public <T> T getObject(DBContext context, int block_id, Class<T> type) {
-        T obj = (T) blockCache.get(block_id);
-        if (obj != null || dataStore == null)
-            return obj;
-        obj = (T) dirtyBlocks.get(block_id);
-        if (obj != null)
-            return obj;
+        Stripe stripe = stripe(block_id);
+        synchronized (stripe) {
+            Entry entry = stripe.blocks.get(block_id);
+            if (entry != null) {
+                hits.increment();
+                return (T) entry.obj;
+            }
+        }
+        Object obj = dirtyBlocks.get(block_id);
+        if (obj == null)
+            obj = flushingBlocks.get(block_id);
+        if (obj != null) {
+            hits.increment();
+            cache(block_id, obj, -1);
+            return (T) obj;
+        }
+        misses.increment();
+        if (dataStore == null)
+            return null;
 
         String read = "SELECT data FROM " + dataStore + " WHERE block_id = ?";
 
@@ -158,62 +250,329 @@ public class BlockStore {
             stmt.setInt(1, block_id);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                Input in = new Input(rs.getBytes(1));
-                obj = kryo.readObject(in, type);
+                byte[] bytes = rs.getBytes(1);
+                Input in = new Input(bytes);
+                obj = kryo.get().readObject(in, type);
                 in.close();
+                cache(block_id, obj, bytes.length);
             }
             rs.close();
             stmt.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
-        blockCache.put(block_id, obj);
-        return obj;
+        return (T) obj;
     }
 
     public void flushDirtyBlocks(DBContext context) {
+        if (FLUSH_INTERVAL > 0 && dataStore != null) {
+            // written by the background flusher
+            pending.set(true);
+            return;
+        }
+        flush(context);
+    }
+
+    public void freeBlock(int block_id) {
+        deletedBlocks.add(block_id);
+    }
+
+    /**
+     * Write all changed blocks and delete all freed blocks, in one batch each,
+     * in the transaction of the caller
+     */
+    private void flush(DBContext context) {
+        synchronized (flushLock) {
+            long start = System.currentTimeMillis();
+            Collection<Integer> deleted = write(context);
+            if (deleted != null)
+                complete(deleted, start);
+        }
+    }
+
+    /*
+     * Write the changed blocks and delete the freed ones, the written blocks stay
+     * visible to readers in flushingBlocks until complete() or requeue().
+     * Returns the deleted blocks, or null if nothing was written. Called holding flushLock.
+     */
+    private Collection<Integer> write(DBContext context) {
+        pending.set(false);
         if (dataStore == null) {
             dirtyBlocks.clear();
-            deletedBlocks.stream().forEach(e -> blockCache.remove(e));
-            deletedBlocks.clear();
-            return;
+            for (int block_id : drain(deletedBlocks))
+                uncache(block_id);
+            return null;
         }
+        if (dirtyBlocks.isEmpty() && deletedBlocks.isEmpty())
+            return null;
 
+        Collection<Integer> deleted = drain(deletedBlocks);
+        for (Map.Entry<Integer, Object> e : dirtyBlocks.entrySet()) {
+            Object obj = e.getValue();
+            if (!deleted.contains(e.getKey()))
+                flushingBlocks.put(e.getKey(), obj);
+            // a block put again meanwhile stays dirty for the next flush
+            dirtyBlocks.remove(e.getKey(), obj);
+        }
+
+        try {
+            writeBlocks(context, flushingBlocks);
+            deleteBlocks(context, deleted);
+        } catch (Exception e) {
+            e.printStackTrace();
+            requeue(deleted);
+            return null;
+        }
+        return deleted;
+    }
+
+    /* The written blocks are committed, readers may read them from the database */
+    private void complete(Collection<Integer> deleted, long start) {
+        flushedBlocks.add(flushingBlocks.size());
+        freedBlocks.add(deleted.size());
+        flushingBlocks.clear();
+        for (int block_id : deleted)
+            uncache(block_id);
+        flushes.increment();
+        lastFlushMillis = System.currentTimeMillis() - start;
+    }
+
+    /* Keep the blocks of a failed flush for the next one, unless written again meanwhile */
+    private void requeue(Collection<Integer> deleted) {
+        for (Map.Entry<Integer, Object> entry : flushingBlocks.entrySet())
+            dirtyBlocks.putIfAbsent(entry.getKey(), entry.getValue());
+        deletedBlocks.addAll(deleted);
+        flushingBlocks.clear();
+    }
+
+    private void writeBlocks(DBContext context, Map<Integer, Object> blocks) throws SQLException {
+        if (blocks.isEmpty())
+            return;
         String insertOrUpdate = (new StringBuilder())
                 .append("INSERT INTO ")
                 .append(dataStore)
                 .append("(block_id, data) VALUES (?,?) ON CONFLICT (block_id) DO UPDATE set data = EXCLUDED.data")
                 .toString();
+        Kryo kryo = BlockStore.kryo.get();
         try (PreparedStatement stmt = context.getConnection().prepareStatement(insertOrUpdate)) {
-            for (Map.Entry<Integer, Object> blockEntry : dirtyBlocks.entrySet()) {
-                stmt.setInt(1, blockEntry.getKey());
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                Output out = new Output(byteArrayOutputStream);
+            for (Map.Entry<Integer, Object> blockEntry : blocks.entrySet()) {
+                Output out = new Output(DEFAULT_BLOCK_BYTES, -1);
                 kryo.writeObject(out, blockEntry.getValue());
-                stmt.setBytes(2, out.toBytes());
+                byte[] bytes = out.toBytes();
                 out.close();
-                byteArrayOutputStream.close();
-                stmt.execute();
+                stmt.setInt(1, blockEntry.getKey());
+                stmt.setBytes(2, bytes);
+                stmt.addBatch();
+                cache(blockEntry.getKey(), blockEntry.getValue(), bytes.length);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            stmt.executeBatch();
+        }
+    }
+
+    private void deleteBlocks(DBContext context, Collection<Integer> blocks) throws SQLException {
+        if (blocks.isEmpty())
+            return;
+        Connection connection = context.getConnection();
+        String free = "DELETE FROM " + dataStore + " WHERE block_id = ANY(?)";
+        try (PreparedStatement stmt = connection.prepareStatement(free)) {
+            Array ids = connection.createArrayOf("integer", blocks.toArray());
+            stmt.setArray(1, ids);
+            stmt.execute();
+            ids.free();
         }
-        dirtyBlocks.clear();
+    }
 
-        // Delete blocks
-        String free = "DELETE FROM " + dataStore + " WHERE block_id = ?";
-        try (PreparedStatement stmt = context.getConnection().prepareStatement(free)) {
-            for (int block_id : deletedBlocks) {
-                stmt.setInt(1, block_id);
-                stmt.execute();
+    private static Collection<Integer> drain(Set<Integer> set) {
+        Collection<Integer> drained = new ArrayList<>();
+        for (Iterator<Integer> i = set.iterator(); i.hasNext(); ) {
+            drained.add(i.next());
+            i.remove();
+        }
+        return drained;
+    }
+
+    /* Flush with a connection of our own, for the background flusher and shutdown */
+    private void flushOwn() {
+        if (dataStore == null || DBHandler.instance == null)
+            return;
+        try (Connection connection = DBHandler.instance.getConnection()) {
+            // the blocks stay in flight until committed, other connections read the old rows until then
+            synchronized (flushLock) {
+                long start = System.currentTimeMillis();
+                Collection<Integer> deleted = write(new DBContext(connection));
+                if (deleted == null)
+                    return;
+                try {
+                    connection.commit();
+                } catch (SQLException e) {
+                    requeue(deleted);
+                    throw e;
+                }
+                complete(deleted, start);
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void freeBlock(int block_id) {
-        deletedBlocks.add(block_id);
+    private static synchronized void startFlusher(BlockStore store) {
+        asyncStores.add(store);
+        if (flusher != null)
+            return;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "BlockStore-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(BlockStore::flushPending, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        DBHandler.addShutdownHook(BlockStore::flushAll);
+    }
+
+    private static Collection<BlockStore> liveStores() {
+        synchronized (asyncStores) {
+            return new ArrayList<>(asyncStores);
+        }
+    }
+
+    private static void flushPending() {
+        for (BlockStore store : liveStores()) {
+            try {
+                if (store.pending.get())
+                    store.flushOwn();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Flush all stores written in the background
+     */
+    public static void flushAll() {
+        for (BlockStore store : liveStores())
+            store.flushOwn();
+    }
+
+    /* Cache */
+
+    private static final class Entry {
+        final Object obj;
+        final int bytes;
+
+        Entry(Object obj, int bytes) {
+            this.obj = obj;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Stripe {
+        final LinkedHashMap<Integer, Entry> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        long bytes;
+    }
+
+    private Stripe stripe(int block_id) {
+        int h = block_id * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Cache a block, evicting the least recently used ones over the budget
+     *
+     * @param bytes serialized size, or -1 to keep the known one
+     */
+    private void cache(int block_id, Object obj, int bytes) {
+        Stripe stripe = stripe(block_id);
+        synchronized (stripe) {
+            Entry old = stripe.blocks.get(block_id);
+            if (bytes < 0)
+                bytes = old != null ? old.bytes : DEFAULT_BLOCK_BYTES;
+            if (old != null)
+                stripe.bytes -= old.bytes;
+            stripe.blocks.put(block_id, new Entry(obj, bytes));
+            stripe.bytes += bytes;
+
+            // dirty blocks are still reachable through dirtyBlocks
+            Iterator<Entry> i = stripe.blocks.values().iterator();
+            while (stripe.bytes > stripeBytes && stripe.blocks.size() > 1) {
+                Entry eldest = i.next();
+                stripe.bytes -= eldest.bytes;
+                i.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void uncache(int block_id) {
+        Stripe stripe = stripe(block_id);
+        synchronized (stripe) {
+            Entry old = stripe.blocks.remove(block_id);
+            if (old != null)
+                stripe.bytes -= old.bytes;
+        }
+    }
+
+    private void clearStripes() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.blocks.clear();
+                stripe.bytes = 0;
+            }
+        }
+    }
+
+    /* Metrics */
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
     }
 
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getFlushedBlockCount() {
+        return flushedBlocks.sum();
+    }
+
+    public long getFreedBlockCount() {
+        return freedBlocks.sum();
+    }
+
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /** Number of changed blocks not flushed yet */
+    public int getDirtyBlockCount() {
+        return dirtyBlocks.size();
+    }
+
+    /** Estimated serialized size of the cached blocks */
+    public long getCachedBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public int getCachedBlockCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.blocks.size();
+            }
+        }
+        return count;
+    }
 }
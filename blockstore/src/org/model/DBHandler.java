@@ -9,14 +9,22 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by Mangesh Bendre on 4/22/2016.
  */
 public class DBHandler implements ServletContextListener {
     public static DBHandler instance;
+    /* Run before the web application shuts down, e.g. to flush buffered writes */
+    private static final List<Runnable> shutdownHooks = new CopyOnWriteArrayList<>();
     private DataSource ds;
 
+    public static void addShutdownHook(Runnable hook) {
+        shutdownHooks.add(hook);
+    }
+
     public static void connectToDB(String url, String driver, String userName, String password) {
         DBHandler.instance = new DBHandler();
         PoolProperties p = new PoolProperties();
@@ -69,7 +77,13 @@ public class DBHandler implements ServletContextListener {
 
     @Override
     public void contextDestroyed(ServletContextEvent servletContextEvent) {
-
+        for (Runnable hook : shutdownHooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     private void createBookTable()
@@ -11,69 +11,212 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
 */
 package org.zkoss.zss.app.repository.impl;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
 
+import org.zkoss.util.logging.Log;
 import org.zkoss.zss.api.Exporters;
 import org.zkoss.zss.api.Importers;
 import org.zkoss.zss.api.model.Book;
 import org.zkoss.zss.app.BookInfo;
 import org.zkoss.zss.app.BookRepository;
 import org.zkoss.zss.app.ui.UiUtil;
+import org.zkoss.zss.model.ModelEvents;
+import org.zkoss.zss.range.SRanges;
 /**
- * 
+ * A repository sharing each loaded book among its users.
+ * <p>
+ * Operations on different books do not block each other: a book is loaded
+ * once under its own lock, and saved under the lock of its file. A save
+ * exports the book straight into a temporary file of the directory holding
+ * its read lock only, so other users keep reading it while it is exported,
+ * then moves the file over the book's one. The directory listing is cached
+ * and dropped when a file of the directory changes. Saves can run in the
+ * background with {@link #saveAsync(BookInfo, Book, boolean, SaveCallback)},
+ * the saves of a file in order and those of different files in parallel.
  * @author dennis
  *
  */
 public class CollaborativeRepository implements BookRepository{
 	private static final long serialVersionUID = -4784289072382777993L;
+	private static final Log log = Log.lookup(CollaborativeRepository.class);
+
+	/**
+	 * Notified when a background save completes.
+	 */
+	public interface SaveCallback {
+		/**
+		 * @param info the updated BookInfo, or null if not saved
+		 * @param error the error when saving, or null if none
+		 */
+		void onComplete(BookInfo info, Throwable error);
+	}
+
+	// single threads by hash of the file name, a file's saves are run in order
+	private static ExecutorService[] saveExecutors;
+
 	File root;
-	Map<String, Book> books = new HashMap<String, Book>(list().size() + 5);
+	// by file name
+	final ConcurrentMap<String, Book> books = new ConcurrentHashMap<String, Book>();
+	// locks by file name, to load or write it
+	private transient ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+	private transient volatile List<BookInfo> listing;
+	// changes of the directory seen by the watcher, guarded by listingLock
+	private transient long listingGeneration;
+	private transient Object listingLock = new Object();
+	private transient volatile boolean watching;
 
 	public CollaborativeRepository(File root){
 		this.root = root;
+		watch();
 	}
-	
-	
-	public List<BookInfo> list() {
-		synchronized (this) {
-			List<BookInfo> books = new ArrayList<BookInfo>();
-			for(File f:root.listFiles(new FileFilter() {
-				public boolean accept(File file) {
-					if(file.isFile() && !file.isHidden()){
-						String ext = FileUtil.getNameExtension(file.getName()).toLowerCase();
-						if("xls".equals(ext) || "xlsx".equals(ext)){
-							return true;
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		locks = new ConcurrentHashMap<String, Object>();
+		listingLock = new Object();
+		watch();
+	}
+
+	private Object getLock(String name) {
+		Object lock = locks.get(name);
+		if(lock == null){
+			Object old = locks.putIfAbsent(name, lock = new Object());
+			if(old != null)
+				lock = old;
+		}
+		return lock;
+	}
+
+	/* Drop the listing when a file of the root changes, the listing is not cached if the root cannot be watched */
+	private void watch() {
+		final WatchService watcher;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			root.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			log.warning("Cannot watch " + root + ", the book list is read on every call", e);
+			return;
+		}
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for(;;){
+						WatchKey key = watcher.take();
+						key.pollEvents();
+						dropListing();
+						if(!key.reset()){
+							break;
 						}
 					}
-					return false;
+				} catch (InterruptedException e) {
+					//stop watching
+				} catch (ClosedWatchServiceException e) {
+					//stop watching
+				}
+				watching = false;
+				dropListing();
+			}
+		}, "zssapp-repository-watcher");
+		thread.setDaemon(true);
+		watching = true;
+		thread.start();
+	}
+
+	/* called by save and delete at once, by the watcher for changes made outside the repository */
+	private void dropListing() {
+		synchronized (listingLock) {
+			listingGeneration++;
+			listing = null;
+		}
+	}
+
+	public List<BookInfo> list() {
+		for(int attempt = 0;; attempt++){
+			List<BookInfo> books = listing;
+			if(books != null){
+				return new ArrayList<BookInfo>(books);
+			}
+			long generation;
+			synchronized (listingLock) {
+				generation = listingGeneration;
+			}
+			books = scan();
+			synchronized (listingLock) {
+				// cache the scan unless the directory changed meanwhile, then scan again
+				if(generation == listingGeneration){
+					if(watching){
+						listing = Collections.unmodifiableList(books);
+					}
+					return new ArrayList<BookInfo>(books);
+				}
+			}
+			if(attempt >= 2){
+				// the directory keeps changing, return the last scan uncached
+				return books;
+			}
+		}
+	}
+
+	private List<BookInfo> scan() {
+		List<BookInfo> books = new ArrayList<BookInfo>();
+		for(File f:root.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				if(file.isFile() && !file.isHidden()){
+					String ext = FileUtil.getNameExtension(file.getName()).toLowerCase();
+					if("xls".equals(ext) || "xlsx".equals(ext)){
+						return true;
+					}
 				}
-			})){
-				books.add(new SimpleBookInfo(f,f.getName(),new Date(f.lastModified())));
+				return false;
 			}
-			return books;
+		})){
+			books.add(new SimpleBookInfo(f,f.getName(),new Date(f.lastModified())));
 		}
+		return books;
 	}
 
 	public Book load(BookInfo info) throws IOException {
 		String name = info.getName();
-		synchronized (this) {
-			if(books.containsKey(name))
-				return books.get(name);
-			
-			Book book = Importers.getImporter().imports(((SimpleBookInfo)info).getFile(), info.getName());
-			books.put(name, book);
+		Book book = books.get(name);
+		if(book != null)
+			return book;
+		synchronized (getLock(name)) {
+			book = books.get(name);
+			if(book == null){
+				book = Importers.getImporter().imports(((SimpleBookInfo)info).getFile(), info.getName());
+				books.put(name, book);
+			}
 			return book;
 		}
 	}
-	
+
 	public BookInfo save(BookInfo info, Book book) throws IOException {
 		return save(info, book, false);
 	}
@@ -82,70 +225,148 @@ public class CollaborativeRepository implements BookRepository{
 		if(UiUtil.isRepositoryReadonly()){
 			return null;
 		}
-		
-		synchronized (this) {
-			FileOutputStream fos = null;
+
+		// saves of a file are exported and written in order
+		File f = ((SimpleBookInfo)info).getFile();
+		synchronized (getLock(f.getName())) {
+			// 1. export to a temp file of the directory, to avoid write error damage original file;
+			// other users keep reading the book. It is hidden and not a book, so it is never listed
+			File temp = null;
 			try{
-				File f = ((SimpleBookInfo)info).getFile();
-				//write to temp file first to avoid write error damage original file 
-				File temp = File.createTempFile("temp", f.getName());
-				fos = new FileOutputStream(temp);
-				//ZSS-680: ZSS app always save to xlsx format
-				String type = "excel";
-				switch(book.getType()) {
-				case XLS:
-					type = "xls";
-					break;
-				case XLSX:
-					//fall down
-				default:
-					type = "xlsx";
-					break;
+				ReadWriteLock lock = book.getInternalBook().getBookSeries().getLock();
+				lock.readLock().lock();
+				try {
+					if(!book.getInternalBook().isDirty() && !isForce) {
+						return info;
+					}
+					temp = File.createTempFile(".zss", ".tmp", root);
+					OutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
+					try{
+						exportBook(book, fos);
+					}finally{
+						fos.close();
+					}
+					book.getInternalBook().setDirty(false);
+				} finally {
+					lock.readLock().unlock();
 				}
-				Exporters.getExporter(type).export(book, fos);
-				
-				fos.close();
-				fos = null;
-				
-				FileUtil.copy(temp,f);
-				temp.delete();
-				
+				SRanges.range(book.getSheetAt(0).getInternalSheet()).notifyCustomEvent(ModelEvents.ON_MODEL_DIRTY_CHANGE, false, false);
+
+				// 2. replace the file at once, readers never see it half written
+				try{
+					Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}catch(AtomicMoveNotSupportedException e){
+					Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+				// list it at once, the watcher only reports it later
+				dropListing();
 			}finally{
-				if(fos!=null)
-					fos.close();
+				// left only if not saved
+				if(temp != null)
+					temp.delete();
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Saves a book in the background, saves of the same file are written in order.
+	 * @param info the BookInfo
+	 * @param book the book to be saved
+	 * @param isForce save without dirty check if true
+	 * @param callback notified when the save completes, or null
+	 * @return the future of the updated BookInfo, or null if not saved
+	 */
+	public Future<BookInfo> saveAsync(final BookInfo info, final Book book, final boolean isForce, final SaveCallback callback) {
+		return getSaveExecutor(((SimpleBookInfo)info).getFile().getName()).submit(new Callable<BookInfo>() {
+			public BookInfo call() throws Exception {
+				BookInfo saved;
+				try {
+					saved = save(info, book, isForce);
+				} catch (Exception e) {
+					log.error("Cannot save " + info.getName(), e);
+					if(callback != null)
+						callback.onComplete(null, e);
+					throw e;
+				}
+				if(callback != null)
+					callback.onComplete(saved, null);
+				return saved;
 			}
-			return info;
+		});
+	}
+
+	/* a single thread keeps the saves of a file in order, other files are saved in parallel */
+	private static synchronized ExecutorService getSaveExecutor(String name) {
+		if(saveExecutors == null){
+			saveExecutors = new ExecutorService[Math.max(2, Runtime.getRuntime().availableProcessors())];
+		}
+		int i = (name.hashCode() & Integer.MAX_VALUE) % saveExecutors.length;
+		if(saveExecutors[i] == null){
+			saveExecutors[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "zssapp-repository-save");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
+		return saveExecutors[i];
 	}
-	
+
+	private void exportBook(Book book, OutputStream fos) throws IOException {
+		//ZSS-680: ZSS app always save to xlsx format
+		String type = "excel";
+		switch(book.getType()) {
+		case XLS:
+			type = "xls";
+			break;
+		case XLSX:
+			//fall down
+		default:
+			type = "xlsx";
+			break;
+		}
+		Exporters.getExporter(type).export(book, fos);
+	}
+
 	public BookInfo saveAs(String bookname,Book book) throws IOException {
 		if(UiUtil.isRepositoryReadonly()){
 			return null;
 		}
-		
-		synchronized (this) {
-				
-			String name = FileUtil.getName(bookname);
-			String ext = "";
-			switch(book.getType()){
-			case XLS:
-				ext = ".xls";
-				break;
-			case XLSX:
-				ext = ".xlsx";
-				break;
-			default:
-				throw new RuntimeException("unknow book type");
-			}
-			File f = new File(root,name+ext);
+
+		String name = FileUtil.getName(bookname);
+		String ext = "";
+		switch(book.getType()){
+		case XLS:
+			ext = ".xls";
+			break;
+		case XLSX:
+			ext = ".xlsx";
+			break;
+		default:
+			throw new RuntimeException("unknow book type");
+		}
+		File f;
+		// reserve a file name no other save takes
+		synchronized (locks) {
+			f = new File(root,name+ext);
 			int c = 0;
-			if(f.exists()){
+			while(f.exists() || books.containsKey(f.getName())){
 				f = new File(root,name+"("+(++c)+")"+ext);
 			}
-			SimpleBookInfo info = new SimpleBookInfo(f,f.getName(),new Date());
-			
-			books.put(name, book);
-			return save(info,book);
+			books.put(f.getName(), book);
+		}
+		SimpleBookInfo info = new SimpleBookInfo(f,f.getName(),new Date());
+		try{
+			return save(info,book,true);
+		}catch(IOException e){
+			// release the name
+			books.remove(f.getName(), book);
+			throw e;
+		}catch(RuntimeException e){
+			books.remove(f.getName(), book);
+			throw e;
 		}
 	}
 
@@ -154,14 +375,16 @@ public class CollaborativeRepository implements BookRepository{
 		if(UiUtil.isRepositoryReadonly()){
 			return false;
 		}
-		
-		synchronized (this) {
-			File f = ((SimpleBookInfo)info).getFile();
+
+		File f = ((SimpleBookInfo)info).getFile();
+		synchronized (getLock(f.getName())) {
 			if(!f.exists()){
 				return false;
 			}
 			books.remove(info.getName());
-			return f.delete();
+			boolean deleted = f.delete();
+			dropListing();
+			return deleted;
 		}
 	}
 }
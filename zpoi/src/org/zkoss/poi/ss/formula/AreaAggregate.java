@@ -0,0 +1,86 @@
+package org.zkoss.poi.ss.formula;
+
+/**
+ * The aggregates of the plain values of an area, computed by the sheet at
+ * once, e.g. by its database, for SUM, AVERAGE, MIN, MAX, COUNT and COUNTA.
+ * Booleans and strings are not numbers, as for values read by reference.
+ *
+ * @see ColumnarEvaluationSheet#getAreaAggregate(int, int, int, int)
+ */
+public final class AreaAggregate {
+	private long _numberCount;
+	private double _sum;
+	private double _min = Double.POSITIVE_INFINITY;
+	private double _max = Double.NEGATIVE_INFINITY;
+	private long _nonBlankCount;
+	private long _errorCount;
+
+	public AreaAggregate() {
+	}
+
+	/**
+	 * @param numberCount the number cells
+	 * @param sum the sum of the numbers
+	 * @param min the smallest number, ignored if there is no number
+	 * @param max the largest number, ignored if there is no number
+	 * @param nonBlankCount the cells that are not blank, errors included
+	 * @param errorCount the error cells
+	 */
+	public AreaAggregate(long numberCount, double sum, double min, double max, long nonBlankCount, long errorCount) {
+		_numberCount = numberCount;
+		_sum = sum;
+		if (numberCount > 0) {
+			_min = min;
+			_max = max;
+		}
+		_nonBlankCount = nonBlankCount;
+		_errorCount = errorCount;
+	}
+
+	public void add(AreaAggregate other) {
+		_numberCount += other._numberCount;
+		_sum += other._sum;
+		_min = Math.min(_min, other._min);
+		_max = Math.max(_max, other._max);
+		_nonBlankCount += other._nonBlankCount;
+		_errorCount += other._errorCount;
+	}
+
+	public void addNumber(double value) {
+		_numberCount++;
+		_sum += value;
+		_min = Math.min(_min, value);
+		_max = Math.max(_max, value);
+		_nonBlankCount++;
+	}
+
+	public long getNumberCount() {
+		return _numberCount;
+	}
+
+	public double getSum() {
+		return _sum;
+	}
+
+	/**
+	 * @return the smallest number, 0 if there is none as Excel's MIN
+	 */
+	public double getMin() {
+		return _numberCount > 0 ? _min : 0;
+	}
+
+	/**
+	 * @return the largest number, 0 if there is none as Excel's MAX
+	 */
+	public double getMax() {
+		return _numberCount > 0 ? _max : 0;
+	}
+
+	public long getNonBlankCount() {
+		return _nonBlankCount;
+	}
+
+	public long getErrorCount() {
+		return _errorCount;
+	}
+}
@@ -0,0 +1,125 @@
+package org.zkoss.poi.ss.formula;
+
+import org.zkoss.poi.ss.formula.eval.BlankEval;
+import org.zkoss.poi.ss.formula.eval.BoolEval;
+import org.zkoss.poi.ss.formula.eval.ErrorEval;
+import org.zkoss.poi.ss.formula.eval.NumberEval;
+import org.zkoss.poi.ss.formula.eval.StringEval;
+import org.zkoss.poi.ss.formula.eval.ValueEval;
+
+/**
+ * The plain values of an area of a sheet, read at once and kept a column at a
+ * time in primitive arrays. Formula cells are only marked, they are evaluated
+ * by the {@link SheetRefEvaluator} as usual.
+ * <p>
+ * Only the first rows holding cells are allocated, rows below them are blank.
+ *
+ * @see ColumnarEvaluationSheet
+ */
+public final class ColumnarArea {
+	private static final byte BLANK = 0;
+	private static final byte NUMBER = 1;
+	private static final byte STRING = 2;
+	private static final byte BOOLEAN = 3;
+	private static final byte ERROR = 4;
+	private static final byte FORMULA = 5;
+
+	private final int _firstRow;
+	private final int _firstColumn;
+	private final int _lastRow;
+	private final int _lastColumn;
+	// rows allocated from the first one
+	private final int _height;
+	// by column, then row; a boolean is 1 or 0, an error is its code
+	private final byte[][] _types;
+	private final double[][] _numbers;
+	// allocated for the columns with strings
+	private final String[][] _strings;
+
+	/**
+	 * @param lastLoadedRow the last row that may hold a cell, rows below it are blank
+	 */
+	public ColumnarArea(int firstRow, int firstColumn, int lastRow, int lastColumn, int lastLoadedRow) {
+		_firstRow = firstRow;
+		_firstColumn = firstColumn;
+		_lastRow = lastRow;
+		_lastColumn = lastColumn;
+		_height = Math.max(0, Math.min(lastRow, lastLoadedRow) - firstRow + 1);
+		int width = lastColumn - firstColumn + 1;
+		_types = new byte[width][];
+		_numbers = new double[width][];
+		_strings = new String[width][];
+	}
+
+	public boolean contains(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		return firstRow >= _firstRow && lastRow <= _lastRow && firstColumn >= _firstColumn
+				&& lastColumn <= _lastColumn;
+	}
+
+	public void setNumber(int row, int column, double value) {
+		set(row, column, NUMBER, value);
+	}
+
+	public void setBoolean(int row, int column, boolean value) {
+		set(row, column, BOOLEAN, value ? 1 : 0);
+	}
+
+	public void setError(int row, int column, int errorCode) {
+		set(row, column, ERROR, errorCode);
+	}
+
+	public void setFormula(int row, int column) {
+		set(row, column, FORMULA, 0);
+	}
+
+	public void setString(int row, int column, String value) {
+		int c = column - _firstColumn;
+		if (set(row, column, STRING, 0)) {
+			if (_strings[c] == null) {
+				_strings[c] = new String[_height];
+			}
+			_strings[c][row - _firstRow] = value;
+		}
+	}
+
+	private boolean set(int row, int column, byte type, double value) {
+		int r = row - _firstRow;
+		int c = column - _firstColumn;
+		if (r < 0 || r >= _height || c < 0 || c >= _types.length) {
+			return false;
+		}
+		if (_types[c] == null) {
+			_types[c] = new byte[_height];
+			_numbers[c] = new double[_height];
+		}
+		_types[c][r] = type;
+		_numbers[c][r] = value;
+		return true;
+	}
+
+	/**
+	 * @return the value of a plain cell, or null for a formula cell
+	 */
+	public ValueEval getValue(int row, int column) {
+		int r = row - _firstRow;
+		int c = column - _firstColumn;
+		byte[] types = _types[c];
+		if (r >= _height || types == null) {
+			return BlankEval.instance;
+		}
+		switch (types[r]) {
+			case NUMBER:
+				return new NumberEval(_numbers[c][r]);
+			case STRING:
+				return new StringEval(_strings[c][r]);
+			case BOOLEAN:
+				return BoolEval.valueOf(_numbers[c][r] != 0);
+			case ERROR:
+				return ErrorEval.valueOf((int) _numbers[c][r]);
+			case FORMULA:
+				return null;
+			default:
+				return BlankEval.instance;
+		}
+	}
+}
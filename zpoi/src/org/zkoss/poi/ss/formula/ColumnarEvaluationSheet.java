@@ -0,0 +1,21 @@
+package org.zkoss.poi.ss.formula;
+
+/**
+ * An {@link EvaluationSheet} that reads the plain values of a large area at
+ * once, instead of a cell at a time, for {@link LazyAreaEval}; or aggregates
+ * them without reading them.
+ */
+public interface ColumnarEvaluationSheet extends EvaluationSheet {
+
+	/**
+	 * @return the values of the area, or null to read it a cell at a time,
+	 * e.g. when the area is small
+	 */
+	ColumnarArea getColumnarArea(int firstRow, int firstColumn, int lastRow, int lastColumn);
+
+	/**
+	 * @return the aggregates of the area, or null if they cannot be computed
+	 * without evaluating its cells, e.g. when it holds formulas
+	 */
+	AreaAggregate getAreaAggregate(int firstRow, int firstColumn, int lastRow, int lastColumn);
+}
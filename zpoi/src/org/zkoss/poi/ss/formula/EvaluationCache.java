@@ -17,15 +17,17 @@
 
 package org.zkoss.poi.ss.formula;
 
+import java.util.List;
+
 import org.zkoss.poi.ss.formula.eval.BlankEval;
 import org.zkoss.poi.ss.formula.eval.BoolEval;
 import org.zkoss.poi.ss.formula.eval.ErrorEval;
 import org.zkoss.poi.ss.formula.eval.NumberEval;
 import org.zkoss.poi.ss.formula.eval.StringEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
+import org.zkoss.poi.ss.formula.FormulaCellCache.ICellFilter;
 import org.zkoss.poi.ss.formula.FormulaCellCache.IEntryOperation;
 import org.zkoss.poi.ss.formula.FormulaUsedBlankCellSet.BookSheetKey;
-import org.zkoss.poi.ss.formula.PlainCellCache.Loc;
 import org.zkoss.poi.ss.usermodel.Cell;
 
 /**
@@ -53,8 +55,7 @@ final class EvaluationCache {
 
 		int rowIndex = cell.getRowIndex();
 		int columnIndex = cell.getColumnIndex();
-		Loc loc = new Loc(bookIndex, sheetIndex, rowIndex, columnIndex);
-		PlainValueCellCacheEntry pcce = _plainCellCache.get(loc);
+		PlainValueCellCacheEntry pcce = _plainCellCache.get(bookIndex, sheetIndex, rowIndex, columnIndex);
 
 		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
 			if (fcce == null) {
@@ -77,7 +78,7 @@ final class EvaluationCache {
 			} else {
 				// changing from plain cell to formula cell
 				pcce.recurseClearCachedFormulaResults(_evaluationListener);
-				_plainCellCache.remove(loc);
+				_plainCellCache.remove(bookIndex, sheetIndex, rowIndex, columnIndex);
 			}
 		} else {
 			ValueEval value = WorkbookEvaluator.getValueFromNonFormulaCell(cell);
@@ -94,14 +95,14 @@ final class EvaluationCache {
 						updateAnyBlankReferencingFormulas(bookIndex, sheetIndex,
 								rowIndex, columnIndex);
 					}
-					_plainCellCache.put(loc, pcce);
+					_plainCellCache.put(bookIndex, sheetIndex, rowIndex, columnIndex, pcce);
 				}
 			} else {
 				if (pcce.updateValue(value)) {
 					pcce.recurseClearCachedFormulaResults(_evaluationListener);
 				}
 				if (value == BlankEval.instance) {
-					_plainCellCache.remove(loc);
+					_plainCellCache.remove(bookIndex, sheetIndex, rowIndex, columnIndex);
 				}
 			}
 			if (fcce == null) {
@@ -115,6 +116,38 @@ final class EvaluationCache {
 		}
 	}
 
+	/**
+	 * Drops the cached values of all cells in the region, and the cached results of
+	 * the formulas depending on them. Used when cells are moved, e.g. by inserting
+	 * or deleting rows, so the region should cover both the old and new positions.
+	 * @param workbook the workbook of the given book index, to locate formula cells
+	 */
+	public void notifyUpdateRegion(int bookIndex, final int sheetIndex, final EvaluationWorkbook workbook,
+			final int firstRow, final int firstColumn, final int lastRow, final int lastColumn) {
+		for (PlainValueCellCacheEntry pcce : _plainCellCache.removeRegion(bookIndex, sheetIndex,
+				firstRow, firstColumn, lastRow, lastColumn)) {
+			pcce.recurseClearCachedFormulaResults(_evaluationListener);
+		}
+		List<FormulaCellCacheEntry> removed = _formulaCellCache.removeAll(new ICellFilter() {
+			public boolean accept(EvaluationCell cell) {
+				int row = cell.getRowIndex();
+				int column = cell.getColumnIndex();
+				return row >= firstRow && row <= lastRow && column >= firstColumn && column <= lastColumn
+						&& workbook.getSheetIndex(cell.getSheet()) == sheetIndex;
+			}
+		});
+		for (FormulaCellCacheEntry fcce : removed) {
+			fcce.setSensitiveInputCells(null);
+			fcce.recurseClearCachedFormulaResults(_evaluationListener);
+		}
+		final BookSheetKey bsk = new BookSheetKey(bookIndex, sheetIndex);
+		_formulaCellCache.applyOperation(new IEntryOperation() {
+			public void processEntry(FormulaCellCacheEntry entry) {
+				entry.notifyUpdatedBlankRegion(bsk, firstRow, firstColumn, lastRow, lastColumn, _evaluationListener);
+			}
+		});
+	}
+
 	private void updateAnyBlankReferencingFormulas(int bookIndex, int sheetIndex,
 			final int rowIndex, final int columnIndex) {
 		final BookSheetKey bsk = new BookSheetKey(bookIndex, sheetIndex);
@@ -129,11 +162,10 @@ final class EvaluationCache {
 	public PlainValueCellCacheEntry getPlainValueEntry(int bookIndex, int sheetIndex,
 			int rowIndex, int columnIndex, ValueEval value) {
 
-		Loc loc = new Loc(bookIndex, sheetIndex, rowIndex, columnIndex);
-		PlainValueCellCacheEntry result = _plainCellCache.get(loc);
+		PlainValueCellCacheEntry result = _plainCellCache.get(bookIndex, sheetIndex, rowIndex, columnIndex);
 		if (result == null) {
 			result = new PlainValueCellCacheEntry(value);
-			_plainCellCache.put(loc, result);
+			_plainCellCache.put(bookIndex, sheetIndex, rowIndex, columnIndex, result);
 			if (_evaluationListener != null) {
 				_evaluationListener.onReadPlainValue(sheetIndex, rowIndex, columnIndex, result);
 			}
@@ -206,8 +238,8 @@ final class EvaluationCache {
 				fcce.recurseClearCachedFormulaResults(_evaluationListener);
 			}
 		} else {
-			Loc loc = new Loc(bookIndex, sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
-			PlainValueCellCacheEntry pcce = _plainCellCache.get(loc);
+			PlainValueCellCacheEntry pcce = _plainCellCache.get(bookIndex, sheetIndex,
+					cell.getRowIndex(), cell.getColumnIndex());
 
 			if (pcce == null) {
 				// cache entry doesn't exist. nothing to do
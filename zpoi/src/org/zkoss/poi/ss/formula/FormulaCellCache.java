@@ -17,8 +17,10 @@
 
 package org.zkoss.poi.ss.formula;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -31,6 +33,11 @@ final class FormulaCellCache {
 		void processEntry(FormulaCellCacheEntry entry);
 	}
 
+	static interface ICellFilter {
+		boolean accept(EvaluationCell cell);
+	}
+
+	// the entries keep their cells, for removeAll()
 	private final Map<Object, FormulaCellCacheEntry> _formulaEntriesByCell;
 
 	public FormulaCellCache() {
@@ -57,6 +64,7 @@ final class FormulaCellCache {
 	}
 
 	public void put(EvaluationCell cell, FormulaCellCacheEntry entry) {
+		entry.setCell(cell);
 		_formulaEntriesByCell.put(cell.getIdentityKey(), entry);
 	}
 
@@ -64,6 +72,23 @@ final class FormulaCellCache {
 		return _formulaEntriesByCell.remove(cell.getIdentityKey());
 	}
 
+	/**
+	 * Removes the entries of the cells accepted by the filter.
+	 * @return the removed entries
+	 */
+	public List<FormulaCellCacheEntry> removeAll(ICellFilter filter) {
+		List<FormulaCellCacheEntry> result = new ArrayList<FormulaCellCacheEntry>();
+		Iterator<FormulaCellCacheEntry> i = _formulaEntriesByCell.values().iterator();
+		while (i.hasNext()) {
+			FormulaCellCacheEntry entry = i.next();
+			if (filter.accept(entry.getCell())) {
+				i.remove();
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
 	public void applyOperation(IEntryOperation operation) {
 		Iterator<FormulaCellCacheEntry> i = _formulaEntriesByCell.values().iterator();
 		while (i.hasNext()) {
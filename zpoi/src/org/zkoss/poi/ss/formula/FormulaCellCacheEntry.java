@@ -41,9 +41,20 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 
 	private FormulaUsedBlankCellSet _usedBlankCellGroup;
 
+	// the cell of the entry in the FormulaCellCache
+	private EvaluationCell _cell;
+
 	public FormulaCellCacheEntry() {
 		// leave fields un-set
 	}
+
+	/* package */ EvaluationCell getCell() {
+		return _cell;
+	}
+
+	/* package */ void setCell(EvaluationCell cell) {
+		_cell = cell;
+	}
 	
 	public boolean isInputSensitive() {
 		if (_sensitiveInputCells != null) {
@@ -110,6 +121,16 @@ final class FormulaCellCacheEntry extends CellCacheEntry {
 		_usedBlankCellGroup = usedBlankAreas;
 	}
 
+	public void notifyUpdatedBlankRegion(BookSheetKey bsk, int firstRow, int firstColumn, int lastRow, int lastColumn,
+			IEvaluationListener evaluationListener) {
+		if (_usedBlankCellGroup != null) {
+			if (_usedBlankCellGroup.intersects(bsk, firstRow, firstColumn, lastRow, lastColumn)) {
+				clearFormulaEntry();
+				recurseClearCachedFormulaResults(evaluationListener);
+			}
+		}
+	}
+
 	public void notifyUpdatedBlankCell(BookSheetKey bsk, int rowIndex, int columnIndex, IEvaluationListener evaluationListener) {
 		if (_usedBlankCellGroup != null) {
 			if (_usedBlankCellGroup.containsCell(bsk, rowIndex, columnIndex)) {
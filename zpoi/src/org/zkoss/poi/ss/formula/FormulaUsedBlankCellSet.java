@@ -103,6 +103,23 @@ final class FormulaUsedBlankCellSet {
 			}
 			return false;
 		}
+
+		public boolean intersects(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+			for (int i=_rectangleGroups.size()-1; i>=0; i--) {
+				if (_rectangleGroups.get(i).intersects(firstRow, firstColumn, lastRow, lastColumn)) {
+					return true;
+				}
+			}
+			if(_currentRectangleGroup != null && _currentRectangleGroup.intersects(firstRow, firstColumn, lastRow, lastColumn)) {
+				return true;
+			}
+			if (_currentRowIndex != -1 && firstRow <= _currentRowIndex && _currentRowIndex <= lastRow) {
+				if (firstColumn <= _lastColumnIndex && _firstColumnIndex <= lastColumn) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 
 	private static final class BlankCellRectangleGroup {
@@ -135,6 +152,11 @@ final class FormulaUsedBlankCellSet {
 			return true;
 		}
 
+		public boolean intersects(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+			return firstRow <= _lastRowIndex && _firstRowIndex <= lastRow
+					&& firstColumn <= _lastColumnIndex && _firstColumnIndex <= lastColumn;
+		}
+
 		public boolean acceptRow(int rowIndex, int firstColumnIndex, int lastColumnIndex) {
 			if (firstColumnIndex != _firstColumnIndex) {
 				return false;
@@ -188,6 +210,14 @@ final class FormulaUsedBlankCellSet {
 		return bcsg.containsCell(rowIndex, columnIndex);
 	}
 
+	public boolean intersects(BookSheetKey key, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		BlankCellSheetGroup bcsg = _sheetGroupsByBookSheet.get(key);
+		if (bcsg == null) {
+			return false;
+		}
+		return bcsg.intersects(firstRow, firstColumn, lastRow, lastColumn);
+	}
+
 	public boolean isEmpty() {
 		return _sheetGroupsByBookSheet.isEmpty();
 	}
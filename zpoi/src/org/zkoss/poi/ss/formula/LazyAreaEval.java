@@ -34,6 +34,9 @@ import org.zkoss.poi.ss.usermodel.Hyperlink;
 public final class LazyAreaEval extends AreaEvalBase implements HyperlinkEval {
 
 	private final SheetRefEvaluator _evaluator;
+	// the plain values read at once, shared with the sub areas
+	private ColumnarArea _columnar;
+	private boolean _columnarRead;
 
 	LazyAreaEval(AreaI ptg, SheetRefEvaluator evaluator) {
 		super(ptg);
@@ -59,14 +62,57 @@ public final class LazyAreaEval extends AreaEvalBase implements HyperlinkEval {
 		int rowIx = (relativeRowIndex + getFirstRow() );
 		int colIx = (relativeColumnIndex + getFirstColumn() );
 
+		ColumnarArea columnar = getColumnarArea();
+		if (columnar != null) {
+			ValueEval value = columnar.getValue(rowIx, colIx);
+			if (value != null) {
+				return value;
+			}
+		}
 		return _evaluator.getEvalForCell(rowIx, colIx);
 	}
 
+	private ColumnarArea getColumnarArea() {
+		if (!_columnarRead) {
+			_columnarRead = true;
+			_columnar = _evaluator.getColumnarArea(getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn());
+		}
+		return _columnar;
+	}
+
+	/**
+	 * @return the aggregates of the plain values of the area computed by its
+	 * sheet, or null if its cells have to be evaluated
+	 */
+	public AreaAggregate getAreaAggregate() {
+		return _evaluator.getAreaAggregate(getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn());
+	}
+
+	/**
+	 * @return the lookup index of this area, or null if it has to be searched
+	 * a cell at a time, e.g. when it is small
+	 */
+	public LookupIndex getLookupIndex() {
+		long cells = (long) getHeight() * getWidth();
+		if (cells < LookupIndex.MIN_SIZE || cells > LookupIndex.MAX_SIZE) {
+			return null;
+		}
+		return _evaluator.getLookupIndex(getFirstRow(), getFirstColumn(), getLastRow(), getLastColumn(), getColumnarArea());
+	}
+
+	private LazyAreaEval share(LazyAreaEval area) {
+		if (_columnar != null && _columnar.contains(area.getFirstRow(), area.getFirstColumn(), area.getLastRow(), area.getLastColumn())) {
+			area._columnar = _columnar;
+			area._columnarRead = true;
+		}
+		return area;
+	}
+
 	public AreaEval offset(int relFirstRowIx, int relLastRowIx, int relFirstColIx, int relLastColIx) {
 		AreaI area = new OffsetArea(getFirstRow(), getFirstColumn(),
 				relFirstRowIx, relLastRowIx, relFirstColIx, relLastColIx);
 
-		return new LazyAreaEval(area, _evaluator);
+		return share(new LazyAreaEval(area, _evaluator));
 	}
 	public LazyAreaEval getRow(int rowIndex) {
 		if (rowIndex >= getHeight()) {
@@ -74,8 +120,8 @@ public final class LazyAreaEval extends AreaEvalBase implements HyperlinkEval {
 					+ ".  Allowable range is (0.." + getHeight() + ").");
 		}
 		int absRowIx = getFirstRow() + rowIndex;
-		return new LazyAreaEval(absRowIx, getFirstColumn(), absRowIx, getLastColumn(), 
-				isFirstRowRelative(), isFirstColRelative(), isLastRowRelative(), isLastColRelative(), _evaluator);
+		return share(new LazyAreaEval(absRowIx, getFirstColumn(), absRowIx, getLastColumn(), 
+				isFirstRowRelative(), isFirstColRelative(), isLastRowRelative(), isLastColRelative(), _evaluator));
 	}
 	public LazyAreaEval getColumn(int columnIndex) {
 		if (columnIndex >= getWidth()) {
@@ -83,8 +129,8 @@ public final class LazyAreaEval extends AreaEvalBase implements HyperlinkEval {
 					+ ".  Allowable range is (0.." + getWidth() + ").");
 		}
 		int absColIx = getFirstColumn() + columnIndex;
-		return new LazyAreaEval(getFirstRow(), absColIx, getLastRow(), absColIx, 
-				isFirstRowRelative(), isFirstColRelative(), isLastRowRelative(), isLastColRelative(), _evaluator);
+		return share(new LazyAreaEval(getFirstRow(), absColIx, getLastRow(), absColIx, 
+				isFirstRowRelative(), isFirstColRelative(), isLastRowRelative(), isLastColRelative(), _evaluator));
 	}
 
 	public String getSheetName() {
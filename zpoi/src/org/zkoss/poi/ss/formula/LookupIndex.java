@@ -0,0 +1,472 @@
+package org.zkoss.poi.ss.formula;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.zkoss.poi.ss.formula.eval.BlankEval;
+import org.zkoss.poi.ss.formula.eval.BoolEval;
+import org.zkoss.poi.ss.formula.eval.NumberEval;
+import org.zkoss.poi.ss.formula.eval.OperandResolver;
+import org.zkoss.poi.ss.formula.eval.StringEval;
+import org.zkoss.poi.ss.formula.eval.ValueEval;
+
+/**
+ * The values of an area of plain cells searched by VLOOKUP, HLOOKUP, LOOKUP
+ * and MATCH, or filtered by COUNTIF, SUMIF and SUMIFS, read once and kept by
+ * the {@link WorkbookEvaluator} until a cell of the area changes. Positions
+ * are relative to the area, row by row.
+ * <p>
+ * An index of the first position of each value is built on the first exact
+ * lookup. Values are matched as the lookup comparers do: numbers, booleans and
+ * strings only match values of the same type, strings ignoring the case of
+ * ASCII letters; a blank lookup value is 0, blank items never match.
+ * <p>
+ * The positions of each value and the sorted numbers are built on the first
+ * criteria {@link Selection}, the selections are kept with their sums.
+ *
+ * @see LazyAreaEval#getLookupIndex()
+ */
+public final class LookupIndex {
+	/** the cells below which an area is searched without an index */
+	public static final int MIN_SIZE = 64;
+	/** the cells above which an area is searched without an index */
+	public static final int MAX_SIZE = 1 << 20;
+	// selections kept, the least recently used are dropped
+	private static final int MAX_SELECTIONS = 1024;
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private final ValueEval[] _items;
+	private final int _width;
+	// first position by key, built on the first exact match
+	private Map<Object, Integer> _positions;
+	// positions of the numbers, booleans and strings ignoring case by value,
+	// built on the first selection
+	private Map<Object, int[]> _groups;
+	// positions of the strings parsed as numbers by value
+	private Map<Double, int[]> _numericStrings;
+	private double[] _sortedNumbers;
+	// positions of the sorted numbers, built on the first sum of a range of them
+	private int[] _sortedPositions;
+	private Map<Object, Selection> _selections;
+
+	LookupIndex(ValueEval[] items, int width) {
+		_items = items;
+		_width = width;
+	}
+
+	public int getSize() {
+		return _items.length;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public ValueEval getItem(int index) {
+		return _items[index];
+	}
+
+	/**
+	 * @return whether {@link #indexOf(ValueEval)} finds the value, false if
+	 * its items have to be compared one by one, e.g. for a string with wildcards
+	 */
+	public static boolean isIndexed(ValueEval lookupValue) {
+		if (lookupValue instanceof StringEval) {
+			String value = ((StringEval) lookupValue).getStringValue();
+			return lookupValue.getClass() == StringEval.class && value.indexOf('*') < 0
+					&& value.indexOf('?') < 0 && value.indexOf('~') < 0;
+		}
+		return toKey(lookupValue) != null;
+	}
+
+	/**
+	 * @param lookupValue a value for which {@link #isIndexed(ValueEval)} is true
+	 * @return the first position of an item matching the value exactly, -1 if none
+	 */
+	public int indexOf(ValueEval lookupValue) {
+		if (_positions == null) {
+			Map<Object, Integer> positions = new HashMap<Object, Integer>(_items.length * 4 / 3 + 1);
+			for (int i = _items.length - 1; i >= 0; i--) {
+				Object key = _items[i] == BlankEval.instance ? null : toKey(_items[i]);
+				if (key != null) {
+					positions.put(key, i);
+				}
+			}
+			_positions = positions;
+		}
+		Integer position = _positions.get(toKey(lookupValue));
+		return position == null ? -1 : position.intValue();
+	}
+
+	// the comparers only match values of the very same class
+	private static Object toKey(ValueEval value) {
+		if (value == BlankEval.instance) {
+			return Double.valueOf(0);
+		}
+		Class<?> type = value.getClass();
+		if (type == NumberEval.class) {
+			// Double.equals() matches as Double.compare()
+			return Double.valueOf(((NumberEval) value).getNumberValue());
+		}
+		if (type == BoolEval.class) {
+			return Boolean.valueOf(((BoolEval) value).getBooleanValue());
+		}
+		if (type == StringEval.class) {
+			return new StringKey(((StringEval) value).getStringValue());
+		}
+		return null;
+	}
+
+	/**
+	 * @return the numbers equal to the value, as Double.compare(), and the
+	 * strings parsed as a number equal to it
+	 */
+	public Selection selectNumbers(double value) {
+		Double key = Double.valueOf(value);
+		Selection selection = getSelection(key);
+		if (selection == null) {
+			int[] numbers = _groups.get(key);
+			// strings are compared with ==
+			int[] strings = Double.isNaN(value) ? null : _numericStrings.get(Double.valueOf(value + 0.0));
+			selection = putSelection(key, new Selection(merge(numbers, strings)));
+		}
+		return selection;
+	}
+
+	/**
+	 * @return the booleans equal to the value
+	 */
+	public Selection selectBooleans(boolean value) {
+		Boolean key = Boolean.valueOf(value);
+		Selection selection = getSelection(key);
+		if (selection == null) {
+			selection = putSelection(key, new Selection(merge(_groups.get(key), null)));
+		}
+		return selection;
+	}
+
+	/**
+	 * @return the strings equal to the value ignoring case, as
+	 * String.compareToIgnoreCase()
+	 */
+	public Selection selectStrings(String value) {
+		String key = foldCase(value);
+		Selection selection = getSelection(key);
+		if (selection == null) {
+			selection = putSelection(key, new Selection(merge(_groups.get(key), null)));
+		}
+		return selection;
+	}
+
+	/**
+	 * @return the numbers below the value, or equal to it if inclusive, as Double.compare()
+	 */
+	public Selection selectNumbersBelow(double value, boolean inclusive) {
+		ensureGroups();
+		int to = inclusive ? upperBound(value) : lowerBound(value);
+		return selectSortedNumbers(0, to);
+	}
+
+	/**
+	 * @return the numbers above the value, or equal to it if inclusive, as Double.compare()
+	 */
+	public Selection selectNumbersAbove(double value, boolean inclusive) {
+		ensureGroups();
+		int from = inclusive ? lowerBound(value) : upperBound(value);
+		return selectSortedNumbers(from, _sortedNumbers.length);
+	}
+
+	private Selection selectSortedNumbers(int from, int to) {
+		Long key = Long.valueOf(((long) from << 32) | to);
+		Selection selection = getSelection(key);
+		if (selection == null) {
+			selection = putSelection(key, new Selection(from, to));
+		}
+		return selection;
+	}
+
+	// the first sorted number not below the value
+	private int lowerBound(double value) {
+		int low = 0;
+		int high = _sortedNumbers.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Double.compare(_sortedNumbers[mid], value) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// the first sorted number above the value
+	private int upperBound(double value) {
+		int low = 0;
+		int high = _sortedNumbers.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (Double.compare(_sortedNumbers[mid], value) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private Selection getSelection(Object key) {
+		ensureGroups();
+		return _selections.get(key);
+	}
+
+	private Selection putSelection(Object key, Selection selection) {
+		_selections.put(key, selection);
+		return selection;
+	}
+
+	private void ensureGroups() {
+		if (_groups != null) {
+			return;
+		}
+		Map<Object, PositionList> groups = new HashMap<Object, PositionList>();
+		Map<Double, PositionList> numericStrings = new HashMap<Double, PositionList>();
+		PositionList numbers = new PositionList();
+		for (int i = 0; i < _items.length; i++) {
+			ValueEval item = _items[i];
+			Object key;
+			if (item instanceof NumberEval) {
+				double value = ((NumberEval) item).getNumberValue();
+				numbers.add(i);
+				key = Double.valueOf(value);
+			} else if (item instanceof BoolEval) {
+				key = Boolean.valueOf(((BoolEval) item).getBooleanValue());
+			} else if (item instanceof StringEval) {
+				String value = ((StringEval) item).getStringValue();
+				Double number = OperandResolver.parseDouble(value);
+				if (number != null && !number.isNaN()) {
+					add(numericStrings, Double.valueOf(number.doubleValue() + 0.0), i);
+				}
+				key = foldCase(value);
+			} else {
+				continue;
+			}
+			add(groups, key, i);
+		}
+		_groups = toArrays(groups);
+		_numericStrings = toArrays(numericStrings);
+		double[] sorted = new double[numbers.size()];
+		for (int j = 0; j < sorted.length; j++) {
+			sorted[j] = ((NumberEval) _items[numbers.get(j)]).getNumberValue();
+		}
+		// in the order of Double.compare()
+		Arrays.sort(sorted);
+		_sortedNumbers = sorted;
+		_selections = new LinkedHashMap<Object, Selection>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Object, Selection> eldest) {
+				return size() > MAX_SELECTIONS;
+			}
+		};
+	}
+
+	private int[] getSortedPositions() {
+		if (_sortedPositions == null) {
+			Integer[] positions = new Integer[_sortedNumbers.length];
+			int k = 0;
+			for (int i = 0; i < _items.length; i++) {
+				if (_items[i] instanceof NumberEval) {
+					positions[k++] = Integer.valueOf(i);
+				}
+			}
+			// stable, equal numbers stay in position order
+			Arrays.sort(positions, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(((NumberEval) _items[a.intValue()]).getNumberValue(),
+							((NumberEval) _items[b.intValue()]).getNumberValue());
+				}
+			});
+			int[] sorted = new int[positions.length];
+			for (int j = 0; j < sorted.length; j++) {
+				sorted[j] = positions[j].intValue();
+			}
+			_sortedPositions = sorted;
+		}
+		return _sortedPositions;
+	}
+
+	private static <K> void add(Map<K, PositionList> groups, K key, int position) {
+		PositionList list = groups.get(key);
+		if (list == null) {
+			list = new PositionList();
+			groups.put(key, list);
+		}
+		list.add(position);
+	}
+
+	private static <K> Map<K, int[]> toArrays(Map<K, PositionList> groups) {
+		Map<K, int[]> arrays = new HashMap<K, int[]>(groups.size() * 4 / 3 + 1);
+		for (Map.Entry<K, PositionList> entry : groups.entrySet()) {
+			arrays.put(entry.getKey(), entry.getValue().toArray());
+		}
+		return arrays;
+	}
+
+	// merges two ascending position arrays
+	private static int[] merge(int[] a, int[] b) {
+		if (a == null || b == null) {
+			return a != null ? a : b != null ? b : NO_POSITIONS;
+		}
+		int[] merged = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < a.length && j < b.length) {
+			merged[k++] = a[i] < b[j] ? a[i++] : b[j++];
+		}
+		while (i < a.length) {
+			merged[k++] = a[i++];
+		}
+		while (j < b.length) {
+			merged[k++] = b[j++];
+		}
+		return merged;
+	}
+
+	/* equal strings as String.compareToIgnoreCase() have the same key */
+	private static String foldCase(String value) {
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * The positions of an index matching a criteria.
+	 */
+	public final class Selection {
+		// ascending, or null until asked for a range of the sorted numbers
+		private int[] _positions;
+		private final int _from;
+		private final int _to;
+		// the last sum, by the index of the addends
+		private LookupIndex _addends;
+		private double _sum;
+
+		Selection(int[] positions) {
+			_positions = positions;
+			_from = 0;
+			_to = positions.length;
+		}
+
+		Selection(int from, int to) {
+			_from = from;
+			_to = to;
+		}
+
+		public int size() {
+			return _to - _from;
+		}
+
+		/**
+		 * @return the positions in ascending order, i.e. row by row
+		 */
+		public int[] getPositions() {
+			if (_positions == null) {
+				int[] positions = Arrays.copyOfRange(getSortedPositions(), _from, _to);
+				Arrays.sort(positions);
+				_positions = positions;
+			}
+			return _positions;
+		}
+
+		/**
+		 * @param addends the index of an area of the same size
+		 * @return the sum of the numbers of the addends at the positions, in
+		 * the order of the positions, other values count as 0
+		 */
+		public double sum(LookupIndex addends) {
+			if (_addends != addends) {
+				double sum = 0.0;
+				for (int position : getPositions()) {
+					ValueEval addend = addends._items[position];
+					if (addend instanceof NumberEval) {
+						sum += ((NumberEval) addend).getNumberValue();
+					}
+				}
+				_sum = sum;
+				_addends = addends;
+			}
+			return _sum;
+		}
+	}
+
+	private static final class PositionList {
+		private int[] _positions = new int[4];
+		private int _size;
+
+		void add(int position) {
+			if (_size == _positions.length) {
+				_positions = Arrays.copyOf(_positions, _size * 2);
+			}
+			_positions[_size++] = position;
+		}
+
+		int get(int index) {
+			return _positions[index];
+		}
+
+		int size() {
+			return _size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(_positions, _size);
+		}
+	}
+
+	/* a string ignoring the case of ASCII letters, as Pattern.CASE_INSENSITIVE */
+	private static final class StringKey {
+		private final String _value;
+		private final int _hash;
+
+		StringKey(String value) {
+			_value = value;
+			int hash = 0;
+			for (int i = 0, len = value.length(); i < len; i++) {
+				hash = 31 * hash + toLower(value.charAt(i));
+			}
+			_hash = hash;
+		}
+
+		private static char toLower(char ch) {
+			return ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+		}
+
+		public int hashCode() {
+			return _hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StringKey)) {
+				return false;
+			}
+			String other = ((StringKey) obj)._value;
+			int len = _value.length();
+			if (other.length() != len) {
+				return false;
+			}
+			for (int i = 0; i < len; i++) {
+				if (toLower(_value.charAt(i)) != toLower(other.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.zkoss.poi.ss.formula;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link LookupIndex}es of a {@link WorkbookEvaluator}, by sheet and area,
+ * dropped when a cell of their area changes. The least recently used ones are
+ * dropped above {@link #MAX_INDEXES}, or above {@link #MAX_CELLS} indexed
+ * cells in all, as a single index may hold {@link LookupIndex#MAX_SIZE} values.
+ */
+final class LookupIndexCache {
+	static final int MAX_INDEXES = 256;
+	static final long MAX_CELLS = 1 << 22;
+
+	// least recently used first
+	private final Map<Area, LookupIndex> _indexes = new LinkedHashMap<Area, LookupIndex>(16, 0.75f, true);
+	private long _cells;
+
+	public LookupIndex get(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		if (_indexes.isEmpty()) {
+			return null;
+		}
+		return _indexes.get(new Area(sheetIndex, firstRow, firstColumn, lastRow, lastColumn));
+	}
+
+	public void put(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn, LookupIndex index) {
+		LookupIndex old = _indexes.put(new Area(sheetIndex, firstRow, firstColumn, lastRow, lastColumn), index);
+		if (old != null) {
+			_cells -= cellsOf(old);
+		}
+		_cells += cellsOf(index);
+		// the index just put is the most recently used, it is kept
+		for (Iterator<LookupIndex> it = _indexes.values().iterator();
+				_indexes.size() > 1 && (_indexes.size() > MAX_INDEXES || _cells > MAX_CELLS);) {
+			_cells -= cellsOf(it.next());
+			it.remove();
+		}
+	}
+
+	// an index of no values, kept for an area with formulas, counts as a cell
+	private static long cellsOf(LookupIndex index) {
+		return Math.max(1, index.getSize());
+	}
+
+	/**
+	 * Drops the indexes of the sheet overlapping the region.
+	 */
+	public void notifyUpdateRegion(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		if (_indexes.isEmpty()) {
+			return;
+		}
+		for (Iterator<Map.Entry<Area, LookupIndex>> it = _indexes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Area, LookupIndex> entry = it.next();
+			Area area = entry.getKey();
+			if (area._sheetIndex == sheetIndex && area._firstRow <= lastRow && area._lastRow >= firstRow
+					&& area._firstColumn <= lastColumn && area._lastColumn >= firstColumn) {
+				_cells -= cellsOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	public void clear() {
+		_indexes.clear();
+		_cells = 0;
+	}
+
+	private static final class Area {
+		final int _sheetIndex;
+		final int _firstRow;
+		final int _firstColumn;
+		final int _lastRow;
+		final int _lastColumn;
+
+		Area(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+			_sheetIndex = sheetIndex;
+			_firstRow = firstRow;
+			_firstColumn = firstColumn;
+			_lastRow = lastRow;
+			_lastColumn = lastColumn;
+		}
+
+		public int hashCode() {
+			return (((_sheetIndex * 31 + _firstRow) * 31 + _firstColumn) * 31 + _lastRow) * 31 + _lastColumn;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Area)) {
+				return false;
+			}
+			Area other = (Area) obj;
+			return _sheetIndex == other._sheetIndex && _firstRow == other._firstRow
+					&& _firstColumn == other._firstColumn && _lastRow == other._lastRow
+					&& _lastColumn == other._lastColumn;
+		}
+	}
+}
@@ -17,79 +17,150 @@
 
 package org.zkoss.poi.ss.formula;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
+ * The plain value entries by cell location, in an open addressing table of
+ * primitive keys, so that looking a cell up allocates nothing.
  *
  * @author Josh Micich
  */
 final class PlainCellCache {
 
-	public static final class Loc {
+	private static final int INITIAL_CAPACITY = 64; // a power of 2
 
-		private final long _bookSheetColumn;
+	// the book, sheet and column of a location, and its row, by slot
+	private long[] _bookSheetColumns;
+	private int[] _rowIndexes;
+	// null for a free slot
+	private PlainValueCellCacheEntry[] _entries;
+	private int _size;
 
-		private final int _rowIndex;
+	public PlainCellCache() {
+		allocate(INITIAL_CAPACITY);
+	}
 
-		public Loc(int bookIndex, int sheetIndex, int rowIndex, int columnIndex) {
-			_bookSheetColumn = toBookSheetColumn(bookIndex, sheetIndex, columnIndex);
-			_rowIndex = rowIndex;
-		}
+	private void allocate(int capacity) {
+		_bookSheetColumns = new long[capacity];
+		_rowIndexes = new int[capacity];
+		_entries = new PlainValueCellCacheEntry[capacity];
+	}
 
-		public static long toBookSheetColumn(int bookIndex, int sheetIndex, int columnIndex) {
-			return ((bookIndex   & 0xFFFFl) << 48)  +
-                   ((sheetIndex  & 0xFFFFl) << 32) +
-                   ((columnIndex & 0xFFFFl) << 0);
-		}
+	public static long toBookSheetColumn(int bookIndex, int sheetIndex, int columnIndex) {
+		return ((bookIndex   & 0xFFFFl) << 48)  +
+               ((sheetIndex  & 0xFFFFl) << 32) +
+               ((columnIndex & 0xFFFFl) << 0);
+	}
 
-		public Loc(long bookSheetColumn, int rowIndex) {
-			_bookSheetColumn = bookSheetColumn;
-			_rowIndex = rowIndex;
-		}
+	private static int hash(long bookSheetColumn, int rowIndex) {
+		long h = (bookSheetColumn + rowIndex * 0x100000001B3L) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
 
-		public int hashCode() {
-			return (int)(_bookSheetColumn ^ (_bookSheetColumn >>> 32)) + 17 * _rowIndex;
+	// the slot of the location, or the free slot to put it in
+	private int slotOf(long bookSheetColumn, int rowIndex) {
+		int mask = _entries.length - 1;
+		int i = hash(bookSheetColumn, rowIndex) & mask;
+		while (_entries[i] != null
+				&& (_bookSheetColumns[i] != bookSheetColumn || _rowIndexes[i] != rowIndex)) {
+			i = (i + 1) & mask;
 		}
+		return i;
+	}
 
-		public boolean equals(Object obj) {
-			assert obj instanceof Loc : "these package-private cache key instances are only compared to themselves";
-			Loc other = (Loc) obj;
-			return _bookSheetColumn == other._bookSheetColumn && _rowIndex == other._rowIndex;
+	public void put(int bookIndex, int sheetIndex, int rowIndex, int columnIndex, PlainValueCellCacheEntry cce) {
+		long bookSheetColumn = toBookSheetColumn(bookIndex, sheetIndex, columnIndex);
+		int i = slotOf(bookSheetColumn, rowIndex);
+		if (_entries[i] == null) {
+			if ((_size + 1) * 4 > _entries.length * 3) {
+				rehash(_entries.length * 2);
+				i = slotOf(bookSheetColumn, rowIndex);
+			}
+			_size++;
+			_bookSheetColumns[i] = bookSheetColumn;
+			_rowIndexes[i] = rowIndex;
 		}
+		_entries[i] = cce;
+	}
 
-		public int getRowIndex() {
-			return _rowIndex;
+	private void rehash(int capacity) {
+		long[] bookSheetColumns = _bookSheetColumns;
+		int[] rowIndexes = _rowIndexes;
+		PlainValueCellCacheEntry[] entries = _entries;
+		allocate(capacity);
+		for (int j = 0; j < entries.length; j++) {
+			if (entries[j] != null) {
+				int i = slotOf(bookSheetColumns[j], rowIndexes[j]);
+				_bookSheetColumns[i] = bookSheetColumns[j];
+				_rowIndexes[i] = rowIndexes[j];
+				_entries[i] = entries[j];
+			}
 		}
+	}
 
-		public int getColumnIndex() {
-            return (int)(_bookSheetColumn & 0x000FFFF);
+	public void clear() {
+		if (_entries.length > INITIAL_CAPACITY) {
+			allocate(INITIAL_CAPACITY);
+		} else {
+			Arrays.fill(_entries, null);
 		}
-
-        public int getSheetIndex() {
-            return (int)((_bookSheetColumn >> 32) & 0xFFFF);
-        }
-
-        public int getBookIndex() {
-            return (int)((_bookSheetColumn >> 48) & 0xFFFF);
-        }
+		_size = 0;
 	}
 
-	private Map<Loc, PlainValueCellCacheEntry> _plainValueEntriesByLoc;
-
-	public PlainCellCache() {
-		_plainValueEntriesByLoc = new HashMap<Loc, PlainValueCellCacheEntry>();
-	}
-	public void put(Loc key, PlainValueCellCacheEntry cce) {
-		_plainValueEntriesByLoc.put(key, cce);
+	public PlainValueCellCacheEntry get(int bookIndex, int sheetIndex, int rowIndex, int columnIndex) {
+		return _entries[slotOf(toBookSheetColumn(bookIndex, sheetIndex, columnIndex), rowIndex)];
 	}
-	public void clear() {
-		_plainValueEntriesByLoc.clear();
+
+	public void remove(int bookIndex, int sheetIndex, int rowIndex, int columnIndex) {
+		int i = slotOf(toBookSheetColumn(bookIndex, sheetIndex, columnIndex), rowIndex);
+		if (_entries[i] != null) {
+			removeSlot(i);
+		}
 	}
-	public PlainValueCellCacheEntry get(Loc key) {
-		return _plainValueEntriesByLoc.get(key);
+
+	// frees the slot and moves back the following entries of its probe sequence
+	private void removeSlot(int i) {
+		int mask = _entries.length - 1;
+		_entries[i] = null;
+		_size--;
+		for (int j = (i + 1) & mask; _entries[j] != null; j = (j + 1) & mask) {
+			int home = hash(_bookSheetColumns[j], _rowIndexes[j]) & mask;
+			// move the entry unless its home slot lies cyclically in (i, j]
+			if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+				_bookSheetColumns[i] = _bookSheetColumns[j];
+				_rowIndexes[i] = _rowIndexes[j];
+				_entries[i] = _entries[j];
+				_entries[j] = null;
+				i = j;
+			}
+		}
 	}
-	public void remove(Loc key) {
-		_plainValueEntriesByLoc.remove(key);
+
+	/**
+	 * Removes the entries located in the given region of a sheet.
+	 * @return the removed entries
+	 */
+	public List<PlainValueCellCacheEntry> removeRegion(int bookIndex, int sheetIndex,
+			int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		List<PlainValueCellCacheEntry> result = new ArrayList<PlainValueCellCacheEntry>();
+		long bookSheet = toBookSheetColumn(bookIndex, sheetIndex, 0);
+		int i = 0;
+		while (i < _entries.length) {
+			long bookSheetColumn = _bookSheetColumns[i];
+			int columnIndex = (int) (bookSheetColumn & 0xFFFF);
+			int rowIndex = _rowIndexes[i];
+			if (_entries[i] != null && (bookSheetColumn & ~0xFFFFl) == bookSheet
+					&& rowIndex >= firstRow && rowIndex <= lastRow
+					&& columnIndex >= firstColumn && columnIndex <= lastColumn) {
+				result.add(_entries[i]);
+				// an entry of a later slot may move here, check the slot again
+				removeSlot(i);
+			} else {
+				i++;
+			}
+		}
+		return result;
 	}
 }
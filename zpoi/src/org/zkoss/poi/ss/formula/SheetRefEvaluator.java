@@ -116,6 +116,41 @@ final public class SheetRefEvaluator {
     	return _lastSheetIndex;
     }
     
+    /**
+     * @return the plain values of the area read at once, or null to read it a cell at a time
+     * @see ColumnarEvaluationSheet
+     */
+    public ColumnarArea getColumnarArea(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+    	if (_sheetIndex < 0 || _sheetIndex != _lastSheetIndex) {
+    		return null;
+    	}
+    	EvaluationSheet sheet = getSheet();
+    	return sheet instanceof ColumnarEvaluationSheet
+    			? ((ColumnarEvaluationSheet) sheet).getColumnarArea(firstRow, firstColumn, lastRow, lastColumn) : null;
+    }
+    /**
+     * @return the aggregates of the area, or null if its cells have to be evaluated
+     * @see ColumnarEvaluationSheet
+     */
+    public AreaAggregate getAreaAggregate(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+    	if (_sheetIndex < 0 || _sheetIndex != _lastSheetIndex) {
+    		return null;
+    	}
+    	EvaluationSheet sheet = getSheet();
+    	return sheet instanceof ColumnarEvaluationSheet
+    			? ((ColumnarEvaluationSheet) sheet).getAreaAggregate(firstRow, firstColumn, lastRow, lastColumn) : null;
+    }
+    /**
+     * @param columnar the plain values of the area read at once, or null
+     * @return the lookup index of the area, or null to search it a cell at a time
+     * @see LookupIndex
+     */
+    public LookupIndex getLookupIndex(int firstRow, int firstColumn, int lastRow, int lastColumn, ColumnarArea columnar) {
+    	if (_sheetIndex < 0 || _sheetIndex != _lastSheetIndex) {
+    		return null;
+    	}
+    	return _bookEvaluator.getLookupIndex(_sheetIndex, firstRow, firstColumn, lastRow, lastColumn, columnar, _tracker);
+    }
     //ZSS-962
     public boolean isHidden(int sheetIdx, int rowIndex, int columnIndex) {
     	EvaluationSheet sheet = _bookEvaluator.getSheet(_sheetIndex);
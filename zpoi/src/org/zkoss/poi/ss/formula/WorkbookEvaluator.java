@@ -110,6 +110,10 @@ public final class WorkbookEvaluator {
     private boolean _ignoreMissingWorkbooks = false;
 
     private CacheManager _cacheManager;
+
+	private final LookupIndexCache _lookupIndexes = new LookupIndexCache();
+	// kept for an area holding formulas, so it is not read again to find out
+	private static final LookupIndex FORMULA_AREA = new LookupIndex(new ValueEval[0], 0);
     
 	/**
 	 * @param udfFinder pass <code>null</code> for default (AnalysisToolPak only)
@@ -223,10 +227,20 @@ public final class WorkbookEvaluator {
 	 */
 	public void clearAllCachedResultValues() {
 		_cache.clear();
+		_lookupIndexes.clear();
 		_sheetIndexesBySheet.clear();
 		_sheetIndexesByName.clear(); // 20131025, paowang@potix.com, ZSS-492: don't forget to clear sheet name cache, or index will be inconsistent after reordering sheets 	
 	}
 
+	/**
+	 * Should be called when sheets are added or renamed without changing the index
+	 * of any sheet, so sheets are looked up by their name again. Cached results are kept.
+	 */
+	public void clearSheetIndexCache() {
+		_sheetIndexesBySheet.clear();
+		_sheetIndexesByName.clear();
+	}
+
 	/**
 	 * Should be called to tell the cell value cache that the specified (value or formula) cell
 	 * has changed.
@@ -234,6 +248,24 @@ public final class WorkbookEvaluator {
 	public void notifyUpdateCell(EvaluationCell cell) {
 		int sheetIndex = getSheetIndex(cell.getSheet());
 		_cache.notifyUpdateCell(_workbookIx, sheetIndex, cell);
+		_lookupIndexes.notifyUpdateRegion(sheetIndex, cell.getRowIndex(), cell.getColumnIndex(),
+				cell.getRowIndex(), cell.getColumnIndex());
+	}
+	/**
+	 * Should be called to tell the cell value cache that the cells in the specified
+	 * region of a sheet have changed or moved, e.g. after inserting or deleting rows.
+	 */
+	public void notifyUpdateRegion(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		_cache.notifyUpdateRegion(_workbookIx, sheetIndex, _workbook, firstRow, firstColumn, lastRow, lastColumn);
+		_lookupIndexes.notifyUpdateRegion(sheetIndex, firstRow, firstColumn, lastRow, lastColumn);
+	}
+	/**
+	 * Should be called when the values of cells in the specified region of a sheet change
+	 * without {@link #notifyUpdateCell(EvaluationCell)}, to drop the lookup indexes read
+	 * from them. Cached results are kept, the dependents of the cells are cleared as usual.
+	 */
+	public void notifyUpdateValues(int sheetIndex, int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		_lookupIndexes.notifyUpdateRegion(sheetIndex, firstRow, firstColumn, lastRow, lastColumn);
 	}
 	/**
 	 * Should be called to tell the cell value cache that the specified cell has just been
@@ -242,6 +274,8 @@ public final class WorkbookEvaluator {
 	public void notifyDeleteCell(EvaluationCell cell) {
 		int sheetIndex = getSheetIndex(cell.getSheet());
 		_cache.notifyDeleteCell(_workbookIx, sheetIndex, cell);
+		_lookupIndexes.notifyUpdateRegion(sheetIndex, cell.getRowIndex(), cell.getColumnIndex(),
+				cell.getRowIndex(), cell.getColumnIndex());
 	}
 	
 	private int getSheetIndex(EvaluationSheet sheet) {
@@ -819,6 +853,40 @@ public final class WorkbookEvaluator {
 		return size > 1 ? new ValuesEval(results) : results[0];
 	}
 	
+	/**
+	 * @param columnar the plain values of the area read at once, or null
+	 * @return the index of an area of plain cells, kept until one of them
+	 * changes, or null if it holds formulas, which are evaluated as usual
+	 */
+	/* package */ LookupIndex getLookupIndex(int sheetIndex, int firstRow, int firstColumn,
+			int lastRow, int lastColumn, ColumnarArea columnar, EvaluationTracker tracker) {
+		LookupIndex index = _lookupIndexes.get(sheetIndex, firstRow, firstColumn, lastRow, lastColumn);
+		if (index != null) {
+			return index == FORMULA_AREA ? null : index;
+		}
+		final EvaluationSheet sheet = getSheet(sheetIndex);
+		ValueEval[] items = new ValueEval[(lastRow - firstRow + 1) * (lastColumn - firstColumn + 1)];
+		int k = 0;
+		for (int r = firstRow; r <= lastRow; ++r) {
+			for (int c = firstColumn; c <= lastColumn; ++c) {
+				ValueEval value = columnar == null ? null : columnar.getValue(r, c);
+				if (value == null) {
+					EvaluationCell cell = sheet.getCell(r, c);
+					// a formula result may change without a change of the area
+					if (cell != null && cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+						_lookupIndexes.put(sheetIndex, firstRow, firstColumn, lastRow, lastColumn, FORMULA_AREA);
+						return null;
+					}
+					value = evaluateAny(cell, sheetIndex, r, c, tracker, null);
+				}
+				items[k++] = value;
+			}
+		}
+		index = new LookupIndex(items, lastColumn - firstColumn + 1);
+		_lookupIndexes.put(sheetIndex, firstRow, firstColumn, lastRow, lastColumn, index);
+		return index;
+	}
+
 	public FreeRefFunction findUserDefinedFunction(String functionName) {
 		return _udfFinder.findFunction(functionName);
 	}
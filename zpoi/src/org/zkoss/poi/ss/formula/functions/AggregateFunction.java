@@ -17,6 +17,7 @@
 
 package org.zkoss.poi.ss.formula.functions;
 
+import org.zkoss.poi.ss.formula.AreaAggregate;
 import org.zkoss.poi.ss.formula.eval.ErrorEval;
 import org.zkoss.poi.ss.formula.eval.EvaluationException;
 import org.zkoss.poi.ss.formula.eval.NumberEval;
@@ -126,6 +127,15 @@ public abstract class AggregateFunction extends MultiOperandNumericFunction {
 			}
 			return MathX.average(values);
 		}
+		protected boolean isAggregated() {
+			return true;
+		}
+		protected double evaluate(AreaAggregate aggregate) throws EvaluationException {
+			if (aggregate.getNumberCount() < 1) {
+				throw new EvaluationException(ErrorEval.DIV_ZERO);
+			}
+			return aggregate.getSum() / aggregate.getNumberCount();
+		}
 	};
 	public static final Function DEVSQ = new AggregateFunction() {
 		protected double evaluate(double[] values) {
@@ -137,6 +147,12 @@ public abstract class AggregateFunction extends MultiOperandNumericFunction {
 		protected double evaluate(double[] values) {
 			return values.length > 0 ? MathX.max(values) : 0;
 		}
+		protected boolean isAggregated() {
+			return true;
+		}
+		protected double evaluate(AreaAggregate aggregate) {
+			return aggregate.getMax();
+		}
 	};
 	public static final Function MEDIAN = new AggregateFunction() {
 		protected double evaluate(double[] values) {
@@ -147,6 +163,12 @@ public abstract class AggregateFunction extends MultiOperandNumericFunction {
 		protected double evaluate(double[] values) {
 			return values.length > 0 ? MathX.min(values) : 0;
 		}
+		protected boolean isAggregated() {
+			return true;
+		}
+		protected double evaluate(AreaAggregate aggregate) {
+			return aggregate.getMin();
+		}
 	};
 	public static final Function PRODUCT = new AggregateFunction() {
 		protected double evaluate(double[] values) {
@@ -166,6 +188,12 @@ public abstract class AggregateFunction extends MultiOperandNumericFunction {
 		protected double evaluate(double[] values) {
 			return MathX.sum(values);
 		}
+		protected boolean isAggregated() {
+			return true;
+		}
+		protected double evaluate(AreaAggregate aggregate) {
+			return aggregate.getSum();
+		}
 	};
 	public static final Function SUMSQ = new AggregateFunction() {
 		protected double evaluate(double[] values) {
@@ -17,8 +17,13 @@
 
 package org.zkoss.poi.ss.formula.functions;
 
+import org.zkoss.poi.ss.formula.eval.AreaEval;
+import org.zkoss.poi.ss.formula.eval.NumberEval;
 import org.zkoss.poi.ss.formula.eval.RefEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
+import org.zkoss.poi.ss.formula.LazyAreaEval;
+import org.zkoss.poi.ss.formula.LookupIndex;
+import org.zkoss.poi.ss.formula.LookupIndex.Selection;
 import org.zkoss.poi.ss.formula.TwoDEval;
 
 /**
@@ -41,11 +46,57 @@ final class CountUtils {
     public interface I_MatchAreaPredicate extends I_MatchPredicate {
         boolean matches(TwoDEval x, int rowIndex, int columnIndex);
     }
+	/**
+	 * A predicate that selects the cells it matches from the {@link LookupIndex}
+	 * of a large range, instead of testing each of them.
+	 */
+	public interface I_IndexedMatchPredicate extends I_MatchPredicate {
+		/**
+		 * @return the matching cells, or null if they have to be tested one by one
+		 */
+		Selection select(LookupIndex index);
+	}
+
+	/**
+	 * @return the cells of the range the predicate matches, selected with the
+	 * index of the range, or null if they have to be tested one by one
+	 */
+	public static Selection select(TwoDEval areaEval, I_MatchPredicate criteriaPredicate) {
+		if (!(criteriaPredicate instanceof I_IndexedMatchPredicate) || !(areaEval instanceof LazyAreaEval)) {
+			return null;
+		}
+		LookupIndex index = ((LazyAreaEval) areaEval).getLookupIndex();
+		return index == null ? null : ((I_IndexedMatchPredicate) criteriaPredicate).select(index);
+	}
+
+	/**
+	 * @param aeSum a range of the same dimensions as the selected one
+	 * @return the sum of the numbers of the range at the selected cells, other values count as zero
+	 */
+	public static double sumSelectedCells(Selection selection, AreaEval aeSum) {
+		LookupIndex addends = aeSum instanceof LazyAreaEval ? ((LazyAreaEval) aeSum).getLookupIndex() : null;
+		if (addends != null) {
+			return selection.sum(addends);
+		}
+		int width = aeSum.getWidth();
+		double result = 0.0;
+		for (int position : selection.getPositions()) {
+			ValueEval addend = aeSum.getRelativeValue(position / width, position % width);
+			if (addend instanceof NumberEval) {
+				result += ((NumberEval) addend).getNumberValue();
+			}
+		}
+		return result;
+	}
 
 	/**
 	 * @return the number of evaluated cells in the range that match the specified criteria
 	 */
 	public static int countMatchingCellsInArea(TwoDEval areaEval, I_MatchPredicate criteriaPredicate) {
+		Selection selection = select(areaEval, criteriaPredicate);
+		if (selection != null) {
+			return selection.size();
+		}
 		int result = 0;
 
 		int height = areaEval.getHeight();
@@ -17,6 +17,8 @@
 
 package org.zkoss.poi.ss.formula.functions;
 
+import org.zkoss.poi.ss.formula.AreaAggregate;
+import org.zkoss.poi.ss.formula.LazyAreaEval;
 import org.zkoss.poi.ss.formula.TwoDEval;
 import org.zkoss.poi.ss.formula.eval.BlankEval;
 import org.zkoss.poi.ss.formula.eval.ErrorEval;
@@ -61,8 +63,10 @@ public final class Counta implements Function {
 		int temp = 0;
 
 		for(int i=0; i<nArgs; i++) {
-			temp += CountUtils.countArg(args[i], _predicate);
-
+			// large areas are counted by their sheet, unless subtotals or hidden cells are skipped
+			AreaAggregate aggregate = _predicate == defaultPredicate && args[i] instanceof LazyAreaEval
+					? ((LazyAreaEval) args[i]).getAreaAggregate() : null;
+			temp += aggregate != null ? (int) aggregate.getNonBlankCount() : CountUtils.countArg(args[i], _predicate);
 		}
 		return new NumberEval(temp);
 	}
@@ -28,7 +28,10 @@ import org.zkoss.poi.ss.formula.eval.OperandResolver;
 import org.zkoss.poi.ss.formula.eval.RefEval;
 import org.zkoss.poi.ss.formula.eval.StringEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
+import org.zkoss.poi.ss.formula.functions.CountUtils.I_IndexedMatchPredicate;
 import org.zkoss.poi.ss.formula.functions.CountUtils.I_MatchPredicate;
+import org.zkoss.poi.ss.formula.LookupIndex;
+import org.zkoss.poi.ss.formula.LookupIndex.Selection;
 import org.zkoss.poi.ss.formula.TwoDEval;
 import org.zkoss.poi.ss.usermodel.ErrorConstants;
 
@@ -149,7 +152,7 @@ public final class Countif extends Fixed2ArgFunction {
 		}
 	}
 
-	private static abstract class MatcherBase implements I_MatchPredicate {
+	private static abstract class MatcherBase implements I_IndexedMatchPredicate {
 		private final CmpOp _operator;
 
 		MatcherBase(CmpOp operator) {
@@ -164,6 +167,12 @@ public final class Countif extends Fixed2ArgFunction {
 		protected final boolean evaluate(boolean cmpResult) {
 			return _operator.evaluate(cmpResult);
 		}
+		/**
+		 * @return null, the cells are tested one by one unless a matcher selects them
+		 */
+		public Selection select(LookupIndex index) {
+			return null;
+		}
 		@Override
 		public final String toString() {
 			StringBuffer sb = new StringBuffer(64);
@@ -188,6 +197,24 @@ public final class Countif extends Fixed2ArgFunction {
 		protected String getValueText() {
 			return String.valueOf(_value);
 		}
+		@Override
+		public Selection select(LookupIndex index) {
+			switch (getCode()) {
+				case CmpOp.NONE:
+				case CmpOp.EQ:
+					return index.selectNumbers(_value);
+				case CmpOp.LT:
+					return index.selectNumbersBelow(_value, false);
+				case CmpOp.LE:
+					return index.selectNumbersBelow(_value, true);
+				case CmpOp.GT:
+					return index.selectNumbersAbove(_value, false);
+				case CmpOp.GE:
+					return index.selectNumbersAbove(_value, true);
+			}
+			// '<>' also matches blanks, strings and booleans
+			return null;
+		}
 
 		public boolean matches(ValueEval x) {
 			double testValue;
@@ -247,6 +274,15 @@ public final class Countif extends Fixed2ArgFunction {
 		private static int boolToInt(boolean value) {
 			return value ? 1 : 0;
 		}
+		@Override
+		public Selection select(LookupIndex index) {
+			switch (getCode()) {
+				case CmpOp.NONE:
+				case CmpOp.EQ:
+					return index.selectBooleans(_value == 1);
+			}
+			return null;
+		}
 
 		public boolean matches(ValueEval x) {
 			int testValue;
@@ -335,6 +371,19 @@ public final class Countif extends Fixed2ArgFunction {
 			}
 			return _pattern.pattern();
 		}
+		@Override
+		public Selection select(LookupIndex index) {
+			// wildcards and the empty string, which matches blanks, are tested one by one
+			if (_pattern != null || _value.length() == 0) {
+				return null;
+			}
+			switch (getCode()) {
+				case CmpOp.NONE:
+				case CmpOp.EQ:
+					return index.selectStrings(_value);
+			}
+			return null;
+		}
 
 		public boolean matches(ValueEval x) {
 			if (x instanceof BlankEval) {
@@ -30,6 +30,8 @@ import org.zkoss.poi.ss.formula.eval.OperandResolver;
 import org.zkoss.poi.ss.formula.eval.RefEval;
 import org.zkoss.poi.ss.formula.eval.StringEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
+import org.zkoss.poi.ss.formula.LazyAreaEval;
+import org.zkoss.poi.ss.formula.LookupIndex;
 import org.zkoss.poi.ss.formula.TwoDEval;
 
 /**
@@ -47,8 +49,33 @@ final class LookupUtils {
 		int getSize();
 	}
 
+	/**
+	 * A row or column of an area, searched with its {@link LookupIndex} when it is large.
+	 */
+	private interface AreaVector extends ValueVector {
+		/**
+		 * @return null if the vector is small or has to be searched a cell at a time
+		 */
+		LookupIndex getLookupIndex();
+	}
+
+	private static final class IndexedVector implements ValueVector {
+
+		private final LookupIndex _index;
+
+		public IndexedVector(LookupIndex index) {
+			_index = index;
+		}
+
+		public ValueEval getItem(int index) {
+			return _index.getItem(index);
+		}
+		public int getSize() {
+			return _index.getSize();
+		}
+	}
 
-	private static final class RowVector implements ValueVector {
+	private static final class RowVector implements AreaVector {
 
 		private final TwoDEval _tableArray;
 		private final int _size;
@@ -75,9 +102,15 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public LookupIndex getLookupIndex() {
+			if (!(_tableArray instanceof LazyAreaEval)) {
+				return null;
+			}
+			return ((LazyAreaEval) _tableArray).getRow(_rowIndex).getLookupIndex();
+		}
 	}
 
-	private static final class ColumnVector implements ValueVector {
+	private static final class ColumnVector implements AreaVector {
 
 		private final TwoDEval _tableArray;
 		private final int _size;
@@ -104,6 +137,12 @@ final class LookupUtils {
 		public int getSize() {
 			return _size;
 		}
+		public LookupIndex getLookupIndex() {
+			if (!(_tableArray instanceof LazyAreaEval)) {
+				return null;
+			}
+			return ((LazyAreaEval) _tableArray).getColumn(_columnIndex).getLookupIndex();
+		}
 	}
 
 	public static ValueVector createRowVector(TwoDEval tableArray, int relativeRowIndex) {
@@ -125,6 +164,20 @@ final class LookupUtils {
 		return null;
 	}
 
+	/**
+	 * @return the lookup index of a large row or column of an area, kept by its
+	 * evaluator, or null if the vector has to be searched a cell at a time
+	 */
+	public static LookupIndex getLookupIndex(ValueVector vector) {
+		return vector instanceof AreaVector ? ((AreaVector) vector).getLookupIndex() : null;
+	}
+	/**
+	 * @return the values of the lookup index, read once for all lookups
+	 */
+	public static ValueVector createVector(LookupIndex index) {
+		return new IndexedVector(index);
+	}
+
 	/**
 	 * Enumeration to support <b>4</b> valued comparison results.<p/>
 	 * Excel lookup functions have complex behaviour in the case where the lookup array has mixed
@@ -498,6 +551,17 @@ final class LookupUtils {
 	}
 
 	public static int lookupIndexOfValue(ValueEval lookupValue, ValueVector vector, boolean isRangeLookup) throws EvaluationException {
+		LookupIndex index = getLookupIndex(vector);
+		if(index != null) {
+			if(!isRangeLookup && LookupIndex.isIndexed(lookupValue)) {
+				int result = index.indexOf(lookupValue);
+				if(result < 0) {
+					throw new EvaluationException(ErrorEval.NA);
+				}
+				return result;
+			}
+			vector = createVector(index);
+		}
 		LookupValueComparer lookupComparer = createLookupComparer(lookupValue, !isRangeLookup);
 		int result;
 		if(isRangeLookup) {
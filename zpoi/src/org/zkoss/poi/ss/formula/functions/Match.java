@@ -28,6 +28,7 @@ import org.zkoss.poi.ss.formula.eval.ValueEval;
 import org.zkoss.poi.ss.formula.functions.LookupUtils.CompareResult;
 import org.zkoss.poi.ss.formula.functions.LookupUtils.LookupValueComparer;
 import org.zkoss.poi.ss.formula.functions.LookupUtils.ValueVector;
+import org.zkoss.poi.ss.formula.LookupIndex;
 import org.zkoss.poi.ss.formula.TwoDEval;
 
 /**
@@ -187,6 +188,18 @@ public final class Match extends Var2or3ArgFunction {
 	private static int findIndexOfValue(ValueEval lookupValue, ValueVector lookupRange,
 			boolean matchExact, boolean findLargestLessThanOrEqual) throws EvaluationException {
 
+		LookupIndex index = LookupUtils.getLookupIndex(lookupRange);
+		if(index != null) {
+			if(matchExact && LookupIndex.isIndexed(lookupValue)) {
+				int result = index.indexOf(lookupValue);
+				if(result < 0) {
+					throw new EvaluationException(ErrorEval.NA);
+				}
+				return result;
+			}
+			lookupRange = LookupUtils.createVector(index);
+		}
+
 		LookupValueComparer lookupComparer = createLookupComparer(lookupValue, matchExact);
 
 		int size = lookupRange.getSize();
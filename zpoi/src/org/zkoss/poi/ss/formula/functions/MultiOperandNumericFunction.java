@@ -28,6 +28,8 @@ import org.zkoss.poi.ss.formula.eval.RefEval;
 import org.zkoss.poi.ss.formula.eval.StringEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
 import org.zkoss.poi.ss.formula.eval.ValuesEval;
+import org.zkoss.poi.ss.formula.AreaAggregate;
+import org.zkoss.poi.ss.formula.LazyAreaEval;
 import org.zkoss.poi.ss.formula.TwoDEval;
 
 /**
@@ -88,8 +90,12 @@ public abstract class MultiOperandNumericFunction implements Function {
 
 		double d;
 		try {
-			double[] values = getNumberArray(args);
-			d = evaluate(values);
+			if (isAggregated()) {
+				d = evaluateAggregated(args);
+			} else {
+				double[] values = getNumberArray(args);
+				d = evaluate(values);
+			}
 		} catch (EvaluationException e) {
 			return e.getErrorEval();
 		}
@@ -102,6 +108,48 @@ public abstract class MultiOperandNumericFunction implements Function {
 
 	protected abstract double evaluate(double[] values) throws EvaluationException;
 
+	/**
+	 * Whether this function is computed from the {@link AreaAggregate} of its
+	 * operands, so large areas are aggregated by their sheet instead of read.
+	 * Subclasses returning true implement {@link #evaluate(AreaAggregate)}.
+	 */
+	protected boolean isAggregated() {
+		return false;
+	}
+
+	protected double evaluate(AreaAggregate aggregate) throws EvaluationException {
+		throw new IllegalStateException("not aggregated");
+	}
+
+	private double evaluateAggregated(ValueEval[] operands) throws EvaluationException {
+		if (operands.length > getMaxNumOperands()) {
+			throw EvaluationException.invalidValue();
+		}
+		AreaAggregate total = null;
+		DoubleList values = new DoubleList();
+		for (ValueEval operand : operands) {
+			// hidden and subtotal cells have to be read to be skipped
+			AreaAggregate aggregate = operand instanceof LazyAreaEval && isHiddenCounted() && isSubtotalCounted()
+					? ((LazyAreaEval) operand).getAreaAggregate() : null;
+			// errors are read for the first one to be returned
+			if (aggregate != null && aggregate.getErrorCount() == 0) {
+				if (total == null) {
+					total = new AreaAggregate();
+				}
+				total.add(aggregate);
+			} else {
+				collectValues(operand, values);
+			}
+		}
+		if (total == null) {
+			return evaluate(values.toArray());
+		}
+		for (double value : values.toArray()) {
+			total.addNumber(value);
+		}
+		return evaluate(total);
+	}
+
 	/**
 	 * Maximum number of operands accepted by this function.
 	 * Subclasses may override to change default value.
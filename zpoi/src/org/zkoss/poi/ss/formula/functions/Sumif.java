@@ -24,6 +24,7 @@ import org.zkoss.poi.ss.formula.eval.NumberEval;
 import org.zkoss.poi.ss.formula.eval.RefEval;
 import org.zkoss.poi.ss.formula.eval.ValueEval;
 import org.zkoss.poi.ss.formula.functions.CountUtils.I_MatchPredicate;
+import org.zkoss.poi.ss.formula.LookupIndex.Selection;
 
 /**
  * Implementation for the Excel function SUMIF<p>
@@ -74,6 +75,10 @@ public final class Sumif extends Var2or3ArgFunction {
 	}
 
 	private static double sumMatchingCells(AreaEval aeRange, I_MatchPredicate mp, AreaEval aeSum) {
+		Selection selection = CountUtils.select(aeRange, mp);
+		if (selection != null) {
+			return CountUtils.sumSelectedCells(selection, aeSum);
+		}
 		int height=aeRange.getHeight();
 		int width= aeRange.getWidth();
 
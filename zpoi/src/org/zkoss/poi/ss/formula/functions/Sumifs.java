@@ -22,6 +22,7 @@ package org.zkoss.poi.ss.formula.functions;
 import org.zkoss.poi.ss.formula.OperationEvaluationContext;
 import org.zkoss.poi.ss.formula.eval.*;
 import org.zkoss.poi.ss.formula.functions.CountUtils.I_MatchPredicate;
+import org.zkoss.poi.ss.formula.LookupIndex.Selection;
 
 /**
  * Implementation for the Excel function SUMIFS<p>
@@ -96,6 +97,20 @@ public final class Sumifs implements FreeRefFunction {
      * @return the computed value
      */
     private static double sumMatchingCells(AreaEval[] ranges, I_MatchPredicate[] predicates, AreaEval aeSum) {
+        // select the cells of the most selective indexed criteria, and test the others on them only
+        Selection selection = null;
+        int selected = -1;
+        for(int i = 0; i < ranges.length; i++){
+            Selection s = CountUtils.select(ranges[i], predicates[i]);
+            if(s != null && (selection == null || s.size() < selection.size())) {
+                selection = s;
+                selected = i;
+            }
+        }
+        if(selection != null) {
+            return sumSelectedCells(ranges, predicates, aeSum, selection, selected);
+        }
+
         int height = aeSum.getHeight();
         int width = aeSum.getWidth();
 
@@ -123,6 +138,32 @@ public final class Sumifs implements FreeRefFunction {
         return result;
     }
 
+    private static double sumSelectedCells(AreaEval[] ranges, I_MatchPredicate[] predicates, AreaEval aeSum,
+            Selection selection, int selected) {
+        if(ranges.length == 1) {
+            return CountUtils.sumSelectedCells(selection, aeSum);
+        }
+        int width = aeSum.getWidth();
+        double result = 0.0;
+        for (int position : selection.getPositions()) {
+            int r = position / width;
+            int c = position % width;
+
+            boolean matches = true;
+            for(int i = 0; i < ranges.length; i++){
+                if (i != selected && !predicates[i].matches(ranges[i].getRelativeValue(r, c))) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if(matches) {
+                result += accumulate(aeSum, r, c);
+            }
+        }
+        return result;
+    }
+
 	private static double accumulate(AreaEval aeSum, int relRowIndex,
 			int relColIndex) {
 
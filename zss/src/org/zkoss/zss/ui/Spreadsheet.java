@@ -159,6 +159,7 @@ import org.zkoss.zss.ui.event.StopEditingEvent;
 import org.zkoss.zss.ui.event.SyncFriendFocusEvent;
 import org.zkoss.zss.ui.impl.ActiveRangeHelper;
 import org.zkoss.zss.ui.impl.CellFormatHelper;
+import org.zkoss.zss.ui.impl.CellUpdateCoalescer;
 import org.zkoss.zss.ui.impl.ComponentEvaluationContributor;
 import org.zkoss.zss.ui.impl.DefaultUserActionManagerCtrl;
 import org.zkoss.zss.ui.impl.DummyDataValidationHandler;
@@ -346,6 +347,7 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 	private Map _rowTitles;
 
 	private ModelEventListener _modelEventListener = new InnerModelEventDispatcher();
+	private final CellUpdateCoalescer _cellUpdates = new CellUpdateCoalescer();
 	
 	private InnerVariableResolver _variableResolver = new InnerVariableResolver();
 	private InnerFunctionMapper _functionMapper = new InnerFunctionMapper();
@@ -734,6 +736,10 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 	//ZSS-406 Spreadsheet doesn't be release when use application share scope
 	private void releaseBook(){
 		if (_book != null) {
+			//write behind cells must reach the DB before the book is let go
+			for (SSheet sheet : _book.getSheets()) {
+				((AbstractSheetAdv) sheet).flushDirtyCells();
+			}
 			_book.getBookSeries().getLock().writeLock().lock();
 			try{
 				_book.removeEventListener(_modelEventListener);
@@ -2188,6 +2194,15 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 	private class InnerModelEventDispatcher extends ModelEventDispatcher{
 		private static final long serialVersionUID = 20100330164021L;
 
+		@Override
+		public void onEvent(ModelEvent event) {
+			//other changes, e.g. row insertion, apply to the cells as already updated
+			if (!ModelEvents.ON_CELL_CONTENT_CHANGE.equals(event.getName())) {
+				flushCellUpdates(false);
+			}
+			super.onEvent(event);
+		}
+
 		public InnerModelEventDispatcher() {
 			addEventListener(ModelEvents.ON_SHEET_ORDER_CHANGE, new ModelEventListener() {
 				@Override
@@ -2492,19 +2507,23 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 			// e.g. co-editing, cut from other sheet... etc.
 			// but has to update the client (might has cache)
 			
-			final int left = region.getColumn();
-			final int top = region.getRow();
-			final int right = region.getLastColumn();
-			final int bottom = region.getLastRow();
 			//ZSS-939
 			final Integer cellAttrVal = (Integer) event.getData("cellAttr");
 			final CellAttribute cellAttr = cellAttrVal == null ? CellAttribute.ALL : CellAttribute.values()[cellAttrVal - 1];
-			updateCell(sheet, left, top, right, bottom, cellAttr);
+			//coalesce the cell changes of an execution, e.g. a paste or the events queued for a co-editor
+			_cellUpdates.add(sheet, region, cellAttr.ordinal());
+			//per component, the operations of an execution are shared by its spreadsheets
+			final String opName = "cellUpdate" + getUuid();
+			if (!hasDeferOperation(opName)) {
+				addDeferOperation(opName, new DeferOperation() {
+					@Override
+					public void process() {
+						flushCellUpdates(true);
+					}
+				});
+			}
 			
 			updateUnlockInfo();
-			org.zkoss.zk.ui.event.Events.postEvent(new CellAreaEvent(
-					Events.ON_AFTER_CELL_CHANGE, Spreadsheet.this, new SheetImpl(new SimpleRef<SBook>(sheet.getBook()),new SimpleRef<SSheet>(sheet))
-					,top, left, bottom,right));
 		}
 		
 		private void onChartContentChange(ModelEvent event) {
@@ -4508,6 +4527,7 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 		if(_selectedSheet==null){
 			return;
 		}
+		((AbstractSheetAdv) _selectedSheet).flushDirtyCells();
 		deleteSelfEditorFocus();
 		
 		List list = loadWidgetLoaders();
@@ -5565,6 +5585,36 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 		smartUpdate("objectEditable", sheetProtection.isObjectsEditable());
 	}
 	
+	/*
+	 * Update the cells of the coalesced cell changes, a region at a time.
+	 */
+	private void flushCellUpdates(boolean lock) {
+		if (_cellUpdates.isEmpty()) {
+			return;
+		}
+		_cellUpdates.flush(new CellUpdateCoalescer.RegionHandler() {
+			@Override
+			public void onRegion(SSheet sheet, CellRegion region, int cellAttr) {
+				//rendering only reads the cells
+				ReadWriteLock rwLock = lock ? sheet.getBook().getBookSeries().getLock() : null;
+				if (rwLock != null) {
+					rwLock.readLock().lock();
+				}
+				try {
+					updateCell(sheet, region.getColumn(), region.getRow(), region.getLastColumn(), region.getLastRow(),
+							CellAttribute.values()[cellAttr]);
+				} finally {
+					if (rwLock != null) {
+						rwLock.readLock().unlock();
+					}
+				}
+				org.zkoss.zk.ui.event.Events.postEvent(new CellAreaEvent(
+						Events.ON_AFTER_CELL_CHANGE, Spreadsheet.this, new SheetImpl(new SimpleRef<SBook>(sheet.getBook()),new SimpleRef<SSheet>(sheet))
+						,region.getRow(), region.getColumn(), region.getLastRow(), region.getLastColumn()));
+			}
+		});
+	}
+
 	/*
 	 *  Update unlock info including rows, cols and cells. 
 	 */
@@ -5749,6 +5799,11 @@ public class Spreadsheet extends XulElement implements Serializable, AfterCompos
 	 * Collected same accumulated deferred operations and process here 
 	 */
 	private void processDeferOperations(Map<String, DeferOperation> map) {
+		//operations deferred while or after processing these go to a new map and event
+		Execution exec = Executions.getCurrent();
+		if (exec.getAttribute(_ZSS_DEFER_OP_MAP, false) == map) {
+			exec.removeAttribute(_ZSS_DEFER_OP_MAP, false);
+		}
 		if (map != null) {
 			for (DeferOperation op : map.values()) {
 				op.process();
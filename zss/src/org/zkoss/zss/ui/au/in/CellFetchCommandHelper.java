@@ -28,7 +28,9 @@ import org.zkoss.zk.au.AuRequest;
 import org.zkoss.zk.mesg.MZk;
 import org.zkoss.zk.ui.Component;
 import org.zkoss.zk.ui.UiException;
+import org.zkoss.zss.model.CellRegion;
 import org.zkoss.zss.model.SSheet;
+import org.zkoss.zss.model.impl.AbstractSheetAdv;
 import org.zkoss.zss.ui.Spreadsheet;
 import org.zkoss.zss.ui.impl.HeaderPositionHelper;
 import org.zkoss.zss.ui.impl.JSONObj;
@@ -280,6 +282,15 @@ public class CellFetchCommandHelper{
 			throw new UiException(x.getMessage(), x);
 		}
 		
+		//load the cells ahead of the scroll direction in the background
+		if (!"visible".equals(type) && direction != null && sheet instanceof AbstractSheetAdv
+				&& _loadedTop <= _loadedBottom && _loadedLeft <= _loadedRight) {
+			int rowDirection = direction.contains("south") ? 1 : direction.contains("north") ? -1 : 0;
+			int columnDirection = direction.contains("east") ? 1 : direction.contains("west") ? -1 : 0;
+			((AbstractSheetAdv) sheet).prefetchCells(new CellRegion(_loadedTop, _loadedLeft, _loadedBottom, _loadedRight),
+					rowDirection, columnDirection);
+		}
+		
 		((SpreadsheetInCtrl) _ctrl).setLoadedRect(_loadedLeft < cacheLeft ? _loadedLeft : cacheLeft, _loadedTop < cacheTop ? _loadedTop : cacheTop, _loadedRight > cacheRight ? _loadedRight : cacheRight, _loadedBottom > cacheBottom ? _loadedBottom : cacheBottom);
 		((SpreadsheetInCtrl) _ctrl).setVisibleRect(_lastleft, _lasttop,	_lastright, _lastbottom);
 	}
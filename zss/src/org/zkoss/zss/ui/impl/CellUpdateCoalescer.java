@@ -0,0 +1,108 @@
+package org.zkoss.zss.ui.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zkoss.zss.model.CellRegion;
+import org.zkoss.zss.model.SSheet;
+
+/**
+ * Collects the regions of cell updates, by sheet and cell attribute, merging
+ * overlapping or adjacent regions, so a burst of cell change events, e.g. a
+ * paste, is rendered as a few regions instead of one update per event.
+ * <p>
+ * Two regions are merged when their bounding region covers no cell neither
+ * covers. When a sheet collects more than {@link #MAX_REGIONS} regions, they
+ * are merged into their bounding region.
+ * @since 3.8.1
+ */
+public class CellUpdateCoalescer implements Serializable {
+	private static final long serialVersionUID = 20261017120000L;
+
+	/** regions of a sheet and attribute above which they are merged into one */
+	public static final int MAX_REGIONS = 32;
+
+	public interface RegionHandler {
+		void onRegion(SSheet sheet, CellRegion region, int cellAttr);
+	}
+
+	// by sheet, then cell attribute, in order of arrival
+	private final Map<SSheet, Map<Integer, List<CellRegion>>> _regions = new LinkedHashMap<SSheet, Map<Integer, List<CellRegion>>>(4);
+
+	public boolean isEmpty() {
+		return _regions.isEmpty();
+	}
+
+	public void add(SSheet sheet, CellRegion region, int cellAttr) {
+		Map<Integer, List<CellRegion>> byAttr = _regions.get(sheet);
+		if (byAttr == null) {
+			byAttr = new LinkedHashMap<Integer, List<CellRegion>>(2);
+			_regions.put(sheet, byAttr);
+		}
+		List<CellRegion> regions = byAttr.get(cellAttr);
+		if (regions == null) {
+			regions = new ArrayList<CellRegion>(4);
+			byAttr.put(cellAttr, regions);
+		}
+		merge(regions, region);
+		if (regions.size() > MAX_REGIONS) {
+			CellRegion bounds = regions.get(0);
+			for (CellRegion r : regions) {
+				bounds = bounds(bounds, r);
+			}
+			regions.clear();
+			regions.add(bounds);
+		}
+	}
+
+	private static void merge(List<CellRegion> regions, CellRegion region) {
+		for (int i = regions.size() - 1; i >= 0; i--) {
+			CellRegion r = regions.get(i);
+			if (r.contains(region)) {
+				return;
+			}
+			CellRegion bounds = bounds(r, region);
+			CellRegion overlap = r.getOverlap(region);
+			long covered = count(r) + count(region) - (overlap == null ? 0 : count(overlap));
+			if (count(bounds) == covered) {
+				regions.remove(i);
+				// the merged region may now merge with another one
+				merge(regions, bounds);
+				return;
+			}
+		}
+		regions.add(region);
+	}
+
+	// a whole sheet overflows CellRegion.getCellCount()
+	private static long count(CellRegion region) {
+		return (long) region.getRowCount() * region.getColumnCount();
+	}
+
+	private static CellRegion bounds(CellRegion a, CellRegion b) {
+		return new CellRegion(Math.min(a.getRow(), b.getRow()), Math.min(a.getColumn(), b.getColumn()),
+				Math.max(a.getLastRow(), b.getLastRow()), Math.max(a.getLastColumn(), b.getLastColumn()));
+	}
+
+	/**
+	 * Hands the collected regions to the handler, and clears them.
+	 */
+	public void flush(RegionHandler handler) {
+		if (_regions.isEmpty()) {
+			return;
+		}
+		List<Map.Entry<SSheet, Map<Integer, List<CellRegion>>>> entries =
+				new ArrayList<Map.Entry<SSheet, Map<Integer, List<CellRegion>>>>(_regions.entrySet());
+		_regions.clear();
+		for (Map.Entry<SSheet, Map<Integer, List<CellRegion>>> sheetEntry : entries) {
+			for (Map.Entry<Integer, List<CellRegion>> attrEntry : sheetEntry.getValue().entrySet()) {
+				for (CellRegion region : attrEntry.getValue()) {
+					handler.onRegion(sheetEntry.getKey(), region, attrEntry.getKey());
+				}
+			}
+		}
+	}
+}
@@ -42,6 +42,9 @@ public abstract class AbstractBookAdv implements SBook,EvaluationContributorCont
 
 	public abstract String getId();
 	public abstract void setIdAndLoad(String id);
+
+	/** Styles referenced by the stored cells of this book */
+	public abstract CellStyleTable getStyleTable();
 	
 	//ZSS-854
 	public abstract void clearDefaultCellStyles();
@@ -241,6 +241,12 @@ public abstract class AbstractCellAdv implements SCell,Serializable{
 	//ZSS-818
 	//@since 3.7.0
 	public abstract void setFormulaResultValue(ValueEval value);
+
+	/**
+	 * @return true if the cell is a formula and its result is cached, so reading
+	 * its value does not evaluate it
+	 */
+	public abstract boolean hasFormulaResultCache();
 	
 	//ZSS-853
 	//@since 3.7.0
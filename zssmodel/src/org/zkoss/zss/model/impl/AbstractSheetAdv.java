@@ -16,6 +16,7 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
 */
 package org.zkoss.zss.model.impl;
 
+import org.zkoss.zss.model.CellRegion;
 import org.zkoss.zss.model.SColumn;
 import org.zkoss.zss.model.SSheet;
 import org.zkoss.zss.model.STable;
@@ -52,6 +53,36 @@ public abstract class AbstractSheetAdv implements SSheet,LinkedModelObject,Seria
 	/*package*/
 	abstract void setSheetName(String name, boolean updateToDB);
 
+	/*package*/ abstract void bufferCellUpdate(AbstractCellAdv cell);
+
+	/*package*/ abstract void bufferResultUpdate(AbstractCellAdv cell);
+
+	/**
+	 * Write the buffered cell updates of this sheet to the database.
+	 */
+	abstract public void flushDirtyCells();
+
+	/**
+	 * Load the cells ahead of the loaded range in the background, as the
+	 * viewport scrolls in the given direction (-1, 0 or 1 for rows and columns).
+	 */
+	abstract public void prefetchCells(CellRegion loaded, int rowDirection, int columnDirection);
+
+	/**
+	 * @return true if {@link #reorderRows(CellRegion, int[])} can sort the
+	 * rows of the region, that is, the rows have no cells or merged cells
+	 * outside of it
+	 */
+	abstract public boolean canReorderRows(CellRegion region);
+
+	/**
+	 * Move the rows of the region so that row order[i] comes at
+	 * region.getRow() + i, by rewriting the position of the rows in the
+	 * database instead of their cells. Formulas in the moved rows are shifted
+	 * along.
+	 */
+	abstract public void reorderRows(CellRegion region, int[] order);
+
 //	/*package*/ abstract void onModelInternalEvent(ModelInternalEvent event);
 	
 	//ZSS-855
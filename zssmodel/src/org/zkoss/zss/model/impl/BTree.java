@@ -4,7 +4,11 @@ import org.model.BlockStore;
 import org.model.DBContext;
 import org.zkoss.util.logging.Log;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * An implementation of a B+ Tree
@@ -459,6 +463,7 @@ public class BTree implements PosMapping {
             if ((v.isLeaf() && v.valueSize() > B) || (!v.isLeaf() && v.childrenSize() > B + 1)) {  // underflow at w
                 shiftLRByCount(u, i - 1, v, w);
                 v.update(bs);
+                w.update(bs);
             } else { // v will absorb w
                 mergeByCount(context, u, i - 1, v, w);
                 v.update(bs);
@@ -576,7 +581,7 @@ public class BTree implements PosMapping {
             System.arraycopy(v.childrenCount, shift, v.childrenCount, 0, b - shift + 1);
             Arrays.fill(v.childrenCount, sv - shift + 1, b + 1, 0);
 
-            for (int shifti = 0; shifti < shift; shifti++) {
+            for (int shifti = sw + 1; shifti < sw + 1 + shift; shifti++) {
                 u.childrenCount[i + 1] -= w.childrenCount[shifti];
                 u.childrenCount[i] += w.childrenCount[shifti];
             }
@@ -1012,23 +1017,385 @@ public class BTree implements PosMapping {
 
     public Integer[] deleteIDs(DBContext context, int pos, int count) {
         Integer[] ids = new Integer[count];
-        for (int i = 0; i < count; i++)
-            ids[i] = removeByCount(context, pos, false);
+        if (count < B) {
+            for (int i = 0; i < count; i++)
+                ids[i] = removeByCount(context, pos, false);
+        } else {
+            removeRange(context, pos, count, ids);
+        }
         bs.flushDirtyBlocks(context);
         return ids;
     }
 
     public Integer[] createIDs(DBContext context, int pos, int count) {
         Integer[] ids = new Integer[count];
-        for (int i = 0; i < count; i++) {
-            ids[i] = ++metaDataBlock.maxValue;
-            addByCount(context, pos + i, ids[i], false);
+        if (count < B) {
+            for (int i = 0; i < count; i++) {
+                ids[i] = ++metaDataBlock.maxValue;
+                addByCount(context, pos + i, ids[i], false);
+            }
+        } else {
+            if (pos > size(context))
+                throw new RuntimeException("pos should be <= size");
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++)
+                ids[i] = values[i] = ++metaDataBlock.maxValue;
+            if (metaDataBlock.elementCount == 0)
+                bulkLoad(context, values);
+            else
+                insertRange(context, pos, values);
         }
         bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
         bs.flushDirtyBlocks(context);
         return ids;
     }
 
+    /**
+     * Overwrite the values of the leaves in place, following the sibling
+     * links. The number of values per leaf is unchanged, so the inner nodes
+     * and their counts stay as they are.
+     */
+    public void reorderIDs(DBContext context, int pos, Integer[] ids) {
+        if (pos + ids.length > size(context))
+            throw new RuntimeException("pos + count should be <= size");
+        if (ids.length == 0)
+            return;
+        Node u = Node.get(context, bs, metaDataBlock.ri);
+        long ct = pos;
+        while (!u.isLeaf()) {
+            int i = findItByCount(u.childrenCount, ct);
+            for (int z = 0; z < i; z++)
+                ct -= u.childrenCount[z];
+            u = Node.get(context, bs, u.children[i]);
+        }
+        int index = (int) ct;
+        int n = 0;
+        while (true) {
+            int size = u.valueSize();
+            while (index < size && n < ids.length)
+                u.values[index++] = ids[n++];
+            u.update(bs);
+            if (n == ids.length)
+                break;
+            u = Node.get(context, bs, u.next_sibling);
+            index = 0;
+        }
+        bs.flushDirtyBlocks(context);
+    }
+
+    /**
+     * Build the tree bottom-up from the values, replacing the current empty
+     * root. Every node is written once.
+     *
+     * @param values the values in position order
+     */
+    protected void bulkLoad(DBContext context, int[] values) {
+        Node.get(context, bs, metaDataBlock.ri).free(bs);
+        List<Node> level = buildLeaves(context, values, -1, -1);
+        while (level.size() > 1)
+            level = buildParents(context, level, -1);
+        metaDataBlock.ri = level.get(0).id;
+        metaDataBlock.elementCount = values.length;
+    }
+
+    /**
+     * Insert a run of values at pos. The leaf at pos is rebuilt together with
+     * the new values as a sequence of full leaves, then each ancestor on the
+     * path replaces the old child with the new ones, splitting itself as
+     * needed, so every level is fixed up once.
+     *
+     * @param pos    the position of the first value
+     * @param values the values to insert
+     */
+    protected void insertRange(DBContext context, long pos, int[] values) {
+        List<Node> path = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Node u = Node.get(context, bs, metaDataBlock.ri);
+        long ct = pos;
+        while (!u.isLeaf()) {
+            int i = findItByCount(u.childrenCount, ct);
+            for (int z = 0; z < i; z++)
+                ct -= u.childrenCount[z];
+            path.add(u);
+            slots.add(i);
+            u = Node.get(context, bs, u.children[i]);
+        }
+
+        int size = u.valueSize();
+        int offset = (int) ct;
+        int[] merged = new int[size + values.length];
+        System.arraycopy(u.values, 0, merged, 0, offset);
+        System.arraycopy(values, 0, merged, offset, values.length);
+        System.arraycopy(u.values, offset, merged, offset + values.length, size - offset);
+        List<Node> replacement = buildLeaves(context, merged, u.id, u.next_sibling);
+
+        for (int level = path.size() - 1; level >= 0; level--)
+            replacement = replaceChild(context, path.get(level), slots.get(level), replacement);
+        while (replacement.size() > 1)
+            replacement = buildParents(context, replacement, -1);
+        metaDataBlock.ri = replacement.get(0).id;
+        metaDataBlock.elementCount += values.length;
+    }
+
+    /**
+     * Remove a run of count values starting at pos. Subtrees fully inside the
+     * run are dropped as a whole, only the nodes on its two boundaries are
+     * trimmed and rebalanced.
+     *
+     * @param ids receives the removed values in position order
+     */
+    protected void removeRange(DBContext context, long pos, int count, Integer[] ids) {
+        if (pos + count > size(context))
+            throw new RuntimeException("pos + count should be <= size");
+        int[] cursor = new int[1];
+        if (count == size(context)) {
+            collectAndFree(context, metaDataBlock.ri, ids, cursor);
+            Node root = Node.create(context, bs);
+            root.update(bs);
+            metaDataBlock.ri = root.id;
+            metaDataBlock.elementCount = 0;
+            bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+            return;
+        }
+
+        Node left = pos > 0 ? getLeaf(context, pos - 1) : null;
+        Set<Integer> trimmed = new HashSet<>();
+        removeRangeRecursive(context, Node.get(context, bs, metaDataBlock.ri), pos, pos + count, ids, cursor, trimmed);
+        metaDataBlock.elementCount -= count;
+
+        // link the leaves around the removed run, before rebalancing moves values
+        if (left != null) {
+            int next = pos < size(context) ? getLeaf(context, pos).id : -1;
+            if (left.id != next && left.next_sibling != next) {
+                left.next_sibling = next;
+                left.update(bs);
+            }
+        }
+        fixUnderflowRecursive(context, Node.get(context, bs, metaDataBlock.ri), trimmed);
+
+        // root has only one child
+        Node r = Node.get(context, bs, metaDataBlock.ri);
+        while (!r.isLeaf() && r.childrenSize() <= 1) {
+            r.free(bs);
+            metaDataBlock.ri = r.children[0];
+            r = Node.get(context, bs, metaDataBlock.ri);
+        }
+        bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+    }
+
+    private void removeRangeRecursive(DBContext context, Node u, long from, long to, Integer[] ids, int[] cursor,
+                                      Set<Integer> trimmed) {
+        trimmed.add(u.id);
+        if (u.isLeaf()) {
+            int size = u.valueSize();
+            for (int i = (int) from; i < to; i++)
+                ids[cursor[0]++] = u.values[i];
+            System.arraycopy(u.values, (int) to, u.values, (int) from, size - (int) to);
+            Arrays.fill(u.values, size - (int) (to - from), size, -1);
+            u.update(bs);
+            return;
+        }
+
+        int n = u.childrenSize();
+        int kept = 0;
+        long start = 0;
+        for (int i = 0; i < n; i++) {
+            long end = start + u.childrenCount[i];
+            int child = u.children[i];
+            long childCount = u.childrenCount[i];
+            if (end <= from || start >= to) {
+                // outside the run
+            } else if (from <= start && end <= to) {
+                collectAndFree(context, child, ids, cursor);
+                start = end;
+                continue;
+            } else {
+                long lo = Math.max(from, start) - start;
+                long hi = Math.min(to, end) - start;
+                removeRangeRecursive(context, Node.get(context, bs, child), lo, hi, ids, cursor, trimmed);
+                childCount -= hi - lo;
+            }
+            u.children[kept] = child;
+            u.childrenCount[kept] = childCount;
+            kept++;
+            start = end;
+        }
+        Arrays.fill(u.children, kept, u.children.length, -1);
+        Arrays.fill(u.childrenCount, kept, u.childrenCount.length, 0);
+        u.update(bs);
+    }
+
+    /**
+     * Rebalance the trimmed nodes bottom-up, only the nodes on the boundaries
+     * of a removed run can be left too small.
+     */
+    private void fixUnderflowRecursive(DBContext context, Node u, Set<Integer> trimmed) {
+        if (u.isLeaf())
+            return;
+        for (int i = 0; i < u.childrenSize(); i++) {
+            if (trimmed.contains(u.children[i]))
+                fixUnderflowRecursive(context, Node.get(context, bs, u.children[i]), trimmed);
+        }
+        for (int round = 0; round < b && u.childrenSize() > 1; round++) {
+            int i = findUnderflow(context, u);
+            if (i < 0)
+                break;
+            checkUnderflowByCount(context, u, i);
+        }
+        u.update(bs);
+    }
+
+    private int findUnderflow(DBContext context, Node u) {
+        int n = u.childrenSize();
+        for (int i = 0; i < n; i++) {
+            if (isUnderflow(Node.get(context, bs, u.children[i])))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean isUnderflow(Node w) {
+        return w.isLeaf() ? w.valueSize() < B : w.childrenSize() < B + 1;
+    }
+
+    /**
+     * Free the subtree rooted at ui, collecting its values in position order.
+     */
+    private void collectAndFree(DBContext context, int ui, Integer[] ids, int[] cursor) {
+        Node u = Node.get(context, bs, ui);
+        if (u.isLeaf()) {
+            int size = u.valueSize();
+            for (int i = 0; i < size; i++)
+                ids[cursor[0]++] = u.values[i];
+        } else {
+            int n = u.childrenSize();
+            for (int i = 0; i < n; i++)
+                collectAndFree(context, u.children[i], ids, cursor);
+        }
+        u.free(bs);
+    }
+
+    private Node getLeaf(DBContext context, long pos) {
+        Node u = Node.get(context, bs, metaDataBlock.ri);
+        long ct = pos;
+        while (!u.isLeaf()) {
+            int i = findItByCount(u.childrenCount, ct);
+            for (int z = 0; z < i; z++)
+                ct -= u.childrenCount[z];
+            u = Node.get(context, bs, u.children[i]);
+        }
+        return u;
+    }
+
+    /**
+     * Replace the i'th child of u by the given nodes, splitting u if they
+     * don't fit.
+     *
+     * @return u, followed by the nodes split from it
+     */
+    private List<Node> replaceChild(DBContext context, Node u, int i, List<Node> nodes) {
+        int n = u.childrenSize();
+        int total = n - 1 + nodes.size();
+        int[] children = new int[total];
+        long[] counts = new long[total];
+        System.arraycopy(u.children, 0, children, 0, i);
+        System.arraycopy(u.childrenCount, 0, counts, 0, i);
+        for (int z = 0; z < nodes.size(); z++) {
+            children[i + z] = nodes.get(z).id;
+            counts[i + z] = nodes.get(z).getCumulativeChildrenCount();
+        }
+        System.arraycopy(u.children, i + 1, children, i + nodes.size(), n - i - 1);
+        System.arraycopy(u.childrenCount, i + 1, counts, i + nodes.size(), n - i - 1);
+        return buildInternals(context, children, counts, u.id);
+    }
+
+    /**
+     * Build the parent level of the given nodes.
+     *
+     * @param firstId block to reuse for the first parent, or -1
+     */
+    private List<Node> buildParents(DBContext context, List<Node> nodes, int firstId) {
+        int[] children = new int[nodes.size()];
+        long[] counts = new long[nodes.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = nodes.get(i).id;
+            counts[i] = nodes.get(i).getCumulativeChildrenCount();
+        }
+        return buildInternals(context, children, counts, firstId);
+    }
+
+    /**
+     * Spread the children evenly over as few internal nodes as possible. With
+     * more than one node each gets at least B + 1 children.
+     *
+     * @param firstId block to reuse for the first node, or -1
+     */
+    private List<Node> buildInternals(DBContext context, int[] children, long[] counts, int firstId) {
+        int[] sizes = partition(children.length, b);
+        int[] blockIds = allocate(context, sizes.length, firstId);
+        List<Node> nodes = new ArrayList<>(sizes.length);
+        int from = 0;
+        for (int k = 0; k < sizes.length; k++) {
+            Node node = new Node();
+            node.id = blockIds[k];
+            node.leafNode = false;
+            node.children = new int[b + 1];
+            Arrays.fill(node.children, -1);
+            node.childrenCount = new long[b + 1];
+            System.arraycopy(children, from, node.children, 0, sizes[k]);
+            System.arraycopy(counts, from, node.childrenCount, 0, sizes[k]);
+            node.update(bs);
+            nodes.add(node);
+            from += sizes[k];
+        }
+        return nodes;
+    }
+
+    /**
+     * Spread the values evenly over as few leaves as possible, linked in
+     * order. With more than one leaf each gets at least B values.
+     *
+     * @param firstId     block to reuse for the first leaf, or -1
+     * @param nextSibling the leaf following the last one, or -1
+     */
+    private List<Node> buildLeaves(DBContext context, int[] values, int firstId, int nextSibling) {
+        int[] sizes = partition(values.length, b - 1);
+        int[] blockIds = allocate(context, sizes.length, firstId);
+        List<Node> leaves = new ArrayList<>(sizes.length);
+        int from = 0;
+        for (int k = 0; k < sizes.length; k++) {
+            Node leaf = new Node();
+            leaf.id = blockIds[k];
+            System.arraycopy(values, from, leaf.values, 0, sizes[k]);
+            leaf.next_sibling = k + 1 < sizes.length ? blockIds[k + 1] : nextSibling;
+            leaf.update(bs);
+            leaves.add(leaf);
+            from += sizes[k];
+        }
+        return leaves;
+    }
+
+    private int[] allocate(DBContext context, int count, int firstId) {
+        if (firstId < 0)
+            return bs.getNewBlockIDs(context, count);
+        int[] blockIds = new int[count];
+        blockIds[0] = firstId;
+        if (count > 1)
+            System.arraycopy(bs.getNewBlockIDs(context, count - 1), 0, blockIds, 1, count - 1);
+        return blockIds;
+    }
+
+    /**
+     * Sizes of ceil(n / capacity) nearly equal parts of n
+     */
+    private static int[] partition(int n, int capacity) {
+        int parts = Math.max(1, (n + capacity - 1) / capacity);
+        int[] sizes = new int[parts];
+        for (int k = 0; k < parts; k++)
+            sizes[k] = n / parts + (k < n % parts ? 1 : 0);
+        return sizes;
+    }
+
     private static class MetaDataBlock {
         // The ID of the root node
         int ri;
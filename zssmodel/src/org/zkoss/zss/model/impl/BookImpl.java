@@ -64,6 +64,7 @@ public class BookImpl extends AbstractBookAdv{
 	private final int _maxRowSize = Integer.MAX_VALUE;
 	private final int _maxColumnSize = Integer.MAX_VALUE;
 	boolean schemaPresent = false;
+	private transient CellStyleTable _styleTable;
 	private String _bookName;
 	private String _shareScope;
 	private SBookSeries _bookSeries;
@@ -102,6 +103,7 @@ public class BookImpl extends AbstractBookAdv{
 			//TODO: Delete sheet
 			//stmt.execute("DROP TABLE " + bookTable + "_sheetdata");
 			stmt.execute("DROP TABLE " + bookTable + "_workbook");
+			stmt.execute("DROP TABLE IF EXISTS " + bookTable + "_styles");
 			deleteBookStmt.setString(1, bookName);
 			deleteBookStmt.execute();
 			connection.commit();
@@ -207,6 +209,7 @@ public class BookImpl extends AbstractBookAdv{
 				insertSheetStmt.execute();
 			}
 			insertSheetStmt.close();
+			getStyleTable().createSchema(dbContext);
 			connection.commit();
 			schemaPresent = true;
 		}
@@ -291,8 +294,8 @@ public class BookImpl extends AbstractBookAdv{
 		sheet.setSheetName(name, false);
 		_sheets.add(sheet);
 
-		//create formula cache for any sheet, sheet name, position change
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		//the sheet is appended, other sheets keep their index
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this, false));
 
 		ModelUpdateUtil.handlePrecedentUpdate(getBookSeries(),new RefImpl(sheet, -1));
 		return sheet;
@@ -393,8 +396,8 @@ public class BookImpl extends AbstractBookAdv{
 			}
 		}
 
-		//create formula cache for any sheet, sheet name, position change
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		//the sheet is appended, other sheets keep their index
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this, false));
 
 		ModelUpdateUtil.handlePrecedentUpdate(getBookSeries(),new RefImpl(sheet, -1));
 
@@ -414,8 +417,8 @@ public class BookImpl extends AbstractBookAdv{
 		String oldname = sheet.getSheetName();
 		((AbstractSheetAdv) sheet).setSheetName(newname, true);
 
-		//create formula cache for any sheet, sheet name, position change
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		//the sheet keeps its index, only its name changes
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this, false));
 
 		ModelUpdateUtil.handlePrecedentUpdate(getBookSeries(),new RefImpl(this.getBookName(),newname, index));//to clear the cache of formula that has unexisted name
 		ModelUpdateUtil.handlePrecedentUpdate(getBookSeries(),new RefImpl(this.getBookName(),oldname, index));
@@ -1093,6 +1096,7 @@ public class BookImpl extends AbstractBookAdv{
 	public void setIdAndLoad(String id){
 		schemaPresent = true;
 		this._bookId = id;
+		_styleTable = null;
 
 		// Load Schema
 		String bookTable = getId();
@@ -1116,6 +1120,13 @@ public class BookImpl extends AbstractBookAdv{
 
 	}
 
+	@Override
+	public synchronized CellStyleTable getStyleTable() {
+		if (_styleTable == null)
+			_styleTable = new CellStyleTable(this);
+		return _styleTable;
+	}
+
 	@Override
 	public boolean hasSchema() {
 		return schemaPresent;
@@ -29,6 +29,7 @@ import org.zkoss.poi.ss.usermodel.ZssContext;
 import org.zkoss.poi.util.Internal;
 import org.zkoss.zss.model.*;
 import org.zkoss.zss.model.STableColumn.STotalsRowFunction;
+import org.zkoss.zss.model.impl.sys.DependencyTableAdv;
 import org.zkoss.zss.model.impl.sys.formula.FormulaEngineImpl;
 import org.zkoss.zss.model.sys.EngineFactory;
 import org.zkoss.zss.model.sys.dependency.DependencyTable;
@@ -39,14 +40,16 @@ import org.zkoss.zss.model.sys.format.FormatResult;
 import org.zkoss.zss.model.sys.formula.*;
 import org.zkoss.zss.model.util.Validations;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
 //import org.zkoss.zss.ngmodel.InvalidateModelValueException;
 /**
  * 
@@ -64,11 +67,47 @@ public class CellImpl extends AbstractCellAdv {
 		}
 	};
 	private final static KryoPool kryoPool = new KryoPool.Builder(factory).softReferences().build();
+
+	/*
+	 * Compact cell format: magic, version, value tag, section flags, the value
+	 * as a primitive, then the present sections. 0xFE never starts UTF-8 text
+	 * nor a legacy Kryo blob.
+	 */
+	private static final byte CODEC_MAGIC = (byte) 0xFE;
+	private static final byte CODEC_VERSION = 1;
+	private static final int TAG_BLANK = 0;
+	private static final int TAG_STRING = 1;
+	private static final int TAG_NUMBER = 2;
+	private static final int TAG_BOOLEAN = 3;
+	private static final int TAG_FORMULA = 4;
+	private static final int TAG_ERROR = 5;
+	private static final int TAG_OBJECT = 6;
+	// style ID in the book's CellStyleTable
+	private static final int SECTION_STYLE_REF = 1;
+	// style written in place, for a cell without a book
+	private static final int SECTION_STYLE = 2;
+	private static final int SECTION_COMMENT = 4;
+	private static final int SECTION_HYPERLINK = 8;
+	// the last result of a formula and the version of the sheet's model it was computed at
+	private static final int SECTION_RESULT = 16;
+
+	// functions whose result may change without any precedent changing
+	private static final Pattern VOLATILE_FUNCTION = Pattern.compile(
+			"\\b(RAND|RANDBETWEEN|NOW|TODAY|OFFSET|INDIRECT|CELL|INFO)\\s*\\(", Pattern.CASE_INSENSITIVE);
+	// limits of the search through the precedents of a stored result, beyond them it is evaluated again
+	private static final int MAX_PRECEDENT_FORMULAS = 256;
+	private static final int MAX_PRECEDENT_CELLS = 1 << 14;
+
 	transient private int _row;
 	transient private int _column;
 	private CellValue _localValue = null;
 	private AbstractCellStyleAdv _cellStyle;
+	// style ID not resolved yet, until the cell is attached to its sheet
+	transient private int _styleRef = -1;
 	transient private FormulaResultCellValue _formulaResultValue;// cache
+	// result read from the database, and the model version of the result
+	transient private FormulaResultCellValue _persistedResult;
+	transient private long _resultVersion = -1;
     transient private AbstractSheetAdv _sheet;
     //use another object to reduce object reference size
 	private OptFields _opts;
@@ -86,6 +125,10 @@ public class CellImpl extends AbstractCellAdv {
 
 
     public static CellImpl fromBytes(int row, int column, byte[] inByteArray) {
+		if (inByteArray.length >= 2 && inByteArray[0] == CODEC_MAGIC && inByteArray[1] == CODEC_VERSION) {
+			return decode(row, column, inByteArray);
+		}
+		// legacy Kryo data, rewritten in the compact form once the cell is updated
 		CellImpl cellImpl;
 		Kryo kryo = kryoPool.borrow();
 		try (Input in = new Input(inByteArray)) {
@@ -102,22 +145,271 @@ public class CellImpl extends AbstractCellAdv {
 		return cellImpl;
 	}
 
+	private static CellImpl decode(int row, int column, byte[] inByteArray) {
+		CellImpl cellImpl = new CellImpl(row, column);
+		Kryo kryo = kryoPool.borrow();
+		try (Input in = new Input(inByteArray)) {
+			in.setPosition(2);
+			int tag = in.readByte();
+			int sections = in.readByte();
+			CellType type;
+			Object value;
+			switch (tag) {
+			case TAG_STRING:
+				type = CellType.STRING;
+				value = in.readString();
+				break;
+			case TAG_NUMBER:
+				type = CellType.NUMBER;
+				value = in.readDouble();
+				break;
+			case TAG_BOOLEAN:
+				type = CellType.BOOLEAN;
+				value = in.readBoolean();
+				break;
+			case TAG_FORMULA:
+				// parsed again once the cell is attached to its sheet
+				type = CellType.FORMULA;
+				value = new FormulaEngineImpl.FormulaExpressionImpl(in.readString(), null, null);
+				break;
+			case TAG_ERROR:
+				type = CellType.ERROR;
+				value = new ErrorValue(in.readByte(), in.readString());
+				break;
+			case TAG_OBJECT:
+				type = CellType.values()[in.readByte()];
+				value = kryo.readClassAndObject(in);
+				break;
+			default:
+				type = CellType.BLANK;
+				value = null;
+			}
+			if (value != null) {
+				cellImpl._localValue = new InnerCellValue(type, value);
+			}
+			if ((sections & SECTION_STYLE_REF) != 0) {
+				cellImpl._styleRef = in.readVarInt(true);
+			}
+			if ((sections & SECTION_STYLE) != 0) {
+				cellImpl._cellStyle = (AbstractCellStyleAdv) kryo.readClassAndObject(in);
+			}
+			if ((sections & SECTION_COMMENT) != 0) {
+				cellImpl.getOpts(true)._comment = (AbstractCommentAdv) kryo.readClassAndObject(in);
+			}
+			if ((sections & SECTION_HYPERLINK) != 0) {
+				cellImpl.getOpts(true)._hyperlink = (AbstractHyperlinkAdv) kryo.readClassAndObject(in);
+			}
+			if ((sections & SECTION_RESULT) != 0) {
+				cellImpl._resultVersion = in.readVarLong(true);
+				cellImpl._persistedResult = readResult(in);
+			}
+		} finally {
+			kryoPool.release(kryo);
+		}
+		return cellImpl;
+	}
+
 	private static boolean valueEquals(Object val1, Object val2) {
 		return val1 == val2 || (val1 != null && val1.equals(val2));
 	}
 
 	@Override
 	public byte[] toBytes() {
-		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		Output out = new Output(byteArrayOutputStream);
+		Output out = new Output(32, -1);
 		Kryo kryo = kryoPool.borrow();
-		kryo.writeObject(out, this);
-		byte[] outByteArray = out.toBytes();
-		out.close();
-		kryoPool.release(kryo);
-		return outByteArray;
+		try {
+			out.writeByte(CODEC_MAGIC);
+			out.writeByte(CODEC_VERSION);
+
+			CellValue val = _localValue;
+			Object value = val == null ? null : val.getValue();
+			CellType type = value == null ? CellType.BLANK : val.getType();
+			int tag;
+			if (type == CellType.STRING && value instanceof String) {
+				tag = TAG_STRING;
+			} else if (type == CellType.NUMBER && value instanceof Double) {
+				tag = TAG_NUMBER;
+			} else if (type == CellType.BOOLEAN && value instanceof Boolean) {
+				tag = TAG_BOOLEAN;
+			} else if (type == CellType.FORMULA) {
+				tag = TAG_FORMULA;
+			} else if (type == CellType.ERROR && value instanceof ErrorValue) {
+				tag = TAG_ERROR;
+			} else if (type == CellType.BLANK) {
+				tag = TAG_BLANK;
+			} else {
+				tag = TAG_OBJECT; // e.g. rich text
+			}
+
+			int styleRef = _styleRef;
+			CellStyleTable styleTable = null;
+			if (_cellStyle != null) {
+				styleTable = _sheet == null ? null : ((AbstractBookAdv) _sheet.getBook()).getStyleTable();
+				// -1 without a table or if the style could not be stored, it is written in place then
+				styleRef = styleTable == null ? -1 : styleTable.getId(_cellStyle);
+			}
+			OptFields opts = getOpts(false);
+			int sections = 0;
+			if (styleRef >= 0) {
+				sections |= SECTION_STYLE_REF;
+			} else if (_cellStyle != null) {
+				sections |= SECTION_STYLE;
+			}
+			if (opts != null && opts._comment != null) {
+				sections |= SECTION_COMMENT;
+			}
+			if (opts != null && opts._hyperlink != null) {
+				sections |= SECTION_HYPERLINK;
+			}
+			FormulaResultCellValue result = null;
+			if (tag == TAG_FORMULA) {
+				result = _formulaResultValue != null ? _formulaResultValue : _persistedResult;
+				if (result != null && _resultVersion >= 0) {
+					sections |= SECTION_RESULT;
+				}
+			}
+			out.writeByte(tag);
+			out.writeByte(sections);
+
+			switch (tag) {
+			case TAG_STRING:
+				out.writeString((String) value);
+				break;
+			case TAG_NUMBER:
+				out.writeDouble((Double) value);
+				break;
+			case TAG_BOOLEAN:
+				out.writeBoolean((Boolean) value);
+				break;
+			case TAG_FORMULA:
+				out.writeString(((FormulaExpression) value).getFormulaString());
+				break;
+			case TAG_ERROR:
+				out.writeByte(((ErrorValue) value).getCode());
+				out.writeString(((ErrorValue) value).getMessage());
+				break;
+			case TAG_OBJECT:
+				out.writeByte(type.ordinal());
+				kryo.writeClassAndObject(out, value);
+				break;
+			}
+			if ((sections & SECTION_STYLE_REF) != 0) {
+				out.writeVarInt(styleRef, true);
+			}
+			if ((sections & SECTION_STYLE) != 0) {
+				kryo.writeClassAndObject(out, _cellStyle);
+			}
+			if ((sections & SECTION_COMMENT) != 0) {
+				kryo.writeClassAndObject(out, opts._comment);
+			}
+			if ((sections & SECTION_HYPERLINK) != 0) {
+				kryo.writeClassAndObject(out, opts._hyperlink);
+			}
+			if ((sections & SECTION_RESULT) != 0) {
+				out.writeVarLong(_resultVersion, true);
+				writeResult(out, result);
+			}
+			return out.toBytes();
+		} finally {
+			out.close();
+			kryoPool.release(kryo);
+		}
 	}
 	
+	private static void writeResult(Output out, FormulaResultCellValue result) {
+		CellType type = result.getCellType();
+		out.writeByte(type.ordinal());
+		switch (type) {
+		case STRING:
+			out.writeString((String) result.getValue());
+			break;
+		case NUMBER:
+			out.writeDouble(((Number) result.getValue()).doubleValue());
+			break;
+		case BOOLEAN:
+			out.writeBoolean((Boolean) result.getValue());
+			break;
+		case ERROR:
+			out.writeByte(((ErrorValue) result.getValue()).getCode());
+			out.writeString(((ErrorValue) result.getValue()).getMessage());
+			break;
+		default:
+		}
+	}
+
+	private static FormulaResultCellValue readResult(Input in) {
+		CellType type = CellType.values()[in.readByte()];
+		switch (type) {
+		case STRING:
+			return new FormulaResultCellValue(type, in.readString());
+		case NUMBER:
+			return new FormulaResultCellValue(type, in.readDouble());
+		case BOOLEAN:
+			return new FormulaResultCellValue(type, in.readBoolean());
+		case ERROR:
+			return new FormulaResultCellValue(type, new ErrorValue(in.readByte(), in.readString()));
+		default:
+			return new FormulaResultCellValue(CellType.BLANK, null);
+		}
+	}
+
+	/**
+	 * @return the leading bytes of a formula cell in the compact form, so
+	 * queries can select formula cells without decoding them
+	 */
+	static byte[] getFormulaPrefix() {
+		return new byte[] {CODEC_MAGIC, CODEC_VERSION, TAG_FORMULA};
+	}
+
+	/**
+	 * Encode a cell holding only the given String, Double or Boolean value.
+	 */
+	static byte[] toBytes(Object value) {
+		CellImpl cellImpl = new CellImpl();
+		CellType type = value instanceof Double ? CellType.NUMBER
+				: value instanceof Boolean ? CellType.BOOLEAN : CellType.STRING;
+		cellImpl._localValue = new InnerCellValue(type, value);
+		return cellImpl.toBytes();
+	}
+
+	/**
+	 * Create a cell of the sheet that is not attached to its rows, for bulk
+	 * imports writing through {@link Model#updateCells}. Formulas are not
+	 * parsed until the cell is read back.
+	 *
+	 * @param value a String, Double, Boolean or {@link ErrorValue}, the formula
+	 * text for {@link CellType#FORMULA}, or null for a blank cell
+	 * @param styleRef ID of the cell's style in the book's {@link CellStyleTable},
+	 * or -1 for none
+	 */
+	public static CellImpl createImported(AbstractSheetAdv sheet, int row, int column, CellType type,
+			Object value, int styleRef) {
+		CellImpl cellImpl = new CellImpl(row, column);
+		cellImpl._sheet = sheet;
+		cellImpl._styleRef = styleRef;
+		if (type == CellType.FORMULA) {
+			value = new FormulaEngineImpl.FormulaExpressionImpl((String) value, null, null);
+		}
+		if (value != null) {
+			cellImpl._localValue = new InnerCellValue(type, value);
+		}
+		return cellImpl;
+	}
+
+	/**
+	 * Copy of a cell read from the database, at another row and with another
+	 * formula. The formula is not parsed nor registered as a dependency.
+	 */
+	CellImpl copyDetached(int row, String formula) {
+		CellImpl copy = fromBytes(row, _column, toBytes());
+		copy._sheet = _sheet;
+		copy._persistedResult = null;
+		copy._resultVersion = -1;
+		copy._localValue = new InnerCellValue(CellType.FORMULA,
+				new FormulaEngineImpl.FormulaExpressionImpl(formula, null, null));
+		return copy;
+	}
+
 	private OptFields getOpts(boolean create){
 		if(_opts==null && create){
 			_opts = new OptFields();
@@ -159,6 +451,10 @@ public class CellImpl extends AbstractCellAdv {
     @Override
     public void setSheet(AbstractSheetAdv sheet) {
         this._sheet = sheet;
+		if (_styleRef >= 0 && sheet != null) {
+			_cellStyle = ((AbstractBookAdv) sheet.getBook()).getStyleTable().getStyle(_styleRef);
+			_styleRef = -1;
+		}
     }
 
 	@Override
@@ -172,6 +468,7 @@ public class CellImpl extends AbstractCellAdv {
 			Validations.argInstance(cellStyle, AbstractCellStyleAdv.class);
 		}
 		this._cellStyle = (AbstractCellStyleAdv) cellStyle;
+		this._styleRef = -1;
 		addCellUpdate(CellAttribute.STYLE); //ZSS-939
 	}
 
@@ -223,6 +520,7 @@ public class CellImpl extends AbstractCellAdv {
 					//     cache directly here. This is quite patchy but...
 					if (_formulaResultValue == null) {
 						_formulaResultValue = new FormulaResultCellValue(result);
+						persistResult(null);
 					}
 				}
 			}
@@ -316,6 +614,8 @@ public class CellImpl extends AbstractCellAdv {
 		}
 		
 		_formulaResultValue = null;
+		_persistedResult = null;
+		_resultVersion = -1;
 	}
 	
 	@Override
@@ -390,7 +690,13 @@ public class CellImpl extends AbstractCellAdv {
 				}
 			}
 
-			if (updateToDB)
+			if (updateToDB && connection == null)
+			{
+				// no transaction from the caller, write behind
+				getSheet().getBook().checkDBSchema();
+				_sheet.bufferCellUpdate(this);
+			}
+			else if (updateToDB)
 			{
 				getSheet().getBook().checkDBSchema();
 				try {
@@ -573,11 +879,124 @@ public class CellImpl extends AbstractCellAdv {
 	//@since 3.7.0
 	public void setFormulaResultValue(ValueEval value) {
 		try {
+			FormulaResultCellValue old = _formulaResultValue;
 			_formulaResultValue = new FormulaResultCellValue(FormulaEngineImpl.convertToEvaluationResult(value));
+			persistResult(old);
 		} catch (EvaluationException e) {
 			// ignore it!
 		}
 	}
+
+	@Override
+	public boolean hasFormulaResultCache() {
+		return _formulaResultValue != null && getType() == CellType.FORMULA;
+	}
+
+	/*
+	 * Stamp the new result with the version of the sheet's model and queue it to be
+	 * written, unless the same result is already stored at that version.
+	 */
+	private void persistResult(FormulaResultCellValue old) {
+		Model dataModel = _sheet == null ? null : _sheet.getDataModel();
+		long version = dataModel == null || !_sheet.getBook().hasSchema() ? -1 : dataModel.getVersion();
+		if (version < 0) {
+			return;
+		}
+		if (old == null && _resultVersion == version) {
+			old = _persistedResult;
+		}
+		if (_resultVersion == version && old != null && old.getCellType() == _formulaResultValue.getCellType()
+				&& valueEquals(old.getValue(), _formulaResultValue.getValue())) {
+			return;
+		}
+		_resultVersion = version;
+		_persistedResult = null;
+		_sheet.bufferResultUpdate(this);
+	}
+
+	/**
+	 * Parse the formula of a cell read from the database and register its
+	 * dependencies. The result stored with the cell is kept aside until
+	 * {@link #restoreFormulaResult(long)}, once the other cells read with it
+	 * are installed too.
+	 */
+	void installFormula(Connection connection) {
+		FormulaResultCellValue persisted = _persistedResult;
+		long resultVersion = _resultVersion;
+		setFormulaValue(((FormulaExpression) getValue(false)).getFormulaString(), connection, false);
+		_persistedResult = persisted;
+		_resultVersion = resultVersion;
+	}
+
+	/**
+	 * Take the result stored with the cell instead of evaluating the formula
+	 * again if nothing it reads may have changed since: the sheet's model is
+	 * still at the version of the result, every precedent is on this sheet,
+	 * no formula among them, transitively, reads another sheet or calls a
+	 * volatile function.
+	 */
+	void restoreFormulaResult(long version) {
+		if (_persistedResult == null || _formulaResultValue != null) { // none stored, or evaluated meanwhile
+			return;
+		}
+		if (version >= 0 && _resultVersion == version && getType() == CellType.FORMULA
+				&& isSelfContained(new HashSet<CellImpl>())) {
+			_formulaResultValue = _persistedResult;
+		} else {
+			_resultVersion = -1;
+		}
+		_persistedResult = null;
+	}
+
+	/*
+	 * Whether the formula reads nothing but cells of this sheet, following the
+	 * formulas among its precedents. A precedent that is not loaded may be such
+	 * a formula, so it is not self-contained.
+	 */
+	private boolean isSelfContained(Set<CellImpl> visited) {
+		if (!visited.add(this)) { // checked or being checked
+			return true;
+		}
+		if (visited.size() > MAX_PRECEDENT_FORMULAS || !(_sheet instanceof SheetImpl)
+				|| VOLATILE_FUNCTION.matcher(((FormulaExpression) getValue(false)).getFormulaString()).find()) {
+			return false;
+		}
+		String bookName = _sheet.getBook().getBookName();
+		String sheetName = _sheet.getSheetName();
+		DependencyTableAdv table = (DependencyTableAdv) ((AbstractBookSeriesAdv) _sheet.getBook().getBookSeries())
+				.getDependencyTable();
+		Set<Ref> precedents = table.getDirectPrecedents(getRef());
+		if (precedents == null) { // references nothing, e.g. =PI()
+			return true;
+		}
+		TiledCellCache cache = ((SheetImpl) _sheet).sheetDataCache;
+		for (Ref precedent : precedents) {
+			if ((precedent.getType() != Ref.RefType.CELL && precedent.getType() != Ref.RefType.AREA)
+					|| !bookName.equals(precedent.getBookName())
+					|| !sheetName.equals(precedent.getSheetName())
+					|| (precedent.getLastSheetName() != null && !sheetName.equals(precedent.getLastSheetName()))) {
+				return false;
+			}
+			long size = (long) (precedent.getLastRow() - precedent.getRow() + 1)
+					* (precedent.getLastColumn() - precedent.getColumn() + 1);
+			if (size > MAX_PRECEDENT_CELLS) {
+				return false;
+			}
+			for (int row = precedent.getRow(); row <= precedent.getLastRow(); row++) {
+				for (int column = precedent.getColumn(); column <= precedent.getLastColumn(); column++) {
+					AbstractCellAdv cell = cache.get(row, column);
+					if (cell == null) {
+						return false;
+					}
+					if (cell.getType() == CellType.FORMULA
+							&& !(cell instanceof CellImpl && ((CellImpl) cell).isSelfContained(visited))) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
 	
 	//ZSS-873
 	//@since 3.7.0
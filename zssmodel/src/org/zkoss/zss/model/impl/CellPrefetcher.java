@@ -0,0 +1,258 @@
+package org.zkoss.zss.model.impl;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.zkoss.lang.Library;
+import org.zkoss.util.logging.Log;
+import org.zkoss.zss.model.CellRegion;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speculative loading of the cells a sheet's viewport is scrolling toward.
+ * <p>
+ * Each fetch request of the client reports the loaded range and the scroll
+ * direction. The range ahead of it, one viewport deep and deeper while the
+ * user keeps scrolling the same way, is read from the database on a
+ * background thread. Only the database read happens there: the fetched cells
+ * are attached to the sheet by the thread that next misses the cache, so the
+ * sheet model itself is never touched concurrently.
+ * <p>
+ * A request supersedes the one still waiting in the queue. Fetched cells are
+ * dropped if the sheet is written or restructured after the fetch started.
+ */
+public class CellPrefetcher {
+    private static final Log _logger = Log.lookup(CellPrefetcher.class);
+
+    static final boolean ENABLED = Boolean.parseBoolean(
+            Library.getProperty("org.zkoss.zss.model.Prefetch.enabled", "true"));
+    static final int THREADS = Integer.parseInt(
+            Library.getProperty("org.zkoss.zss.model.Prefetch.threads", "2"));
+    /* Maximum depth of a prefetch, in viewports */
+    static final int MAX_PAGES = Integer.parseInt(
+            Library.getProperty("org.zkoss.zss.model.Prefetch.maxPages", "4"));
+    /* Fetched ranges kept until a cache miss installs them */
+    private static final int MAX_READY = 8;
+
+    private static ExecutorService executor;
+
+    private final SheetImpl sheet;
+    /* Latest request, older ones not started yet are skipped */
+    private long lastRequest;
+    private final LinkedList<Fetched> ready = new LinkedList<>();
+    /* Changed on every write or restructure of the sheet */
+    private int generation;
+    private int lastRowDirection;
+    private int lastColumnDirection;
+    private int streak;
+
+    /* Metrics */
+    private long requests;
+    private long cancelled;
+    private long fetched;
+    private long discarded;
+    private long hits;
+    private long misses;
+
+    CellPrefetcher(SheetImpl sheet) {
+        this.sheet = sheet;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, "CellPrefetcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private static final class Fetched {
+        final CellRegion region;
+        final Collection<AbstractCellAdv> cells;
+
+        Fetched(CellRegion region, Collection<AbstractCellAdv> cells) {
+            this.region = region;
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * Prefetch the range ahead of the loaded one in the scroll direction.
+     * The caller flushes the buffered writes of the sheet first.
+     *
+     * @param rowDirection    -1 scrolling up, 1 down, 0 neither
+     * @param columnDirection -1 scrolling left, 1 right, 0 neither
+     */
+    void request(CellRegion loaded, int rowDirection, int columnDirection) {
+        if (rowDirection == 0 && columnDirection == 0)
+            return;
+        CellRegion region;
+        long id;
+        int gen;
+        synchronized (this) {
+            if (rowDirection == lastRowDirection && columnDirection == lastColumnDirection)
+                streak = Math.min(streak + 1, MAX_PAGES);
+            else
+                streak = 1;
+            lastRowDirection = rowDirection;
+            lastColumnDirection = columnDirection;
+            region = ahead(loaded, rowDirection, columnDirection, streak);
+            if (region == null || sheet.sheetDataCache.isLoaded(region) || isReady(region))
+                return;
+            id = ++lastRequest;
+            requests++;
+            gen = generation;
+        }
+        getExecutor().execute(() -> fetch(region, id, gen));
+    }
+
+    private static CellRegion ahead(CellRegion loaded, int rowDirection, int columnDirection, int pages) {
+        int height = loaded.getRowCount() * pages;
+        int width = loaded.getColumnCount() * pages;
+        int row = loaded.getRow(), lastRow = loaded.getLastRow();
+        int column = loaded.getColumn(), lastColumn = loaded.getLastColumn();
+        if (rowDirection > 0) {
+            row = lastRow + 1;
+            lastRow = lastRow + height;
+        } else if (rowDirection < 0) {
+            lastRow = row - 1;
+            row = Math.max(0, row - height);
+        }
+        if (columnDirection > 0) {
+            column = lastColumn + 1;
+            lastColumn = lastColumn + width;
+        } else if (columnDirection < 0) {
+            lastColumn = column - 1;
+            column = Math.max(0, column - width);
+        }
+        if (lastRow < row || lastColumn < column)
+            return null; // at the edge of the sheet
+        return new CellRegion(row, column, lastRow, lastColumn);
+    }
+
+    private boolean isReady(CellRegion region) {
+        for (Fetched f : ready) {
+            if (f.region.contains(region))
+                return true;
+        }
+        return false;
+    }
+
+    private void fetch(CellRegion region, long id, int gen) {
+        synchronized (this) {
+            if (id != lastRequest || gen != generation) {
+                // superseded by a later request or a change
+                cancelled++;
+                return;
+            }
+        }
+        Model dataModel = sheet.getDataModel();
+        if (dataModel == null)
+            return;
+        Collection<AbstractCellAdv> cells = Collections.emptyList();
+        try {
+            try (Connection connection = DBHandler.instance.getConnection()) {
+                DBContext context = new DBContext(connection);
+                // only read within the bounds, reading past them would extend the sheet
+                CellRegion bounds = dataModel.getBounds(context);
+                if (bounds != null && bounds.overlaps(region))
+                    cells = dataModel.getCells(context, bounds.getOverlap(region));
+                connection.commit();
+            }
+        } catch (SQLException | RuntimeException e) {
+            _logger.error("Failed to prefetch " + region + " of " + sheet.getSheetName(), e);
+            return;
+        }
+        synchronized (this) {
+            if (gen != generation) {
+                discarded++;
+                return;
+            }
+            ready.add(new Fetched(region, cells));
+            if (ready.size() > MAX_READY) {
+                ready.removeFirst();
+                discarded++;
+            }
+            fetched++;
+        }
+    }
+
+    /**
+     * Install all fetched ranges into the sheet, on a cache miss.
+     *
+     * @return true if the missed position was prefetched
+     */
+    boolean install(int row, int column) {
+        List<Fetched> fetched;
+        synchronized (this) {
+            fetched = new ArrayList<>(ready);
+            ready.clear();
+        }
+        boolean hit = false;
+        for (Fetched f : fetched) {
+            sheet.installCells(f.region, f.cells, null, false);
+            hit |= f.region.contains(row, column);
+        }
+        synchronized (this) {
+            if (hit)
+                hits++;
+            else
+                misses++;
+        }
+        return hit;
+    }
+
+    /**
+     * Drop the prefetched cells, after the sheet was written or restructured.
+     */
+    synchronized void invalidate() {
+        generation++;
+        discarded += ready.size();
+        ready.clear();
+    }
+
+    public synchronized long getRequestCount() {
+        return requests;
+    }
+
+    /** Requests superseded or invalidated before they started */
+    public synchronized long getCancelledCount() {
+        return cancelled;
+    }
+
+    public synchronized long getFetchedCount() {
+        return fetched;
+    }
+
+    /** Fetched ranges dropped unused */
+    public synchronized long getDiscardedCount() {
+        return discarded;
+    }
+
+    /** Cache misses served by a prefetch */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /** Cache misses read synchronously */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
@@ -252,6 +252,11 @@ class CellProxy extends AbstractCellAdv {
 		}
 	}
 
+	@Override
+	public boolean hasFormulaResultCache() {
+		return _proxy != null && _proxy.hasFormulaResultCache();
+	}
+
 	@Override
 	public void deleteComment() {
 		if (_proxy != null) {
@@ -0,0 +1,163 @@
+package org.zkoss.zss.model.impl;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.model.DBContext;
+import org.model.DBHandler;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The distinct cell styles of a book, each persisted once in the book's
+ * <code>_styles</code> table, so a stored cell only holds the ID of its style.
+ * <p>
+ * Styles are matched by content: a style equal to a stored one gets its ID,
+ * whether or not it is the same object. All cells of an ID decode to the same
+ * style object, as cells sharing a style of the book do.
+ */
+public class CellStyleTable {
+    private static final ThreadLocal<Kryo> kryo = ThreadLocal.withInitial(Kryo::new);
+
+    private final AbstractBookAdv book;
+    /* Serialized style -> ID */
+    private final Map<ByteBuffer, Integer> ids = new HashMap<>();
+    private final Map<Integer, AbstractCellStyleAdv> styles = new HashMap<>();
+    private final Map<Integer, byte[]> data = new HashMap<>();
+    private boolean loaded;
+    private int nextId;
+
+    CellStyleTable(AbstractBookAdv book) {
+        this.book = book;
+    }
+
+    private String getTableName() {
+        return book.getId() + "_styles";
+    }
+
+    /**
+     * @return the ID of the style, adding it to the table if it is new, or -1
+     * if it could not be stored
+     */
+    public synchronized int getId(AbstractCellStyleAdv style) {
+        load();
+        Output out = new Output(256, -1);
+        kryo.get().writeClassAndObject(out, style);
+        byte[] bytes = out.toBytes();
+        out.close();
+
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        while (true) {
+            Integer id = ids.get(key);
+            if (id != null)
+                return id;
+            id = nextId++;
+            try {
+                if (book.hasSchema() && !insertStyle(id, bytes)) {
+                    // ID taken by another instance of the book, pick up its styles and retry
+                    loaded = false;
+                    load();
+                    continue;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return -1;
+            }
+            ids.put(key, id);
+            styles.put(id, style);
+            data.put(id, bytes);
+            return id;
+        }
+    }
+
+    /**
+     * @return the style of the ID, or null if there is no such style
+     */
+    public synchronized AbstractCellStyleAdv getStyle(int id) {
+        load();
+        AbstractCellStyleAdv style = styles.get(id);
+        if (style == null && book.hasSchema()) {
+            // added by another instance of the book
+            loaded = false;
+            load();
+            style = styles.get(id);
+        }
+        return style;
+    }
+
+    /**
+     * Create the table and store the styles added so far.
+     */
+    public synchronized void createSchema(DBContext context) {
+        try (Statement stmt = context.getConnection().createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + getTableName() +
+                    " (styleid INTEGER PRIMARY KEY, data BYTEA)");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        String insert = "INSERT INTO " + getTableName() + " (styleid, data) VALUES (?,?) ON CONFLICT (styleid) DO NOTHING";
+        try (PreparedStatement stmt = context.getConnection().prepareStatement(insert)) {
+            for (Map.Entry<Integer, byte[]> entry : data.entrySet()) {
+                stmt.setInt(1, entry.getKey());
+                stmt.setBytes(2, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!book.hasSchema())
+            return;
+        try (Connection connection = DBHandler.instance.getConnection()) {
+            createSchema(new DBContext(connection));
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT styleid, data FROM " + getTableName())) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    byte[] bytes = rs.getBytes(2);
+                    if (!styles.containsKey(id)) {
+                        Input in = new Input(bytes);
+                        styles.put(id, (AbstractCellStyleAdv) kryo.get().readClassAndObject(in));
+                        in.close();
+                        ids.put(ByteBuffer.wrap(bytes), id);
+                        data.put(id, bytes);
+                    }
+                    nextId = Math.max(nextId, id + 1);
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return false if the ID is already taken
+     */
+    private boolean insertStyle(int id, byte[] bytes) throws SQLException {
+        // committed on its own, a style no cell refers to is harmless
+        String insert = "INSERT INTO " + getTableName() + " (styleid, data) VALUES (?,?) ON CONFLICT (styleid) DO NOTHING";
+        try (Connection connection = DBHandler.instance.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(insert)) {
+            stmt.setInt(1, id);
+            stmt.setBytes(2, bytes);
+            int inserted = stmt.executeUpdate();
+            connection.commit();
+            return inserted > 0;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.zkoss.zss.model.impl;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.zkoss.lang.Library;
+import org.zkoss.util.logging.Log;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for the cells of a sheet.
+ * <p>
+ * Cells updated without an explicit connection are queued here instead of
+ * being written one statement and one commit at a time. Repeated writes to
+ * the same position are coalesced, only the latest cell state is written.
+ * The queue is flushed through {@link Model#updateCells} in one transaction
+ * when it reaches {@link #MAX_SIZE} cells, when its oldest entry is older
+ * than {@link #MAX_DELAY} milliseconds, and explicitly before the sheet is
+ * read from or restructured in the database, when the book is released and
+ * when the web application shuts down.
+ * <p>
+ * The timed flush holds the write lock of the book series, as the cells
+ * and the position mappings of the model are only changed by the threads
+ * holding it. A sheet whose book series is busy is flushed on a later run,
+ * or by its own threads when the buffer fills or the sheet is read.
+ * <p>
+ * A cell is durable once the flush containing it has committed; buffered
+ * cells are lost if the JVM dies before that.
+ * <p>
+ * Formula cells whose result was computed are queued apart, they are written
+ * through {@link Model#updateFormulaResults} so that storing a result does not
+ * count as a change of the sheet.
+ */
+public class CellWriteBuffer {
+    private static final Log _logger = Log.lookup(CellWriteBuffer.class);
+
+    static final int MAX_SIZE = Integer.parseInt(
+            Library.getProperty("org.zkoss.zss.model.WriteBehind.maxSize", "1000"));
+    static final long MAX_DELAY = Long.parseLong(
+            Library.getProperty("org.zkoss.zss.model.WriteBehind.delay", "200"));
+
+    /* All live buffers, for the timed flush and the shutdown hook */
+    private static final Set<CellWriteBuffer> buffers =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static ScheduledExecutorService flusher;
+
+    static {
+        DBHandler.addShutdownHook(CellWriteBuffer::flushAll);
+    }
+
+    private final SheetImpl sheet;
+    /* Position -> latest cell, in order of first write */
+    private final Map<Long, AbstractCellAdv> dirtyCells = new LinkedHashMap<>();
+    /* Position -> formula cell with a new result, not in dirtyCells */
+    private final Map<Long, AbstractCellAdv> resultCells = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private long oldestDirtyTime;
+
+    /* Metrics */
+    private long flushCount;
+    private long flushedCells;
+    private long coalescedCells;
+    private long totalFlushMillis;
+    private long maxFlushMillis;
+    private long lastFlushMillis;
+
+    CellWriteBuffer(SheetImpl sheet) {
+        this.sheet = sheet;
+        buffers.add(this);
+        startFlusher();
+    }
+
+    private static synchronized void startFlusher() {
+        if (flusher != null)
+            return;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CellWriteBuffer-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(CellWriteBuffer::flushExpired, MAX_DELAY, MAX_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the cell to be written, flushing right away when the buffer is full.
+     */
+    public void add(AbstractCellAdv cell) {
+        boolean full;
+        synchronized (this) {
+            if (isEmpty())
+                oldestDirtyTime = System.currentTimeMillis();
+            long key = key(cell.getRowIndex(), cell.getColumnIndex());
+            // the cell is written whole, with its result
+            resultCells.remove(key);
+            if (dirtyCells.put(key, cell) != null)
+                coalescedCells++;
+            full = size() >= MAX_SIZE;
+        }
+        if (full)
+            flush();
+    }
+
+    /**
+     * Queue the result of the formula cell to be written, flushing right away when the buffer is full.
+     */
+    public void addResult(AbstractCellAdv cell) {
+        boolean full;
+        synchronized (this) {
+            long key = key(cell.getRowIndex(), cell.getColumnIndex());
+            if (dirtyCells.get(key) == cell)
+                return;
+            if (isEmpty())
+                oldestDirtyTime = System.currentTimeMillis();
+            if (resultCells.put(key, cell) != null)
+                coalescedCells++;
+            full = size() >= MAX_SIZE;
+        }
+        if (full)
+            flush();
+    }
+
+    private boolean isEmpty() {
+        return dirtyCells.isEmpty() && resultCells.isEmpty();
+    }
+
+    private int size() {
+        return dirtyCells.size() + resultCells.size();
+    }
+
+    /**
+     * Write all queued cells in a single transaction.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, AbstractCellAdv> cells;
+            Map<Long, AbstractCellAdv> results;
+            synchronized (this) {
+                if (isEmpty())
+                    return;
+                cells = new LinkedHashMap<>(dirtyCells);
+                dirtyCells.clear();
+                results = new LinkedHashMap<>(resultCells);
+                resultCells.clear();
+            }
+            Model dataModel = sheet.getDataModel();
+            if (dataModel == null)
+                return;
+
+            long start = System.currentTimeMillis();
+            try (Connection connection = DBHandler.instance.getConnection()) {
+                DBContext context = new DBContext(connection);
+                if (!cells.isEmpty())
+                    dataModel.updateCells(context, cells.values());
+                if (!results.isEmpty())
+                    dataModel.updateFormulaResults(context, results.values());
+                connection.commit();
+            } catch (SQLException e) {
+                _logger.error("Failed to flush " + (cells.size() + results.size()) + " cells of " + sheet.getSheetName(), e);
+                requeue(cells, results);
+                return;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            synchronized (this) {
+                flushCount++;
+                flushedCells += cells.size() + results.size();
+                totalFlushMillis += elapsed;
+                lastFlushMillis = elapsed;
+                maxFlushMillis = Math.max(maxFlushMillis, elapsed);
+            }
+            if (_logger.debugable())
+                _logger.debug("Flushed " + (cells.size() + results.size()) + " cells of " + sheet.getSheetName() + " in " + elapsed + "ms");
+        }
+    }
+
+    /*
+     * Flush exclusively of the threads using the book series, unless one of them holds its lock.
+     * Returns false if the lock was busy and nothing was flushed.
+     */
+    boolean flushUnlessBusy() {
+        Lock lock = sheet.getBook().getBookSeries().getLock().writeLock();
+        if (!lock.tryLock())
+            return false;
+        try {
+            flush();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Drop all queued cells, e.g. when the sheet is deleted.
+     */
+    public synchronized void discard() {
+        dirtyCells.clear();
+        resultCells.clear();
+    }
+
+    /* Put back cells that failed to flush, unless they were written again meanwhile */
+    private synchronized void requeue(Map<Long, AbstractCellAdv> cells, Map<Long, AbstractCellAdv> results) {
+        Map<Long, AbstractCellAdv> newer = new LinkedHashMap<>(dirtyCells);
+        dirtyCells.clear();
+        dirtyCells.putAll(cells);
+        dirtyCells.putAll(newer);
+        for (Map.Entry<Long, AbstractCellAdv> entry : results.entrySet()) {
+            if (!dirtyCells.containsKey(entry.getKey()) && !resultCells.containsKey(entry.getKey()))
+                resultCells.put(entry.getKey(), entry.getValue());
+        }
+        oldestDirtyTime = System.currentTimeMillis();
+    }
+
+    private synchronized boolean isExpired(long now) {
+        return !isEmpty() && now - oldestDirtyTime >= MAX_DELAY;
+    }
+
+    private static Collection<CellWriteBuffer> liveBuffers() {
+        synchronized (buffers) {
+            return new ArrayList<>(buffers);
+        }
+    }
+
+    private static void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (CellWriteBuffer buffer : liveBuffers()) {
+            try {
+                if (buffer.isExpired(now))
+                    buffer.flushUnlessBusy();
+            } catch (RuntimeException e) {
+                _logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Flush the buffers of all sheets.
+     */
+    public static void flushAll() {
+        for (CellWriteBuffer buffer : liveBuffers())
+            buffer.flush();
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    /** Number of cells waiting to be written */
+    public synchronized int getQueueDepth() {
+        return size();
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getFlushedCells() {
+        return flushedCells;
+    }
+
+    /** Number of writes absorbed by a later write to the same cell */
+    public synchronized long getCoalescedCells() {
+        return coalescedCells;
+    }
+
+    public synchronized long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    public synchronized long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+
+    public synchronized double getAverageFlushMillis() {
+        return flushCount == 0 ? 0 : (double) totalFlushMillis / flushCount;
+    }
+}
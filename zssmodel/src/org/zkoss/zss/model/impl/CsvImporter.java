@@ -0,0 +1,357 @@
+package org.zkoss.zss.model.impl;
+
+import com.opencsv.CSVParser;
+import org.postgresql.copy.CopyIn;
+import org.zkoss.lang.Library;
+import org.zkoss.util.logging.Log;
+import org.zkoss.zss.model.SCell.CellType;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipelined CSV import into the cell table of a sheet.
+ * <p>
+ * The calling thread splits the input into chunks of whole records, quoted
+ * line breaks included. {@link #THREADS} workers parse the records, infer
+ * number and boolean values and encode each non-empty field as a cell, as
+ * {@link CellImpl#toBytes()} does, into a binary <code>COPY</code> buffer. A
+ * writer thread streams the buffers to the database. Stages are connected by
+ * bounded queues, so memory stays constant whatever the size of the input,
+ * and a slow stage holds back the ones before it.
+ * <p>
+ * Rows and columns are numbered from 1, the IDs the position mappings of an
+ * empty sheet hand out for them.
+ */
+class CsvImporter {
+    private static final Log _logger = Log.lookup(CsvImporter.class);
+
+    static final int THREADS = Integer.parseInt(Library.getProperty("org.zkoss.zss.model.Import.threads",
+            String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() - 1))));
+    /* Records per chunk */
+    static final int CHUNK_ROWS = 2000;
+    /* Chunks waiting per stage and worker */
+    private static final int QUEUE_DEPTH = 2;
+    private static final long PROGRESS_ROWS = 100000;
+
+    private static final byte[] COPY_HEADER = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+            0, 0, 0, 0, 0, 0, 0, 0};
+    private static final Object END = new Object();
+
+    private final Reader reader;
+    private final char delimiter;
+    private final BlockingQueue<Object> chunks;
+    private final BlockingQueue<Object> buffers;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger columnCount = new AtomicInteger();
+    private final AtomicLong cellCount = new AtomicLong();
+    private long rowCount;
+    private long byteCount;
+
+    CsvImporter(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        chunks = new ArrayBlockingQueue<>(THREADS * QUEUE_DEPTH);
+        buffers = new ArrayBlockingQueue<>(THREADS * QUEUE_DEPTH);
+    }
+
+    private static final class Chunk {
+        final long firstRow;
+        final List<String> records = new ArrayList<>(CHUNK_ROWS);
+
+        Chunk(long firstRow) {
+            this.firstRow = firstRow;
+        }
+    }
+
+    /**
+     * Import all records, ending the copy.
+     */
+    void run(CopyIn copyIn) throws IOException, SQLException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++)
+            workers.add(start("CsvImporter-parser-" + i, this::parse));
+        Thread writer = start("CsvImporter-writer", () -> write(copyIn));
+
+        long start = System.currentTimeMillis();
+        try {
+            read();
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            for (int i = 0; i < THREADS; i++)
+                put(chunks, END);
+            join(workers);
+            put(buffers, END);
+            join(writer);
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            copyIn.cancelCopy();
+            if (t instanceof SQLException)
+                throw (SQLException) t;
+            if (t instanceof IOException)
+                throw (IOException) t;
+            throw new IOException(t);
+        }
+        copyIn.endCopy();
+        _logger.info("Imported " + rowCount + " rows, " + cellCount.get() + " cells in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    int getColumnCount() {
+        return columnCount.get();
+    }
+
+    long getCellCount() {
+        return cellCount.get();
+    }
+
+    /* Split the input into chunks of whole records */
+    private void read() throws IOException {
+        BufferedReader in = new BufferedReader(reader, 1 << 16);
+        Chunk chunk = new Chunk(1);
+        StringBuilder record = null;
+        boolean quoted = false;
+        String line;
+        while ((line = in.readLine()) != null && failure.get() == null) {
+            byteCount += line.length() + 1;
+            if (record != null)
+                record.append('\n').append(line);
+            quoted = isQuoted(line, quoted);
+            if (quoted) {
+                // a quoted line break, the record goes on
+                if (record == null)
+                    record = new StringBuilder(line);
+                continue;
+            }
+            chunk.records.add(record != null ? record.toString() : line);
+            record = null;
+            if (chunk.records.size() == CHUNK_ROWS) {
+                rowCount += CHUNK_ROWS;
+                put(chunks, chunk);
+                chunk = new Chunk(rowCount + 1);
+                if (rowCount % PROGRESS_ROWS == 0 && _logger.infoable())
+                    _logger.info("Importing, " + rowCount + " rows, " + (byteCount >> 20) + "MB read");
+            }
+        }
+        if (record != null)
+            chunk.records.add(record.toString()); // unterminated quote, as the parser sees it
+        if (!chunk.records.isEmpty()) {
+            rowCount += chunk.records.size();
+            put(chunks, chunk);
+        }
+    }
+
+    /* Quote state at the end of the line, given the state at its start */
+    private static boolean isQuoted(String line, boolean quoted) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == CSVParser.DEFAULT_ESCAPE_CHARACTER && i + 1 < line.length()
+                    && (line.charAt(i + 1) == CSVParser.DEFAULT_QUOTE_CHARACTER
+                    || line.charAt(i + 1) == CSVParser.DEFAULT_ESCAPE_CHARACTER))
+                i++;
+            else if (c == CSVParser.DEFAULT_QUOTE_CHARACTER)
+                quoted = !quoted;
+        }
+        return quoted;
+    }
+
+    /* Parser worker: records to COPY tuples. Keeps draining after a failure, so no stage blocks. */
+    private void parse() throws InterruptedException {
+        CSVParser parser = new CSVParser(delimiter);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Object item;
+        while ((item = chunks.take()) != END) {
+            if (failure.get() != null)
+                continue;
+            try {
+                bytes.reset();
+                encode((Chunk) item, parser, out);
+                put(buffers, bytes.toByteArray());
+            } catch (IOException | RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private void encode(Chunk chunk, CSVParser parser, DataOutputStream out) throws IOException {
+        int columns = 0;
+        long cells = 0;
+        long row = chunk.firstRow;
+        for (String record : chunk.records) {
+            String[] fields = parser.parseLine(record);
+            columns = Math.max(columns, fields.length);
+            for (int col = 0; col < fields.length; col++) {
+                if (fields[col].isEmpty())
+                    continue;
+                Object value = inferValue(fields[col]);
+                byte[] data = CellImpl.toBytes(value);
+                out.writeShort(5);
+                out.writeInt(4);
+                out.writeInt((int) row);
+                out.writeInt(4);
+                out.writeInt(col + 1);
+                out.writeInt(data.length);
+                out.write(data);
+                // typed copy of the value, see RCV_Model
+                CellType type = value instanceof Double ? CellType.NUMBER
+                        : value instanceof Boolean ? CellType.BOOLEAN : CellType.STRING;
+                out.writeInt(2);
+                out.writeShort(type.value());
+                if (type == CellType.NUMBER) {
+                    out.writeInt(8);
+                    out.writeDouble((Double) value);
+                } else {
+                    out.writeInt(-1);
+                }
+                cells++;
+            }
+            row++;
+        }
+        columnCount.accumulateAndGet(columns, Math::max);
+        cellCount.addAndGet(cells);
+    }
+
+    /* Writer: stream the tuples to the database. Keeps draining after a failure. */
+    private void write(CopyIn copyIn) throws InterruptedException {
+        try {
+            copyIn.writeToCopy(COPY_HEADER, 0, COPY_HEADER.length);
+        } catch (SQLException e) {
+            failure.compareAndSet(null, e);
+        }
+        Object item;
+        while ((item = buffers.take()) != END) {
+            if (failure.get() != null)
+                continue;
+            byte[] buffer = (byte[]) item;
+            try {
+                copyIn.writeToCopy(buffer, 0, buffer.length);
+            } catch (SQLException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+        if (failure.get() == null) {
+            try {
+                byte[] trailer = {(byte) 0xFF, (byte) 0xFF};
+                copyIn.writeToCopy(trailer, 0, trailer.length);
+            } catch (SQLException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    /**
+     * @return the field as a number or boolean if it reads as one, else the text
+     */
+    static Object inferValue(String field) {
+        if (field.equalsIgnoreCase("TRUE"))
+            return Boolean.TRUE;
+        if (field.equalsIgnoreCase("FALSE"))
+            return Boolean.FALSE;
+        if (isNumber(field)) {
+            try {
+                return Double.valueOf(field);
+            } catch (NumberFormatException e) {
+                // keep it as text
+            }
+        }
+        return field;
+    }
+
+    /*
+     * Plain decimal notation, optionally signed and with an exponent. Leading
+     * zeros are kept as text, they are usually codes.
+     */
+    private static boolean isNumber(String s) {
+        int i = 0, n = s.length();
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            i++;
+        int digits = 0, start = i;
+        while (i < n && Character.isDigit(s.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (digits > 1 && s.charAt(start) == '0')
+            return false;
+        if (i < n && s.charAt(i) == '.') {
+            i++;
+            while (i < n && Character.isDigit(s.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0)
+            return false;
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+                i++;
+            int exponent = 0;
+            while (i < n && Character.isDigit(s.charAt(i))) {
+                i++;
+                exponent++;
+            }
+            if (exponent == 0)
+                return false;
+        }
+        return i == n;
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread start(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /* Blocks while the next stage is behind */
+    private static void put(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void join(List<Thread> threads) {
+        for (Thread thread : threads)
+            join(thread);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.Set;
 
 import org.zkoss.util.logging.Log;
+import org.zkoss.zss.model.CellRegion;
 import org.zkoss.zss.model.SBook;
 import org.zkoss.zss.model.SBookSeries;
 import org.zkoss.zss.model.SCell;
@@ -11,9 +12,11 @@ import org.zkoss.zss.model.SChart;
 import org.zkoss.zss.model.SDataValidation;
 import org.zkoss.zss.model.SRow;
 import org.zkoss.zss.model.SSheet;
+import org.zkoss.zss.model.sys.EngineFactory;
 import org.zkoss.zss.model.sys.dependency.ObjectRef;
 import org.zkoss.zss.model.sys.dependency.Ref;
 import org.zkoss.zss.model.sys.dependency.ObjectRef.ObjectType;
+import org.zkoss.zss.model.sys.formula.FormulaClearContext;
 import org.zkoss.zss.model.sys.dependency.Ref.RefType;
 
 /**
@@ -50,6 +53,23 @@ import org.zkoss.zss.model.sys.dependency.Ref.RefType;
 			}
 		}
 	}
+	/**
+	 * Drops what the formula engine read at once from the values of a changed
+	 * precedent, e.g. lookup indexes; its dependents are cleared by {@link #clear(Set)}.
+	 */
+	public void clearValues(Ref precedent) {
+		if (precedent.getType() != RefType.CELL && precedent.getType() != RefType.AREA) {
+			return;
+		}
+		SBook book = _bookSeries.getBook(precedent.getBookName());
+		if(book==null) return;
+		SSheet sheet = book.getSheetByName(precedent.getSheetName());
+		if(sheet==null) return;
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(sheet,
+				new CellRegion(precedent.getRow(), precedent.getColumn(), precedent.getLastRow(),
+						precedent.getLastColumn()), true));
+	}
+
 	private void handleChartRef(ObjectRef ref) {
 		SBook book = _bookSeries.getBook(ref.getBookName());
 		if(book==null) return;
@@ -28,6 +28,12 @@ public class FormulaResultCellValue extends CellValue implements Serializable {
 		}
 	}
 
+	/* A result read back from the database */
+	FormulaResultCellValue(CellType type, Object value) {
+		this.cellType = type;
+		this.value = value;
+	}
+
 	private void setByValue(Object val) {
 		if (val == null || "".equals(val)) {
 			cellType = CellType.BLANK;
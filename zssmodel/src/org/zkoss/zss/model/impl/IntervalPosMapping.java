@@ -0,0 +1,459 @@
+package org.zkoss.zss.model.impl;
+
+import org.model.BlockStore;
+import org.model.DBContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Position mapping that stores runs of consecutive IDs as intervals.
+ * <p>
+ * Positions map to a sequence of segments (first ID, length). Positions created
+ * together get consecutive IDs and form a single segment, so an imported sheet
+ * of any size takes a few bytes; inserting or deleting positions only splits
+ * the segments at the edit. Segments are kept in order in chunks of up to
+ * {@link #CHUNK_SIZE} segments, one block each, and the metadata block holds
+ * the number of positions of every chunk, so a lookup binary searches the
+ * chunks and then scans a single one.
+ */
+public class IntervalPosMapping implements PosMapping {
+    /**
+     * The maximum number of segments in a chunk
+     */
+    protected static final int CHUNK_SIZE = 512;
+    /**
+     * The ID of the meta data block
+     */
+    protected final int METADATA_BLOCK_ID = 0;
+    /**
+     * The block storage mechanism
+     */
+    protected BlockStore bs;
+    private MetaDataBlock metaDataBlock;
+    /* First position of each chunk, rebuilt after changes */
+    private int[] chunkStarts;
+
+    public IntervalPosMapping(DBContext context, String tableName) {
+        bs = new BlockStore(context, tableName);
+        loadMetaData(context);
+    }
+
+    private void loadMetaData(DBContext context) {
+        metaDataBlock = bs.getObject(context, METADATA_BLOCK_ID, MetaDataBlock.class);
+        if (metaDataBlock == null) {
+            metaDataBlock = new MetaDataBlock();
+            metaDataBlock.chunkIds = new int[0];
+            metaDataBlock.chunkCounts = new int[0];
+            bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+            bs.flushDirtyBlocks(context);
+        }
+        chunkStarts = null;
+    }
+
+    @Override
+    public void dropSchema(DBContext context) {
+        bs.dropSchemaAndClear(context);
+    }
+
+    @Override
+    public Integer[] getIDs(DBContext context, int pos, int count) {
+        // Add required ID at the end.
+        if (pos + count > size(context))
+            createIDs(context, size(context), pos + count - size(context));
+
+        Integer[] ids = new Integer[count];
+        if (count == 0)
+            return ids;
+        int c = findChunk(pos);
+        Chunk chunk = getChunk(context, c);
+        int offset = pos - chunkStarts[c];
+        int s = 0;
+        while (offset >= chunk.lengths[s]) {
+            offset -= chunk.lengths[s];
+            s++;
+        }
+        int n = 0;
+        while (n < count) {
+            int first = chunk.starts[s] + offset;
+            int run = Math.min(chunk.lengths[s] - offset, count - n);
+            for (int i = 0; i < run; i++)
+                ids[n++] = first + i;
+            offset = 0;
+            if (++s == chunk.size && n < count) {
+                chunk = getChunk(context, ++c);
+                s = 0;
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public Integer[] createIDs(DBContext context, int pos, int count) {
+        if (pos > size(context))
+            throw new RuntimeException("pos should be <= size");
+        Integer[] ids = new Integer[count];
+        if (count == 0)
+            return ids;
+        int first = metaDataBlock.maxValue + 1;
+        for (int i = 0; i < count; i++)
+            ids[i] = first + i;
+        metaDataBlock.maxValue += count;
+
+        if (metaDataBlock.chunkIds.length == 0) {
+            Chunk chunk = new Chunk();
+            chunk.insert(0, first, count);
+            addChunk(context, 0, bs.getNewBlockID(context), chunk);
+        } else {
+            int c = findChunk(pos);
+            if (c > 0 && pos == chunkStarts[c])
+                c--; // append to the previous chunk, its last segment may continue into the new IDs
+            Chunk chunk = getChunk(context, c);
+            chunk.insert(pos - chunkStarts[c], first, count);
+            metaDataBlock.chunkCounts[c] += count;
+            putChunk(context, c, chunk);
+        }
+        metaDataBlock.elementCount += count;
+        chunkStarts = null;
+        bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+        bs.flushDirtyBlocks(context);
+        return ids;
+    }
+
+    @Override
+    public Integer[] deleteIDs(DBContext context, int pos, int count) {
+        if (pos + count > size(context))
+            throw new RuntimeException("pos + count should be <= size");
+        Integer[] ids = getIDs(context, pos, count);
+        if (count == 0)
+            return ids;
+
+        int c = findChunk(pos);
+        int offset = pos - chunkStarts[c];
+        int remaining = count;
+        while (remaining > 0) {
+            Chunk chunk = getChunk(context, c);
+            int n = Math.min(remaining, metaDataBlock.chunkCounts[c] - offset);
+            chunk.remove(offset, n);
+            metaDataBlock.chunkCounts[c] -= n;
+            remaining -= n;
+            offset = 0;
+            if (chunk.size == 0)
+                removeChunk(c);
+            else
+                c += putChunk(context, c, chunk);
+        }
+        // c is now the chunk following the deleted positions
+        if (c > 0 && c < metaDataBlock.chunkIds.length)
+            mergeChunks(context, c - 1);
+
+        metaDataBlock.elementCount -= count;
+        chunkStarts = null;
+        bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+        bs.flushDirtyBlocks(context);
+        return ids;
+    }
+
+    /**
+     * Delete the positions, then insert the new order as segments of
+     * consecutive IDs. A shuffled order takes a segment per position, in new
+     * chunks of up to {@link #CHUNK_SIZE} segments each.
+     */
+    @Override
+    public void reorderIDs(DBContext context, int pos, Integer[] ids) {
+        if (pos + ids.length > size(context))
+            throw new RuntimeException("pos + count should be <= size");
+        if (ids.length == 0)
+            return;
+        deleteIDs(context, pos, ids.length);
+
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk chunk = new Chunk();
+        int first = ids[0], length = 1;
+        for (int i = 1; i <= ids.length; i++) {
+            if (i < ids.length && ids[i] == first + length) {
+                length++;
+                continue;
+            }
+            if (chunk.size == CHUNK_SIZE) {
+                chunks.add(chunk);
+                chunk = new Chunk();
+            }
+            chunk.insertSegment(chunk.size, first, length);
+            if (i < ids.length) {
+                first = ids[i];
+                length = 1;
+            }
+        }
+        chunks.add(chunk);
+
+        // split the chunk at pos and put the new ones in between
+        int c;
+        if (metaDataBlock.chunkIds.length == 0) {
+            c = 0;
+        } else {
+            c = findChunk(pos);
+            int offset = pos - chunkStarts[c];
+            if (offset == metaDataBlock.chunkCounts[c]) {
+                c++;
+            } else if (offset > 0) {
+                Chunk left = getChunk(context, c);
+                Chunk right = left.splitAt(offset);
+                metaDataBlock.chunkCounts[c] = offset;
+                bs.putObject(metaDataBlock.chunkIds[c], left);
+                addChunk(context, c + 1, bs.getNewBlockID(context), right);
+                c++;
+            }
+        }
+        for (Chunk added : chunks)
+            addChunk(context, c++, bs.getNewBlockID(context), added);
+
+        metaDataBlock.elementCount += ids.length;
+        chunkStarts = null;
+        bs.putObject(METADATA_BLOCK_ID, metaDataBlock);
+        bs.flushDirtyBlocks(context);
+    }
+
+    @Override
+    public void clearCache(DBContext context) {
+        bs.clearCache();
+        loadMetaData(context);
+    }
+
+    @Override
+    public int size(DBContext context) {
+        return metaDataBlock.elementCount;
+    }
+
+    @Override
+    public String getTableName() {
+        return bs.getDataStore();
+    }
+
+    /**
+     * @return the number of segments, one per run of consecutive IDs
+     */
+    public int getSegmentCount(DBContext context) {
+        int count = 0;
+        for (int c = 0; c < metaDataBlock.chunkIds.length; c++)
+            count += getChunk(context, c).size;
+        return count;
+    }
+
+    /**
+     * Find the chunk containing pos; size maps to the last chunk
+     */
+    private int findChunk(int pos) {
+        if (chunkStarts == null) {
+            int[] counts = metaDataBlock.chunkCounts;
+            chunkStarts = new int[counts.length];
+            for (int c = 1; c < counts.length; c++)
+                chunkStarts[c] = chunkStarts[c - 1] + counts[c - 1];
+        }
+        int lo = 0, hi = chunkStarts.length - 1;
+        while (lo < hi) {
+            int m = (lo + hi + 1) >>> 1;
+            if (chunkStarts[m] <= pos)
+                lo = m;
+            else
+                hi = m - 1;
+        }
+        return lo;
+    }
+
+    private Chunk getChunk(DBContext context, int c) {
+        return bs.getObject(context, metaDataBlock.chunkIds[c], Chunk.class);
+    }
+
+    /**
+     * Store the c'th chunk, splitting it in halves if it grew too large
+     *
+     * @return the number of chunks it now occupies
+     */
+    private int putChunk(DBContext context, int c, Chunk chunk) {
+        if (chunk.size <= CHUNK_SIZE) {
+            bs.putObject(metaDataBlock.chunkIds[c], chunk);
+            return 1;
+        }
+        Chunk right = chunk.split(chunk.size / 2);
+        bs.putObject(metaDataBlock.chunkIds[c], chunk);
+        metaDataBlock.chunkCounts[c] -= right.count();
+        addChunk(context, c + 1, bs.getNewBlockID(context), right);
+        return 2;
+    }
+
+    private void addChunk(DBContext context, int c, int blockId, Chunk chunk) {
+        metaDataBlock.chunkIds = insert(metaDataBlock.chunkIds, c, blockId);
+        metaDataBlock.chunkCounts = insert(metaDataBlock.chunkCounts, c, chunk.count());
+        bs.putObject(blockId, chunk);
+        chunkStarts = null;
+    }
+
+    private void removeChunk(int c) {
+        bs.freeBlock(metaDataBlock.chunkIds[c]);
+        metaDataBlock.chunkIds = remove(metaDataBlock.chunkIds, c);
+        metaDataBlock.chunkCounts = remove(metaDataBlock.chunkCounts, c);
+        chunkStarts = null;
+    }
+
+    /**
+     * Merge the c'th chunk with the next one if both fit in one
+     */
+    private void mergeChunks(DBContext context, int c) {
+        Chunk left = getChunk(context, c);
+        Chunk right = getChunk(context, c + 1);
+        if (left.size + right.size > CHUNK_SIZE / 2)
+            return;
+        for (int s = 0; s < right.size; s++)
+            left.insertSegment(left.size, right.starts[s], right.lengths[s]);
+        metaDataBlock.chunkCounts[c] += metaDataBlock.chunkCounts[c + 1];
+        bs.putObject(metaDataBlock.chunkIds[c], left);
+        removeChunk(c + 1);
+    }
+
+    private static int[] insert(int[] a, int i, int value) {
+        int[] result = new int[a.length + 1];
+        System.arraycopy(a, 0, result, 0, i);
+        result[i] = value;
+        System.arraycopy(a, i, result, i + 1, a.length - i);
+        return result;
+    }
+
+    private static int[] remove(int[] a, int i) {
+        int[] result = new int[a.length - 1];
+        System.arraycopy(a, 0, result, 0, i);
+        System.arraycopy(a, i + 1, result, i, a.length - i - 1);
+        return result;
+    }
+
+    private static class MetaDataBlock {
+        // Maximum ID handed out
+        int maxValue;
+        // Number of positions
+        int elementCount;
+        // Block of each chunk, in position order
+        int[] chunkIds;
+        // Number of positions in each chunk
+        int[] chunkCounts;
+    }
+
+    /**
+     * A run of segments; segment s maps lengths[s] positions to the IDs
+     * starts[s], starts[s] + 1, ...
+     */
+    private static class Chunk {
+        int size;
+        int[] starts = new int[0];
+        int[] lengths = new int[0];
+
+        int count() {
+            int count = 0;
+            for (int s = 0; s < size; s++)
+                count += lengths[s];
+            return count;
+        }
+
+        /**
+         * Insert a run of length IDs starting at first, at the given offset
+         */
+        void insert(int offset, int first, int length) {
+            int s = 0;
+            while (s < size && offset >= lengths[s]) {
+                offset -= lengths[s];
+                s++;
+            }
+            if (offset > 0) {
+                // split segment s
+                insertSegment(s + 1, starts[s] + offset, lengths[s] - offset);
+                lengths[s] = offset;
+                s++;
+            }
+            // new IDs are larger than all others, only the previous segment can continue into them
+            if (s > 0 && starts[s - 1] + lengths[s - 1] == first)
+                lengths[s - 1] += length;
+            else
+                insertSegment(s, first, length);
+        }
+
+        /**
+         * Remove count positions starting at offset
+         */
+        void remove(int offset, int count) {
+            int s = 0;
+            while (offset >= lengths[s]) {
+                offset -= lengths[s];
+                s++;
+            }
+            if (offset > 0) {
+                if (offset + count < lengths[s]) {
+                    // inside a single segment, keep both ends
+                    insertSegment(s + 1, starts[s] + offset + count, lengths[s] - offset - count);
+                    lengths[s] = offset;
+                    return;
+                }
+                count -= lengths[s] - offset;
+                lengths[s] = offset;
+                s++;
+            }
+            int end = s;
+            while (end < size && count >= lengths[end]) {
+                count -= lengths[end];
+                end++;
+            }
+            if (count > 0) {
+                starts[end] += count;
+                lengths[end] -= count;
+            }
+            System.arraycopy(starts, end, starts, s, size - end);
+            System.arraycopy(lengths, end, lengths, s, size - end);
+            size -= end - s;
+            starts = Arrays.copyOf(starts, size);
+            lengths = Arrays.copyOf(lengths, size);
+        }
+
+        void insertSegment(int s, int first, int length) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size + 1);
+                lengths = Arrays.copyOf(lengths, size + 1);
+            }
+            System.arraycopy(starts, s, starts, s + 1, size - s);
+            System.arraycopy(lengths, s, lengths, s + 1, size - s);
+            starts[s] = first;
+            lengths[s] = length;
+            size++;
+        }
+
+        /**
+         * Move the positions from offset on into a new chunk, splitting the
+         * segment containing it
+         */
+        Chunk splitAt(int offset) {
+            int s = 0;
+            while (offset >= lengths[s]) {
+                offset -= lengths[s];
+                s++;
+            }
+            if (offset > 0) {
+                insertSegment(s + 1, starts[s] + offset, lengths[s] - offset);
+                lengths[s] = offset;
+                s++;
+            }
+            return split(s);
+        }
+
+        /**
+         * Move the segments from s on into a new chunk
+         */
+        Chunk split(int s) {
+            Chunk right = new Chunk();
+            right.size = size - s;
+            right.starts = Arrays.copyOfRange(starts, s, size);
+            right.lengths = Arrays.copyOfRange(lengths, s, size);
+            size = s;
+            starts = Arrays.copyOf(starts, s);
+            lengths = Arrays.copyOf(lengths, s);
+            return right;
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package org.zkoss.zss.model.impl;
 
 import org.model.DBContext;
+import org.zkoss.poi.ss.formula.AreaAggregate;
+import org.zkoss.lang.Library;
 import org.zkoss.zss.model.CellRegion;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
+// Models are also read by the prefetch threads, implementations synchronize their public methods.
 public abstract class Model {
     protected String tableName;
 
@@ -17,6 +25,28 @@ public abstract class Model {
                 //return new Hybrid_Model(context, tableName);
     }
 
+    // Mapping between logical positions and IDs, tableName is suffixed with _idx or _seg.
+    // Sheets created before interval mappings keep their B-tree.
+    protected static PosMapping createPosMapping(DBContext context, String tableName) {
+        boolean intervals = Boolean.parseBoolean(
+                Library.getProperty("org.zkoss.zss.model.PosMapping.intervals", "true"));
+        if (!intervals || tableExists(context, tableName + "_idx"))
+            return new BTree(context, tableName + "_idx");
+        return new IntervalPosMapping(context, tableName + "_seg");
+    }
+
+    private static boolean tableExists(DBContext context, String tableName) {
+        try (PreparedStatement stmt = context.getConnection().prepareStatement("SELECT to_regclass(?)")) {
+            stmt.setString(1, tableName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getString(1) != null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     // Drop the tables created.
     public abstract void dropSchema(DBContext context);
 
@@ -38,7 +68,7 @@ public abstract class Model {
     public abstract void deleteCols(DBContext context, int col, int count);
 
     //Update a range of cells -- Cells should exist in the sheet
-    public abstract void updateCells(DBContext context, Collection<AbstractCellAdv> cells);
+    public abstract void updateCells(DBContext context, Collection<AbstractCellAdv> cells) throws SQLException;
 
     //Delete cells
     public abstract void deleteCells(DBContext context, CellRegion cellRegion);
@@ -56,6 +86,53 @@ public abstract class Model {
     // Get size of sheet
     public abstract CellRegion getBounds(DBContext context);
 
+    // Whether reorderRows only rewrites the position mapping, so that sorting uses it
+    public boolean canReorderRows() {
+        return false;
+    }
+
+    // Move whole rows starting at row(inclusive) so that the row at order[i] comes at row + i.
+    // By default the cells of the rows are written again at their new rows.
+    public synchronized void reorderRows(DBContext context, int row, int[] order) throws SQLException {
+        CellRegion bounds = getBounds(context);
+        int lastRow = row + order.length - 1;
+        if (bounds == null || bounds.getRow() > lastRow || bounds.getLastRow() < row)
+            return;
+        // only read within the bounds, reading past them would extend the sheet
+        CellRegion rows = new CellRegion(Math.max(row, bounds.getRow()), bounds.getColumn(),
+                Math.min(lastRow, bounds.getLastRow()), bounds.getLastColumn());
+        int[] newRows = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+            newRows[order[i] - row] = row + i;
+        List<AbstractCellAdv> moved = new ArrayList<>();
+        for (AbstractCellAdv cell : getCells(context, rows))
+            moved.add(CellImpl.fromBytes(newRows[cell.getRowIndex() - row], cell.getColumnIndex(), cell.toBytes()));
+        deleteCells(context, rows);
+        updateCells(context, moved);
+    }
+
+    // Get the formula cells of a range, and possibly others
+    public Collection<AbstractCellAdv> getFormulaCells(DBContext context, CellRegion cellRegion) {
+        return getCells(context, cellRegion);
+    }
+
+    // Version of the cells, raised by every change of their content or positions.
+    // Formula results computed at a version are valid until it changes. -1 if not tracked.
+    public long getVersion() {
+        return -1;
+    }
+
+    // Write the cells for their formula results only, without raising the version.
+    public void updateFormulaResults(DBContext context, Collection<AbstractCellAdv> cells) throws SQLException {
+        updateCells(context, cells);
+    }
+
+    // Aggregates of the plain values of a range, computed without reading its cells.
+    // null if not supported, or if the range holds cells that have to be evaluated.
+    public AreaAggregate getAggregate(DBContext context, CellRegion cellRegion) {
+        return null;
+    }
+
     // Flush Cache and clearCache DB connection
     public abstract void clearCache(DBContext context);
 
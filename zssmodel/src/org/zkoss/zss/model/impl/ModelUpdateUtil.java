@@ -50,6 +50,8 @@ import org.zkoss.zss.range.impl.ModelUpdateCollector;
 		}
 		if (includePrecedent) { //ZSS-1047
 			addRefUpdate(precedent);
+			//the values changed, drop what was read from them at once, e.g. lookup indexes
+			new FormulaCacheClearHelper(bookSeries).clearValues(precedent);
 		}
 		if(dependents!=null && dependents.size()>0){
 			if(clearer!=null){
@@ -16,6 +16,9 @@ public interface PosMapping {
     // Add and return count IDs starting from position pos(inclusive)
     Integer[] createIDs(DBContext context, int pos, int count);
 
+    // Rewrite the IDs at ids.length positions starting from pos(inclusive), ids is a permutation of the current ones
+    void reorderIDs(DBContext context, int pos, Integer[] ids);
+
     // Rollback and Flush Cache
     void clearCache(DBContext context);
 
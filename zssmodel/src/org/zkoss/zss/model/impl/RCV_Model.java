@@ -1,6 +1,5 @@
 package org.zkoss.zss.model.impl;
 
-import com.opencsv.CSVReader;
 import org.apache.tomcat.dbcp.dbcp2.DelegatingConnection;
 import org.model.BlockStore;
 import org.model.DBContext;
@@ -8,7 +7,9 @@ import org.model.DBHandler;
 import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
 import org.postgresql.jdbc.PgConnection;
+import org.zkoss.poi.ss.formula.AreaAggregate;
 import org.zkoss.zss.model.CellRegion;
+import org.zkoss.zss.model.SCell.CellType;
 
 import java.io.*;
 import java.sql.*;
@@ -18,16 +19,19 @@ import java.util.stream.IntStream;
 
 
 public class RCV_Model extends Model {
+    private final static int UPDATE_BATCH_SIZE = 1000;
+    private final static int VERSION_BLOCK = 1;
     private Logger logger = Logger.getLogger(RCV_Model.class.getName());
     private PosMapping rowMapping;
     private PosMapping colMapping;
     private BlockStore bs;
     private MetaDataBlock metaDataBlock;
+    private VersionBlock versionBlock;
 
     //Create or load RCV_model.
     protected RCV_Model(DBContext context, String tableName) {
-        rowMapping = new BTree(context, tableName + "_row_idx");
-        colMapping = new BTree(context, tableName + "_col_idx");
+        rowMapping = createPosMapping(context, tableName + "_row");
+        colMapping = createPosMapping(context, tableName + "_col");
         this.tableName = tableName;
         createSchema(context);
         loadMetaData(context);
@@ -42,6 +46,21 @@ public class RCV_Model extends Model {
             bs.putObject(0, metaDataBlock);
             bs.flushDirtyBlocks(context);
         }
+        versionBlock = bs.getObject(context, VERSION_BLOCK, VersionBlock.class);
+        if (versionBlock == null)
+            versionBlock = new VersionBlock();
+    }
+
+    @Override
+    public synchronized long getVersion() {
+        return versionBlock.version;
+    }
+
+    /* Called by every change of the cells, in the transaction of the change */
+    private void raiseVersion(DBContext context) {
+        versionBlock.version++;
+        bs.putObject(VERSION_BLOCK, versionBlock);
+        bs.flushDirtyBlocks(context);
     }
 
 
@@ -52,23 +71,75 @@ public class RCV_Model extends Model {
                 .append(tableName)
                 .append("(row INT, col INT, data BYTEA)")
                 .toString();
+        // Whether the unique index exists, tables of older versions may hold several cells at a position
+        String hasIndex = (new StringBuffer())
+                .append("SELECT to_regclass('")
+                .append(tableName)
+                .append("_row_col_key') IS NOT NULL")
+                .toString();
+        // Keep one cell at each position. The table records no write order, so the latest cell cannot be told:
+        // a cell with data is kept over one without, between equals the one with the highest ctid, an arbitrary pick.
+        String deleteDuplicates = (new StringBuffer())
+                .append("DELETE FROM ")
+                .append(tableName)
+                .append(" WHERE ctid IN (SELECT ctid FROM (SELECT ctid, row_number() OVER")
+                .append(" (PARTITION BY row, col ORDER BY data IS NULL, ctid DESC) AS n FROM ")
+                .append(tableName)
+                .append(") d WHERE n > 1)")
+                .toString();
+        // Unique, so that updateCells can merge with ON CONFLICT
         String createIndex = (new StringBuffer())
-                .append("CREATE INDEX IF NOT EXISTS ")
+                .append("CREATE UNIQUE INDEX IF NOT EXISTS ")
                 .append(tableName)
-                .append("_row_col ON ")
+                .append("_row_col_key ON ")
                 .append(tableName)
                 .append("(row, col)")
                 .toString();
+        // Plain index created by older versions, covered by the unique one
+        String dropIndex = (new StringBuffer())
+                .append("DROP INDEX IF EXISTS ")
+                .append(tableName)
+                .append("_row_col")
+                .toString();
+        // Typed copy of the values, for aggregates computed by the database.
+        // kind is the CellType value, num the value of a number. Null in rows of older versions.
+        String addTypedColumns = (new StringBuffer())
+                .append("ALTER TABLE ")
+                .append(tableName)
+                .append(" ADD COLUMN IF NOT EXISTS kind SMALLINT, ADD COLUMN IF NOT EXISTS num DOUBLE PRECISION")
+                .toString();
+        // Column scans of sorting and filtering read a column across all rows
+        String createColumnIndex = (new StringBuffer())
+                .append("CREATE INDEX IF NOT EXISTS ")
+                .append(tableName)
+                .append("_col_row ON ")
+                .append(tableName)
+                .append("(col, row)")
+                .toString();
         try (Statement stmt = context.getConnection().createStatement()) {
             stmt.execute(createTable);
-            stmt.execute(createIndex);
+            stmt.execute(addTypedColumns);
+            boolean indexed;
+            try (ResultSet rs = stmt.executeQuery(hasIndex)) {
+                indexed = rs.next() && rs.getBoolean(1);
+            }
+            if (!indexed) {
+                int deleted = stmt.executeUpdate(deleteDuplicates);
+                if (deleted > 0)
+                    logger.warning("Deleted " + deleted + " cells of " + tableName
+                            + " sharing their position with another cell");
+                stmt.execute(createIndex);
+            }
+            stmt.execute(dropIndex);
+            stmt.execute(createColumnIndex);
         } catch (SQLException e) {
-            e.printStackTrace();
+            // every write merges on the unique index, the table cannot be used without it
+            throw new RuntimeException("Cannot create the schema of " + tableName, e);
         }
     }
 
     @Override
-    public void dropSchema(DBContext context) {
+    public synchronized void dropSchema(DBContext context) {
         String dropTable = (new StringBuffer())
                 .append("DROP TABLE ")
                 .append(tableName)
@@ -85,18 +156,21 @@ public class RCV_Model extends Model {
 
 
     @Override
-    public void insertRows(DBContext context, int row, int count) {
+    public synchronized void insertRows(DBContext context, int row, int count) {
         rowMapping.createIDs(context, row, count);
+        raiseVersion(context);
     }
 
     @Override
-    public void insertCols(DBContext context, int col, int count) {
+    public synchronized void insertCols(DBContext context, int col, int count) {
         colMapping.createIDs(context, col, count);
+        raiseVersion(context);
     }
 
     @Override
-    public void deleteRows(DBContext context, int row, int count) {
+    public synchronized void deleteRows(DBContext context, int row, int count) {
         Integer[] ids = rowMapping.deleteIDs(context, row, count);
+        raiseVersion(context);
 
         try (PreparedStatement stmt = context.getConnection().prepareStatement(
                 "DELETE FROM " + tableName + " WHERE row = ANY(?)")) {
@@ -110,8 +184,9 @@ public class RCV_Model extends Model {
     }
 
     @Override
-    public void deleteCols(DBContext context, int col, int count) {
+    public synchronized void deleteCols(DBContext context, int col, int count) {
         Integer[] ids = colMapping.deleteIDs(context, col, count);
+        raiseVersion(context);
 
         metaDataBlock.deletedColumns.addAll(Arrays.asList(ids));
         // simplified conversion
@@ -134,7 +209,7 @@ public class RCV_Model extends Model {
         } */
     }
 
-    public void executeLazyDelete(DBContext context) {
+    public synchronized void executeLazyDelete(DBContext context) {
         Integer[] ids = (Integer[]) metaDataBlock.deletedColumns.toArray();
 
         try (PreparedStatement stmt = context.getConnection().prepareStatement(
@@ -153,37 +228,88 @@ public class RCV_Model extends Model {
 
 
     @Override
-    public void updateCells(DBContext context, Collection<AbstractCellAdv> cells) {
+    public synchronized void updateCells(DBContext context, Collection<AbstractCellAdv> cells) throws SQLException {
+        if (cells.isEmpty())
+            return;
+        raiseVersion(context);
+        writeCells(context, cells);
+    }
 
-        StringBuffer update = new StringBuffer("WITH upsert AS ( UPDATE ")
-                .append(tableName)
-                .append(" SET data = ? WHERE row = ? AND col = ? RETURNING *) INSERT INTO ")
+    @Override
+    public synchronized void updateFormulaResults(DBContext context, Collection<AbstractCellAdv> cells) throws SQLException {
+        if (cells.isEmpty())
+            return;
+        writeCells(context, cells);
+    }
+
+    private void writeCells(DBContext context, Collection<AbstractCellAdv> cells) throws SQLException {
+
+        int minRow = Integer.MAX_VALUE, maxRow = -1;
+        int minCol = Integer.MAX_VALUE, maxCol = -1;
+        for (AbstractCellAdv cell : cells) {
+            minRow = Math.min(minRow, cell.getRowIndex());
+            maxRow = Math.max(maxRow, cell.getRowIndex());
+            minCol = Math.min(minCol, cell.getColumnIndex());
+            maxCol = Math.max(maxCol, cell.getColumnIndex());
+        }
+        Map<Integer, Integer> rowIds = getIDs(context, rowMapping, cells, true, minRow, maxRow);
+        Map<Integer, Integer> colIds = getIDs(context, colMapping, cells, false, minCol, maxCol);
+
+        String update = new StringBuffer("INSERT INTO ")
                 .append(tableName)
-                .append(" (row,col,data) SELECT ?,?,? WHERE NOT EXISTS (SELECT * FROM upsert)");
+                .append(" (row,col,data,kind,num) VALUES (?,?,?,?,?) ON CONFLICT (row,col) DO UPDATE SET")
+                .append(" data = EXCLUDED.data, kind = EXCLUDED.kind, num = EXCLUDED.num")
+                .toString();
 
-        try (PreparedStatement stmt = context.getConnection().prepareStatement(update.toString())) {
+        try (PreparedStatement stmt = context.getConnection().prepareStatement(update)) {
+            int batched = 0;
             for (AbstractCellAdv cell : cells) {
-                // Extend sheet
-                Integer[] idsRow = rowMapping.getIDs(context, cell.getRowIndex(), 1);
-                int row = idsRow[0];
-                Integer[] idsCol = colMapping.getIDs(context, cell.getColumnIndex(), 1);
-                int col = idsCol[0];
-                stmt.setBytes(1, cell.toBytes());
-                stmt.setInt(2, row);
-                stmt.setInt(3, col);
-                stmt.setInt(4, row);
-                stmt.setInt(5, col);
-                stmt.setBytes(6, cell.toBytes());
-                stmt.execute();
+                stmt.setInt(1, rowIds.get(cell.getRowIndex()));
+                stmt.setInt(2, colIds.get(cell.getColumnIndex()));
+                stmt.setBytes(3, cell.toBytes());
+                CellType type = cell.getType();
+                stmt.setShort(4, (short) type.value());
+                if (type == CellType.NUMBER)
+                    stmt.setDouble(5, cell.getNumberValue());
+                else
+                    stmt.setNull(5, Types.DOUBLE);
+                stmt.addBatch();
+                if (++batched == UPDATE_BATCH_SIZE) {
+                    stmt.executeBatch();
+                    batched = 0;
+                }
             }
+            if (batched > 0)
+                stmt.executeBatch();
+        }
+    }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
+    /**
+     * Map the row (or column) positions of the cells to IDs.
+     * A dense region is resolved with a single range walk of the index,
+     * scattered cells with one lookup per distinct position.
+     */
+    private Map<Integer, Integer> getIDs(DBContext context, PosMapping mapping, Collection<AbstractCellAdv> cells,
+                                         boolean row, int min, int max) {
+        Map<Integer, Integer> ids = new HashMap<>();
+        int span = max - min + 1;
+        if (span <= 2 * cells.size() + UPDATE_BATCH_SIZE) {
+            Integer[] range = mapping.getIDs(context, min, span);
+            for (int i = 0; i < range.length; i++)
+                ids.put(min + i, range[i]);
+        } else {
+            for (AbstractCellAdv cell : cells) {
+                int pos = row ? cell.getRowIndex() : cell.getColumnIndex();
+                if (!ids.containsKey(pos))
+                    ids.put(pos, mapping.getIDs(context, pos, 1)[0]);
+            }
         }
+        return ids;
     }
 
     @Override
-    public void deleteCells(DBContext context, CellRegion range) {
+    public synchronized void deleteCells(DBContext context, CellRegion range) {
+        raiseVersion(context);
 
         Integer[] rowIds = rowMapping.getIDs(context, range.getRow(), range.getLastRow() - range.getRow() + 1);
         Integer[] colIds = colMapping.getIDs(context, range.getColumn(), range.getLastColumn() - range.getColumn() + 1);
@@ -210,7 +336,8 @@ public class RCV_Model extends Model {
     }
 
     @Override
-    public void deleteCells(DBContext context, Collection<AbstractCellAdv> cells) {
+    public synchronized void deleteCells(DBContext context, Collection<AbstractCellAdv> cells) {
+        raiseVersion(context);
 
         String delete = new StringBuffer("DELETE FROM ")
                 .append(tableName)
@@ -233,7 +360,17 @@ public class RCV_Model extends Model {
     }
 
     @Override
-    public Collection<AbstractCellAdv> getCells(DBContext context, CellRegion fetchRange) {
+    public synchronized Collection<AbstractCellAdv> getCells(DBContext context, CellRegion fetchRange) {
+        return getCells(context, fetchRange, false);
+    }
+
+    // Legacy cells are returned too, their type is only known once decoded.
+    @Override
+    public synchronized Collection<AbstractCellAdv> getFormulaCells(DBContext context, CellRegion fetchRange) {
+        return getCells(context, fetchRange, true);
+    }
+
+    private Collection<AbstractCellAdv> getCells(DBContext context, CellRegion fetchRange, boolean formulas) {
         // Reduce Range to bounds
         Collection<AbstractCellAdv> cells = new ArrayList<>();
 
@@ -254,12 +391,15 @@ public class RCV_Model extends Model {
                 .collect(HashMap<Integer, Integer>::new, (map, i) -> map.put(colIds[i], fetchRegion.getColumn() + i), null);
 
 
-        String select = new StringBuffer("SELECT row, col, data FROM ")
+        StringBuffer select = new StringBuffer("SELECT row, col, data FROM ")
                 .append(tableName)
-                .append(" WHERE row = ANY (?) AND col = ANY (?)").toString();
+                .append(" WHERE row = ANY (?) AND col = ANY (?)");
+        byte[] prefix = CellImpl.getFormulaPrefix();
+        if (formulas)
+            select.append(" AND (substring(data from 1 for 3) = ? OR substring(data from 1 for 2) <> ?)");
 
 
-        try (PreparedStatement stmt = context.getConnection().prepareStatement(select)) {
+        try (PreparedStatement stmt = context.getConnection().prepareStatement(select.toString())) {
 
             Array inArrayRow = context.getConnection().createArrayOf("integer", rowIds);
             stmt.setArray(1, inArrayRow);
@@ -267,6 +407,10 @@ public class RCV_Model extends Model {
             Array inArrayCol = context.getConnection().createArrayOf("integer", colIds);
             stmt.setArray(2, inArrayCol);
 
+            if (formulas) {
+                stmt.setBytes(3, prefix);
+                stmt.setBytes(4, Arrays.copyOf(prefix, 2));
+            }
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 int row_id = rs.getInt(1);
@@ -284,7 +428,47 @@ public class RCV_Model extends Model {
     }
 
     @Override
-    public CellRegion getBounds(DBContext context) {
+    public synchronized AreaAggregate getAggregate(DBContext context, CellRegion range) {
+        CellRegion bounds = getBounds(context);
+        CellRegion region = bounds == null ? null : bounds.getOverlap(range);
+        if (region == null)
+            return new AreaAggregate();
+
+        // Every row of the table is mapped, only lazily deleted columns are not
+        boolean allRows = region.getRow() == bounds.getRow() && region.getLastRow() == bounds.getLastRow();
+        Integer[] colIds = colMapping.getIDs(context, region.getColumn(), region.getColumnCount());
+        StringBuffer select = new StringBuffer("SELECT")
+                .append(" count(*) FILTER (WHERE kind IS NULL OR kind = ").append(CellType.FORMULA.value()).append("),")
+                .append(" count(num), sum(num), min(num), max(num),")
+                .append(" count(*) FILTER (WHERE kind <> ").append(CellType.BLANK.value()).append("),")
+                .append(" count(*) FILTER (WHERE kind = ").append(CellType.ERROR.value()).append(")")
+                .append(" FROM ").append(tableName)
+                .append(" WHERE col = ANY (?)");
+        if (!allRows)
+            select.append(" AND row = ANY (?)");
+
+        try (PreparedStatement stmt = context.getConnection().prepareStatement(select.toString())) {
+            stmt.setArray(1, context.getConnection().createArrayOf("integer", colIds));
+            if (!allRows) {
+                Integer[] rowIds = rowMapping.getIDs(context, region.getRow(), region.getRowCount());
+                stmt.setArray(2, context.getConnection().createArrayOf("integer", rowIds));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                // formula results and cells of older versions are not typed
+                if (rs.getLong(1) > 0)
+                    return null;
+                return new AreaAggregate(rs.getLong(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5),
+                        rs.getLong(6), rs.getLong(7));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized CellRegion getBounds(DBContext context) {
         int rows = rowMapping.size(context);
         int columns = colMapping.size(context);
         if (rows==0 || columns ==0)
@@ -294,56 +478,50 @@ public class RCV_Model extends Model {
     }
 
     @Override
-    public void clearCache(DBContext context) {
-        rowMapping.clearCache(context);
-        colMapping.clearCache(context);
+    public boolean canReorderRows() {
+        return true;
     }
 
     @Override
-    public void importSheet(Reader reader, char delimiter) throws IOException {
-        final int COMMIT_SIZE_BYTES = 8 * 1000;
-        CSVReader csvReader = new CSVReader(reader, delimiter);
-        String[] nextLine;
-        int importedRows = 0;
-        int importedColumns = 0;
+    public synchronized void reorderRows(DBContext context, int row, int[] order) {
+        Integer[] ids = rowMapping.getIDs(context, row, order.length);
+        Integer[] reordered = new Integer[order.length];
+        for (int i = 0; i < order.length; i++)
+            reordered[i] = ids[order[i] - row];
+        rowMapping.reorderIDs(context, row, reordered);
+        raiseVersion(context);
+    }
 
+    @Override
+    public synchronized void clearCache(DBContext context) {
+        rowMapping.clearCache(context);
+        colMapping.clearCache(context);
+    }
 
+    @Override
+    public synchronized void importSheet(Reader reader, char delimiter) throws IOException {
         try (Connection connection = DBHandler.instance.getConnection()) {
             Connection rawConn = ((DelegatingConnection) connection).getInnermostDelegate();
             CopyManager cm = ((PgConnection) rawConn).getCopyAPI();
 
-            CopyIn cpIN = cm.copyIn("COPY " + tableName + " (row,col,data)" +
-                    " FROM STDIN WITH DELIMITER '|'");
-
-            StringBuffer sb = new StringBuffer();
-            while ((nextLine = csvReader.readNext()) != null) {
-                ++importedRows;
-                if (importedColumns < nextLine.length)
-                    importedColumns = nextLine.length;
-                for (int col = 0; col < nextLine.length; col++) {
-                    sb.append(importedRows).append('|');
-                    sb.append(col+1).append('|');
-                    sb.append(nextLine[col]).append('\n');
-                }
-
-                if (sb.length() >= COMMIT_SIZE_BYTES) {
-                    cpIN.writeToCopy(sb.toString().getBytes(), 0, sb.length());
-                    sb = new StringBuffer();
-                }
-            }
-            if (sb.length() > 0)
-                cpIN.writeToCopy(sb.toString().getBytes(), 0, sb.length());
-            cpIN.endCopy();
+            CopyIn cpIN = cm.copyIn("COPY " + tableName + " (row,col,data,kind,num)" +
+                    " FROM STDIN WITH (FORMAT binary)");
+            CsvImporter importer = new CsvImporter(reader, delimiter);
+            importer.run(cpIN);
             rawConn.commit();
             DBContext dbContext = new DBContext(connection);
-            insertRows(dbContext, 0, importedRows);
-            insertCols(dbContext, 0, importedColumns);
+            insertRows(dbContext, 0, (int) importer.getRowCount());
+            insertCols(dbContext, 0, importer.getColumnCount());
             connection.commit();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    private static class VersionBlock {
+        long version;
+    }
+
     private static class MetaDataBlock {
         List<Integer> deletedColumns;
 
@@ -23,8 +23,8 @@ public class ROM_Model extends Model {
 
     //Create or load RCV_model.
     ROM_Model(DBContext context, String tableName) {
-        rowMapping = new BTree(context, tableName + "_row_idx");
-        colMapping = new BTree(context, tableName + "_col_idx");
+        rowMapping = createPosMapping(context, tableName + "_row");
+        colMapping = createPosMapping(context, tableName + "_col");
         this.tableName = tableName;
         createSchema(context);
     }
@@ -44,7 +44,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void dropSchema(DBContext context) {
+    public synchronized void dropSchema(DBContext context) {
         String dropTable = (new StringBuffer())
                 .append("DROP TABLE ")
                 .append(tableName)
@@ -60,12 +60,12 @@ public class ROM_Model extends Model {
 
 
     @Override
-    public void insertRows(DBContext context, int row, int count) {
+    public synchronized void insertRows(DBContext context, int row, int count) {
         rowMapping.createIDs(context, row, count);
     }
 
     @Override
-    public void insertCols(DBContext context, int col, int count) {
+    public synchronized void insertCols(DBContext context, int col, int count) {
         StringBuffer insertColumn = (new StringBuffer())
                 .append("ALTER TABLE ")
                 .append(tableName);
@@ -85,7 +85,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void deleteRows(DBContext context, int row, int count) {
+    public synchronized void deleteRows(DBContext context, int row, int count) {
         Integer[] ids = rowMapping.deleteIDs(context, row, count);
 
         try (PreparedStatement stmt = context.getConnection().prepareStatement(
@@ -99,7 +99,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void deleteCols(DBContext context, int col, int count) {
+    public synchronized void deleteCols(DBContext context, int col, int count) {
         StringBuffer deleteColumn = (new StringBuffer())
                 .append("ALTER TABLE ")
                 .append(tableName);
@@ -120,7 +120,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void updateCells(DBContext context, Collection<AbstractCellAdv> cells) {
+    public synchronized void updateCells(DBContext context, Collection<AbstractCellAdv> cells) {
         if (cells.size() == 0)
             return;
 
@@ -197,7 +197,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void deleteCells(DBContext context, CellRegion range) {
+    public synchronized void deleteCells(DBContext context, CellRegion range) {
         StringBuffer delete = new StringBuffer("UPDATE ")
                 .append(tableName)
                 .append(" SET ");
@@ -223,7 +223,7 @@ public class ROM_Model extends Model {
         }
     }
 
-    public void deleteCells(DBContext context, Collection<AbstractCellAdv> cells) {
+    public synchronized void deleteCells(DBContext context, Collection<AbstractCellAdv> cells) {
         // Gather cells of same row together
         SortedMap<Integer, SortedMap<Integer, AbstractCellAdv>> groupedCells = new TreeMap<>();
         SortedSet<Integer> columnList = new TreeSet<>();
@@ -278,7 +278,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public Collection<AbstractCellAdv> getCells(DBContext context, CellRegion fetchRange) {
+    public synchronized Collection<AbstractCellAdv> getCells(DBContext context, CellRegion fetchRange) {
         // Reduce Range to bounds
         Collection<AbstractCellAdv> cells = new ArrayList<>();
 
@@ -333,7 +333,7 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public CellRegion getBounds(DBContext context) {
+    public synchronized CellRegion getBounds(DBContext context) {
         int rows = rowMapping.size(context);
         int columns = colMapping.size(context);
         if (rows==0 || columns ==0)
@@ -343,13 +343,13 @@ public class ROM_Model extends Model {
     }
 
     @Override
-    public void clearCache(DBContext context) {
+    public synchronized void clearCache(DBContext context) {
         rowMapping.clearCache(context);
         colMapping.clearCache(context);
     }
 
     @Override
-    public void importSheet(Reader reader, char delimiter) throws IOException {
+    public synchronized void importSheet(Reader reader, char delimiter) throws IOException {
         final int COMMIT_SIZE_BYTES = 8 * 1000;
         CSVReader csvReader = new CSVReader(reader, delimiter);
         String[] nextLine;
@@ -18,7 +18,6 @@ package org.zkoss.zss.model.impl;
 
 import org.model.DBContext;
 import org.model.DBHandler;
-import org.model.LruCache;
 import org.zkoss.lang.Library;
 import org.zkoss.poi.ss.util.CellReference;
 import org.zkoss.poi.ss.util.SheetUtil;
@@ -34,13 +33,15 @@ import org.zkoss.zss.model.sys.dependency.DependencyTable;
 import org.zkoss.zss.model.sys.dependency.ObjectRef.ObjectType;
 import org.zkoss.zss.model.sys.dependency.Ref;
 import org.zkoss.zss.model.sys.formula.FormulaClearContext;
+import org.zkoss.zss.model.sys.formula.FormulaEngine;
+import org.zkoss.zss.model.sys.formula.FormulaExpression;
+import org.zkoss.zss.model.sys.formula.FormulaParseContext;
 import org.zkoss.zss.model.util.Validations;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * 
@@ -64,7 +65,11 @@ public class SheetImpl extends AbstractSheetAdv {
         }
     }
 
-    final int CACHE_SIZE = 50000;
+    /**
+     * Memory budget of the cell cache of each sheet, in bytes
+     */
+    static final long CACHE_BYTES = Long.parseLong(
+            Library.getProperty("org.zkoss.zss.model.SheetCache.maxBytes", String.valueOf(16 * 1024 * 1024)));
     private final String _id;
 	private final IndexPool<AbstractRowAdv> _rows = new IndexPool<AbstractRowAdv>(){
 		private static final long serialVersionUID = 1L;
@@ -84,7 +89,9 @@ public class SheetImpl extends AbstractSheetAdv {
     //ZSS-855
     private final List<STable> _tables = new ArrayList<STable>();
     Model dataModel;
-    LruCache<CellRegion, AbstractCellAdv> sheetDataCache;
+    TiledCellCache sheetDataCache;
+    private transient CellWriteBuffer writeBuffer;
+    private transient CellPrefetcher prefetcher;
     private AbstractBookAdv _book;
     private String _name;
     private int _dbid;
@@ -105,7 +112,7 @@ public class SheetImpl extends AbstractSheetAdv {
 	public SheetImpl(AbstractBookAdv book,String id){
 		this._book = book;
 		this._id = id;
-        sheetDataCache = new LruCache<>(CACHE_SIZE);
+        sheetDataCache = new TiledCellCache(CACHE_BYTES);
     }
 	
 	protected void checkOwnership(SPicture picture){
@@ -350,8 +357,57 @@ public class SheetImpl extends AbstractSheetAdv {
 	}
 
 
+	@Override
+	void bufferCellUpdate(AbstractCellAdv cell) {
+		invalidatePrefetch();
+		getWriteBuffer().add(cell);
+	}
+
+	@Override
+	void bufferResultUpdate(AbstractCellAdv cell) {
+		getWriteBuffer().addResult(cell);
+	}
+
+	@Override
+	public void flushDirtyCells() {
+		if (writeBuffer != null)
+			writeBuffer.flush();
+	}
+
+	public synchronized CellWriteBuffer getWriteBuffer() {
+		if (writeBuffer == null)
+			writeBuffer = new CellWriteBuffer(this);
+		return writeBuffer;
+	}
+
+	public synchronized CellPrefetcher getPrefetcher() {
+		if (prefetcher == null)
+			prefetcher = new CellPrefetcher(this);
+		return prefetcher;
+	}
+
+	@Override
+	public void prefetchCells(CellRegion loaded, int rowDirection, int columnDirection) {
+		if (!CellPrefetcher.ENABLED || !getBook().hasSchema() || dataModel == null)
+			return;
+		// the prefetch reads our own buffered writes, skip it while the book is being changed
+		CellWriteBuffer buffer = writeBuffer;
+		if (buffer != null && !buffer.flushUnlessBusy())
+			return;
+		getPrefetcher().request(loaded, rowDirection, columnDirection);
+	}
+
+	/* Prefetched cells are stale once the sheet changes */
+	private void invalidatePrefetch() {
+		if (prefetcher != null)
+			prefetcher.invalidate();
+	}
+
 	private void preFetchCells(CellRegion cellRegion)
 	{
+		// read our own buffered writes
+		flushDirtyCells();
+
 		int minRow = Math.max(0,cellRegion.getRow()- PreFetchRows);
 		int maxRow = minRow + PreFetchRows * 2;
 
@@ -364,30 +420,41 @@ public class SheetImpl extends AbstractSheetAdv {
 		{
 			DBContext dbContext = new DBContext(connection);
 			Collection<AbstractCellAdv> cells = dataModel.getCells(dbContext, fetchRange);
-			//Update book reference for the cells.
-			cells.stream().forEach(e -> e.setSheet(this));
-
-
-			cells.stream()
-					.filter(e -> e.getType() == SCell.CellType.FORMULA)
-					.forEach(e ->
-							e.setFormulaValue(((FormulaEngineImpl.FormulaExpressionImpl) e.getValue(false))
-									.getFormulaString(), connection, false));
-
-            cells.stream().forEach(e->sheetDataCache.put(new CellRegion(e.getRowIndex(), e.getColumnIndex()), e));
+			installCells(fetchRange, cells, connection, true);
         }
 		catch (SQLException e)
 		{
 			e.printStackTrace();
 		}
+	}
 
-        for (int row=fetchRange.getRow();row<=fetchRange.getLastRow();++row) {
-            for (int col = fetchRange.getColumn(); col <= fetchRange.getLastColumn(); ++col) {
-				CellRegion cellRange = new CellRegion(row, col);
-                if (!sheetDataCache.containsKey(cellRange))
-                    sheetDataCache.put(cellRange, new CellProxy(this, row, col));
-            }
-        }
+	/**
+	 * Attach cells read from the database and cache them, the rest of the
+	 * range is cached as empty. Unless replace is set, positions already
+	 * cached keep their cell.
+	 */
+	void installCells(CellRegion fetchRange, Collection<AbstractCellAdv> cells, Connection connection, boolean replace) {
+		long version = dataModel.getVersion();
+		List<CellImpl> formulas = new ArrayList<>();
+		for (AbstractCellAdv cell : cells) {
+			if (!replace && sheetDataCache.contains(cell.getRowIndex(), cell.getColumnIndex()))
+				continue;
+			//Update book reference for the cells.
+			cell.setSheet(this);
+			if (cell.getType() == SCell.CellType.FORMULA) {
+				if (cell instanceof CellImpl) {
+					((CellImpl) cell).installFormula(connection);
+					formulas.add((CellImpl) cell);
+				} else
+					cell.setFormulaValue(((FormulaEngineImpl.FormulaExpressionImpl) cell.getValue(false))
+							.getFormulaString(), connection, false);
+			}
+			sheetDataCache.put(cell.getRowIndex(), cell.getColumnIndex(), cell);
+		}
+		sheetDataCache.putEmptyIfAbsent(fetchRange);
+		// the stored results depend on the formulas among the precedents, now all installed
+		for (CellImpl cell : formulas)
+			cell.restoreFormulaResult(version);
 	}
 
 
@@ -406,43 +473,30 @@ public class SheetImpl extends AbstractSheetAdv {
 	
 	@Override
 	AbstractCellAdv getCell(int rowIdx, int columnIdx, boolean proxy) {
-		CellRegion cellRegion = new CellRegion(rowIdx, columnIdx);
-        AbstractCellAdv cell = sheetDataCache.get(cellRegion);
+        AbstractCellAdv cell = sheetDataCache.get(rowIdx, columnIdx);
 		if (cell == null) {
 			//Data not cached.
-			// Cache Data.
 			if (getBook().hasSchema()) {
-				preFetchCells(cellRegion);
-				// After prefetch assume this can get a cell.
-				return getCell(rowIdx, columnIdx, proxy);
+				// Cache Data, from a prefetch if it covered the cell.
+				if (prefetcher == null || !prefetcher.install(rowIdx, columnIdx))
+					preFetchCells(new CellRegion(rowIdx, columnIdx));
+				cell = sheetDataCache.get(rowIdx, columnIdx);
 			} else {
-                if (proxy) {
-                    CellProxy cellProxy = new CellProxy(this, rowIdx, columnIdx);
-                    sheetDataCache.put(cellRegion, cellProxy);
-                    return cellProxy;
-                } else {
-                    return null;
-                }
-            }
-		}
-		else {
-			if (proxy) {
-				return cell;
-			} else {
-				if (cell instanceof CellProxy)
-					return null;
-				else
-					return cell;
+				cell = TiledCellCache.EMPTY;
+				sheetDataCache.put(rowIdx, columnIdx, cell);
 			}
 		}
+		if (cell == null || cell == TiledCellCache.EMPTY) {
+			return proxy ? new CellProxy(this, rowIdx, columnIdx) : null;
+		}
+		return cell;
 	}
 
 	@Override
     AbstractCellAdv createCell(int rowIdx, int columnIdx) {
         AbstractCellAdv cell = new CellImpl(rowIdx, columnIdx);
         cell.setSheet(this);
-        CellRegion cellRegion = new CellRegion(rowIdx, columnIdx);
-        sheetDataCache.put(cellRegion, cell);
+        sheetDataCache.put(rowIdx, columnIdx, cell);
         return cell;
 	}
 
@@ -590,6 +644,7 @@ public class SheetImpl extends AbstractSheetAdv {
 		}
 
 		//Delete from DB
+		flushDirtyCells();
 
 		CellRegion deleted_region = new CellRegion(rowStart, columnStart, rowEnd, columnEnd);
 		if (dataModel != null) {
@@ -603,10 +658,12 @@ public class SheetImpl extends AbstractSheetAdv {
 		}
 
 		sheetDataCache.remove(deleted_region);
+		invalidatePrefetch();
 	}
 
 	@Override
 	public void insertRow(int rowIdx, int lastRowIdx) {
+		flushDirtyCells();
 		if(rowIdx>lastRowIdx){
 			throw new IllegalArgumentException(rowIdx+">"+lastRowIdx);
 		}
@@ -623,19 +680,13 @@ public class SheetImpl extends AbstractSheetAdv {
             }
         }
 
-		// Update Column numbers for cached cells
-		List<AbstractCellAdv> cellsToShift = new LinkedList<>(sheetDataCache.values());
-		cellsToShift.stream()
-				.filter(e -> e.getRowIndex() >= rowIdx)
-				.forEach(e -> e.shift(size, 0));
-
-		sheetDataCache.clear();
-		cellsToShift.stream()
-				.forEach(e -> sheetDataCache.put(new CellRegion(e.getRowIndex(), e.getColumnIndex()), e));
-
+		// Update row numbers for cached cells
+		sheetDataCache.shift(rowIdx, size, true);
+		invalidatePrefetch();
 
 		//ZSS-619, should clear formula for entire effected region
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+				new CellRegion(rowIdx, 0, _book.getMaxRowIndex(), _book.getMaxColumnIndex())));
 
 		Map<String,Object> dataBefore = shiftBeforeRowInsert(rowIdx,lastRowIdx);
 		ModelUpdateUtil.addInsertDeleteUpdate(this, true, true, rowIdx, lastRowIdx);
@@ -702,6 +753,7 @@ public class SheetImpl extends AbstractSheetAdv {
 
 	@Override
 	public void deleteRow(int rowIdx, int lastRowIdx) {
+		flushDirtyCells();
 		if(rowIdx>lastRowIdx){
 			throw new IllegalArgumentException(rowIdx+">"+lastRowIdx);
 		}
@@ -717,22 +769,13 @@ public class SheetImpl extends AbstractSheetAdv {
             }
         }
 
-        // Update Column numbers for cached cells
-        List<AbstractCellAdv> cellsToShift = sheetDataCache.values()
-                .stream()
-                .filter(e -> e.getRowIndex() < rowIdx || e.getRowIndex() > lastRowIdx)
-                .collect(Collectors.toList());
-
-        cellsToShift.stream()
-                .filter(e -> e.getRowIndex() >= rowIdx)
-                .forEach(e -> e.shift(-size, 0));
-
-        sheetDataCache.clear();
-        cellsToShift.stream()
-                .forEach(e -> sheetDataCache.put(new CellRegion(e.getRowIndex(), e.getColumnIndex()), e));
+        // Update row numbers for cached cells
+        sheetDataCache.shift(rowIdx, -size, true);
+        invalidatePrefetch();
 
 		//ZSS-619, should clear formula for entire effected region
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+				new CellRegion(rowIdx, 0, _book.getMaxRowIndex(), _book.getMaxColumnIndex())));
 		
 		Map<String,Object> dataBefore = shiftBeforeRowDelete(rowIdx,lastRowIdx);
 		ModelUpdateUtil.addInsertDeleteUpdate(this, false, true, rowIdx, lastRowIdx);
@@ -840,12 +883,100 @@ public class SheetImpl extends AbstractSheetAdv {
 		return (b >= a) ? new int[]{a, b} : null;
 	}
 	
+	@Override
+	public boolean canReorderRows(CellRegion region) {
+		if (dataModel == null || !getBook().hasSchema() || !dataModel.canReorderRows())
+			return false;
+		// whole rows move, nothing else may be in them
+		for (CellRegion merged : getMergedRegions()) {
+			if (merged.getRow() <= region.getLastRow() && merged.getLastRow() >= region.getRow()
+					&& !region.contains(merged))
+				return false;
+		}
+		for (STable table : getTables()) {
+			CellRegion tableRegion = table.getAllRegion().getRegion();
+			if (tableRegion.getRow() <= region.getLastRow() && tableRegion.getLastRow() >= region.getRow())
+				return false;
+		}
+		flushDirtyCells();
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			DBContext dbContext = new DBContext(connection);
+			CellRegion bounds = dataModel.getBounds(dbContext);
+			boolean outside = false;
+			if (bounds != null && region.getColumn() > 0)
+				outside = !dataModel.getCells(dbContext, new CellRegion(region.getRow(), 0,
+						region.getLastRow(), region.getColumn() - 1)).isEmpty();
+			if (bounds != null && !outside && region.getLastColumn() < bounds.getLastColumn())
+				outside = !dataModel.getCells(dbContext, new CellRegion(region.getRow(), region.getLastColumn() + 1,
+						region.getLastRow(), bounds.getLastColumn())).isEmpty();
+			connection.commit();
+			return !outside;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	@Override
+	public void reorderRows(CellRegion region, int[] order) {
+		flushDirtyCells();
+		int row = region.getRow();
+		int lastRow = region.getLastRow();
+		DependencyTable dependencyTable = ((AbstractBookSeriesAdv) getBook().getBookSeries()).getDependencyTable();
+
+		int[] newRows = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			newRows[order[i] - row] = row + i;
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			DBContext dbContext = new DBContext(connection);
+			Collection<AbstractCellAdv> formulas = dataModel.getFormulaCells(dbContext,
+					new CellRegion(row, 0, lastRow, _book.getMaxColumnIndex()));
+			// the formulas of the rows, loaded or not, depend on cells relative to their old position
+			for (AbstractCellAdv cell : formulas) {
+				if (cell.getType() == SCell.CellType.FORMULA)
+					dependencyTable.clearDependents(new RefImpl(getBook().getBookName(), getSheetName(),
+							cell.getRowIndex(), cell.getColumnIndex()));
+			}
+			dataModel.reorderRows(dbContext, row, order);
+
+			// shift the formulas of the moved rows, as pasting them there would
+			FormulaEngine engine = EngineFactory.getInstance().createFormulaEngine();
+			List<AbstractCellAdv> shifted = new ArrayList<>();
+			for (AbstractCellAdv cell : formulas) {
+				if (cell.getType() != SCell.CellType.FORMULA)
+					continue;
+				int offset = newRows[cell.getRowIndex() - row] - cell.getRowIndex();
+				if (offset == 0)
+					continue;
+				cell.setSheet(this);
+				FormulaParseContext context = new FormulaParseContext(cell, null);
+				FormulaExpression expr = engine.shiftPtgs(engine.parse(cell.getFormulaValue(), context),
+						offset, 0, context);
+				if (!expr.hasError())
+					shifted.add(((CellImpl) cell).copyDetached(cell.getRowIndex() + offset, expr.getFormulaString()));
+			}
+			dataModel.updateCells(dbContext, shifted);
+			connection.commit();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		sheetDataCache.removeRows(row, lastRow);
+		invalidatePrefetch();
+		CellRegion rows = new CellRegion(row, 0, lastRow, _book.getMaxColumnIndex());
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this, rows));
+		ModelUpdateUtil.addCellUpdate(this, row, 0, lastRow, _book.getMaxColumnIndex(), CellAttribute.ALL);
+		ModelUpdateUtil.handlePrecedentUpdate(getBook().getBookSeries(),
+				new RefImpl(getBook().getBookName(), getSheetName(), row, 0, lastRow, _book.getMaxColumnIndex()));
+	}
+
 	@Override
 	public void insertCell(CellRegion region,boolean horizontal){
 		insertCell(region.getRow(),region.getColumn(),region.getLastRow(),region.getLastColumn(),horizontal);
 	}
 	@Override
 	public void insertCell(int rowIdx,int columnIdx,int lastRowIdx, int lastColumnIdx,boolean horizontal){
+		flushDirtyCells();
 		checkOrphan();
 		
 		if(rowIdx>lastRowIdx){
@@ -864,7 +995,8 @@ public class SheetImpl extends AbstractSheetAdv {
 			}
 			
 			//ZSS-619, should clear formula for entire effected region
-			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+					new CellRegion(rowIdx, columnIdx, lastRowIdx, getBook().getMaxColumnIndex())));
 			
 			// notify affected region update
 			ModelUpdateUtil.addCellUpdate(this, rowIdx, columnIdx, lastRowIdx, getBook().getMaxColumnIndex(), CellAttribute.ALL); //ZSS-939
@@ -884,7 +1016,8 @@ public class SheetImpl extends AbstractSheetAdv {
 			}
 			
 			//ZSS-619, should clear formula for entire effected region
-			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+					new CellRegion(rowIdx, columnIdx, getBook().getMaxRowIndex(), lastColumnIdx)));
 			
 			// notify affected region update
 			ModelUpdateUtil.addCellUpdate(this, rowIdx, columnIdx, getBook().getMaxRowIndex(), lastColumnIdx, CellAttribute.ALL); //ZSS-939
@@ -899,6 +1032,7 @@ public class SheetImpl extends AbstractSheetAdv {
 	}
 	@Override
 	public void deleteCell(int rowIdx,int columnIdx,int lastRowIdx, int lastColumnIdx,boolean horizontal){
+		flushDirtyCells();
 		checkOrphan();
 		if(rowIdx>lastRowIdx){
 			throw new IllegalArgumentException(rowIdx+">"+lastRowIdx);
@@ -917,7 +1051,8 @@ public class SheetImpl extends AbstractSheetAdv {
 			}
 			
 			//ZSS-619, should clear formula for entire effected region
-			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+					new CellRegion(rowIdx, columnIdx, lastRowIdx, getBook().getMaxColumnIndex())));
 			
 			// notify affected region update
 			ModelUpdateUtil.addCellUpdate(this, rowIdx, columnIdx, lastRowIdx, getBook().getMaxColumnIndex(), CellAttribute.ALL); //ZSS-939
@@ -934,7 +1069,8 @@ public class SheetImpl extends AbstractSheetAdv {
 			}
 			
 			//ZSS-619, should clear formula for entire effected region
-			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+			EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+					new CellRegion(rowIdx, columnIdx, getBook().getMaxRowIndex(), lastColumnIdx)));
 			
 			// notify affected region update
 			ModelUpdateUtil.addCellUpdate(this, rowIdx, columnIdx, getBook().getMaxRowIndex(), lastColumnIdx, CellAttribute.ALL); //ZSS-939
@@ -1122,6 +1258,7 @@ public class SheetImpl extends AbstractSheetAdv {
 
 	@Override
 	public void insertColumn(int columnIdx, int lastColumnIdx) {
+		flushDirtyCells();
 		if(columnIdx>lastColumnIdx){
 			throw new IllegalArgumentException(columnIdx+">"+lastColumnIdx);
 		}
@@ -1139,18 +1276,12 @@ public class SheetImpl extends AbstractSheetAdv {
         }
 
         // Update Column numbers for cached cells
-        List<AbstractCellAdv> cellsToShift = new LinkedList<>(sheetDataCache.values());
-        cellsToShift.stream()
-                .filter(e -> e.getColumnIndex() >= columnIdx)
-                .forEach(e -> e.shift(0, size));
-
-		sheetDataCache.clear();
-		cellsToShift.stream()
-				.forEach(e -> sheetDataCache.put(new CellRegion(e.getRowIndex(), e.getColumnIndex()), e));
-
+        sheetDataCache.shift(columnIdx, size, false);
+        invalidatePrefetch();
 
 		//ZSS-619, should clear formula for entire effected region
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+				new CellRegion(0, columnIdx, _book.getMaxRowIndex(), _book.getMaxColumnIndex())));
 
 		Map<String,Object> dataBefore = shiftBeforeColumnInsert(columnIdx,lastColumnIdx);
 		ModelUpdateUtil.addInsertDeleteUpdate(this, true, false, columnIdx, lastColumnIdx);
@@ -1306,6 +1437,7 @@ public class SheetImpl extends AbstractSheetAdv {
 
 	@Override
 	public void deleteColumn(int columnIdx, int lastColumnIdx) {
+		flushDirtyCells();
 		if(columnIdx>lastColumnIdx){
 			throw new IllegalArgumentException(columnIdx+">"+lastColumnIdx);
 		}
@@ -1322,22 +1454,12 @@ public class SheetImpl extends AbstractSheetAdv {
         }
 
         // Update Column numbers for cached cells
-        List<AbstractCellAdv> cellsToShift = sheetDataCache.values()
-                .stream()
-                .filter(e -> e.getColumnIndex() < columnIdx || e.getColumnIndex() > lastColumnIdx)
-                .collect(Collectors.toList());
-
-        cellsToShift.stream()
-                .filter(e -> e.getColumnIndex() >= columnIdx)
-                .forEach(e -> e.shift(0, - size));
+        sheetDataCache.shift(columnIdx, -size, false);
+        invalidatePrefetch();
 
-        sheetDataCache.clear();
-        cellsToShift.stream()
-                .forEach(e -> sheetDataCache.put(new CellRegion(e.getRowIndex(), e.getColumnIndex()), e));
-
-		
 		//ZSS-619, should clear formula for entire effected region
-		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this));
+		EngineFactory.getInstance().createFormulaEngine().clearCache(new FormulaClearContext(this,
+				new CellRegion(0, columnIdx, _book.getMaxRowIndex(), _book.getMaxColumnIndex())));
 		
 		Map<String,Object> dataBefore = shiftBeforeColumnDelete(columnIdx,lastColumnIdx);
 		ModelUpdateUtil.addInsertDeleteUpdate(this, false, false, columnIdx, lastColumnIdx);
@@ -1479,6 +1601,7 @@ public class SheetImpl extends AbstractSheetAdv {
 	
 	@Override
 	public void moveCell(int rowIdx, int columnIdx,int lastRowIdx,int lastColumnIdx, int rowOffset, int columnOffset){
+		flushDirtyCells();
 		if(rowOffset==0 && columnOffset==0)
 			return;
 		
@@ -1646,6 +1769,8 @@ public class SheetImpl extends AbstractSheetAdv {
 			validation.destroy();
 		}
 		_dataValidations.clear();
+		if (writeBuffer != null)
+			writeBuffer.discard();
 		
 		_book = null;
 
@@ -2158,6 +2283,8 @@ public class SheetImpl extends AbstractSheetAdv {
 
 	@Override
 	public void deleteModel(DBContext dbContext) {
+		if (writeBuffer != null)
+			writeBuffer.discard();
 		dataModel.dropSchema(dbContext);
 	}
 
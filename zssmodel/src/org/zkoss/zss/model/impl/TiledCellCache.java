@@ -0,0 +1,379 @@
+package org.zkoss.zss.model.impl;
+
+import org.zkoss.zss.model.CellRegion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cell cache of a sheet, organized in tiles of {@link #TILE_ROWS} x
+ * {@link #TILE_COLUMNS} cells.
+ * <p>
+ * Tiles are found through a primitive long-keyed hash table, so a lookup
+ * allocates nothing, and are evicted in least recently used order once the
+ * estimated footprint exceeds the memory budget. Positions known to be empty
+ * hold the shared {@link #EMPTY} marker instead of a proxy per cell; a
+ * position that was never loaded holds null.
+ */
+class TiledCellCache {
+    static final int TILE_ROWS = 64;
+    static final int TILE_COLUMNS = 16;
+    private static final int TILE_ROW_SHIFT = 6;
+    private static final int TILE_COLUMN_SHIFT = 4;
+    private static final int TILE_SIZE = TILE_ROWS * TILE_COLUMNS;
+
+    /* Rough heap estimates used for the budget */
+    private static final long TILE_BYTES = 64 + 16 + TILE_SIZE * 8;
+    private static final long CELL_BYTES = 256;
+
+    /**
+     * Marker for a position that was loaded and has no cell.
+     */
+    static final AbstractCellAdv EMPTY = new CellProxy(null, -1, -1);
+
+    private final long maxBytes;
+    private long bytes;
+
+    /* Open addressing hash table, tile key -> tile */
+    private long[] keys = new long[64];
+    private Tile[] tiles = new Tile[64];
+    private int tileCount;
+
+    /* LRU list, head is the most recently used */
+    private Tile head;
+    private Tile tail;
+
+    TiledCellCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static final class Tile {
+        final long key;
+        final AbstractCellAdv[] cells = new AbstractCellAdv[TILE_SIZE];
+        int cellCount;
+        Tile prev;
+        Tile next;
+
+        Tile(long key) {
+            this.key = key;
+        }
+    }
+
+    private static long tileKey(int row, int column) {
+        return ((long) (row >>> TILE_ROW_SHIFT) << 32) | (column >>> TILE_COLUMN_SHIFT);
+    }
+
+    private static int slot(int row, int column) {
+        return ((row & (TILE_ROWS - 1)) << TILE_COLUMN_SHIFT) | (column & (TILE_COLUMNS - 1));
+    }
+
+    /**
+     * @return the cell, {@link #EMPTY} if the position is known to be empty,
+     * or null if it is not cached.
+     */
+    AbstractCellAdv get(int row, int column) {
+        Tile tile = findTile(tileKey(row, column));
+        if (tile == null)
+            return null;
+        touch(tile);
+        return tile.cells[slot(row, column)];
+    }
+
+    boolean contains(int row, int column) {
+        Tile tile = findTile(tileKey(row, column));
+        return tile != null && tile.cells[slot(row, column)] != null;
+    }
+
+    /**
+     * @return true if every position of the region is cached, as a cell or empty.
+     */
+    boolean isLoaded(CellRegion region) {
+        for (int row = region.getRow(); row <= region.getLastRow(); row++) {
+            for (int column = region.getColumn(); column <= region.getLastColumn(); column++) {
+                Tile tile = findTile(tileKey(row, column));
+                if (tile == null || tile.cells[slot(row, column)] == null)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    void put(int row, int column, AbstractCellAdv cell) {
+        Tile tile = getOrCreateTile(tileKey(row, column));
+        set(tile, slot(row, column), cell);
+        evict(tile);
+    }
+
+    /**
+     * Mark the not yet loaded positions of the region as empty.
+     */
+    void putEmptyIfAbsent(CellRegion region) {
+        Tile last = null;
+        for (int row = region.getRow(); row <= region.getLastRow(); row++) {
+            for (int column = region.getColumn(); column <= region.getLastColumn(); column++) {
+                Tile tile = getOrCreateTile(tileKey(row, column));
+                int slot = slot(row, column);
+                if (tile.cells[slot] == null)
+                    tile.cells[slot] = EMPTY;
+                last = tile;
+            }
+        }
+        if (last != null)
+            evict(last);
+    }
+
+    /**
+     * Forget the cached state of the region, it is loaded again on next access.
+     */
+    void remove(CellRegion region) {
+        for (int row = region.getRow(); row <= region.getLastRow(); row++) {
+            for (int column = region.getColumn(); column <= region.getLastColumn(); column++) {
+                Tile tile = findTile(tileKey(row, column));
+                if (tile == null) {
+                    // skip the rest of this tile's row
+                    column |= TILE_COLUMNS - 1;
+                    continue;
+                }
+                set(tile, slot(row, column), null);
+            }
+        }
+    }
+
+    /**
+     * @return the cached cells of the rows, without the empty markers
+     */
+    List<AbstractCellAdv> getCells(int row, int lastRow) {
+        List<AbstractCellAdv> cells = new ArrayList<>();
+        for (Tile tile = head; tile != null; tile = tile.next) {
+            if (tile.cellCount == 0)
+                continue;
+            int firstRow = (int) (tile.key >>> 32) << TILE_ROW_SHIFT;
+            for (int slot = 0; slot < TILE_SIZE; slot++) {
+                AbstractCellAdv cell = tile.cells[slot];
+                int r = firstRow + (slot >>> TILE_COLUMN_SHIFT);
+                if (cell != null && cell != EMPTY && r >= row && r <= lastRow)
+                    cells.add(cell);
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Forget the cached state of the rows, visiting only the cached tiles.
+     */
+    void removeRows(int row, int lastRow) {
+        for (Tile tile = head; tile != null; ) {
+            Tile next = tile.next;
+            int firstRow = (int) (tile.key >>> 32) << TILE_ROW_SHIFT;
+            if (firstRow <= lastRow && firstRow + TILE_ROWS > row) {
+                for (int r = Math.max(row, firstRow); r <= Math.min(lastRow, firstRow + TILE_ROWS - 1); r++) {
+                    int base = (r - firstRow) << TILE_COLUMN_SHIFT;
+                    for (int slot = base; slot < base + TILE_COLUMNS; slot++)
+                        set(tile, slot, null);
+                }
+            }
+            tile = next;
+        }
+    }
+
+    /**
+     * Move the cached positions at or after {@code start} by {@code delta}
+     * rows, or columns, and shift their cells along. With a negative delta the
+     * positions in [start, start - delta) are dropped. Only the tiles from
+     * {@code start} on are visited; the rest of the cache stays untouched.
+     */
+    void shift(int start, int delta, boolean rows) {
+        if (delta == 0)
+            return;
+        int startTile = start >>> (rows ? TILE_ROW_SHIFT : TILE_COLUMN_SHIFT);
+        List<Tile> moved = new ArrayList<>();
+        for (Tile tile : tiles) {
+            if (tile != null && (rows ? (int) (tile.key >>> 32) : (int) tile.key) >= startTile)
+                moved.add(tile);
+        }
+        for (Tile tile : moved) {
+            unlink(tile);
+            removeTile(tile.key);
+            bytes -= TILE_BYTES + tile.cellCount * CELL_BYTES;
+        }
+        for (Tile tile : moved) {
+            int firstRow = (int) (tile.key >>> 32) << TILE_ROW_SHIFT;
+            int firstColumn = (int) tile.key << TILE_COLUMN_SHIFT;
+            for (int i = 0; i < TILE_SIZE; i++) {
+                AbstractCellAdv cell = tile.cells[i];
+                if (cell == null)
+                    continue;
+                int row = firstRow + (i >>> TILE_COLUMN_SHIFT);
+                int column = firstColumn + (i & (TILE_COLUMNS - 1));
+                int position = rows ? row : column;
+                if (position >= start) {
+                    if (position < start - delta)
+                        continue; // deleted
+                    if (cell != EMPTY)
+                        cell.shift(rows ? delta : 0, rows ? 0 : delta);
+                    if (rows)
+                        row += delta;
+                    else
+                        column += delta;
+                }
+                set(getOrCreateTile(tileKey(row, column)), slot(row, column), cell);
+            }
+        }
+        evict(head);
+    }
+
+    /**
+     * @return all cached cells, excluding empty markers.
+     */
+    Collection<AbstractCellAdv> values() {
+        Collection<AbstractCellAdv> values = new ArrayList<>();
+        for (Tile tile = head; tile != null; tile = tile.next) {
+            if (tile.cellCount == 0)
+                continue;
+            for (AbstractCellAdv cell : tile.cells) {
+                if (cell != null && cell != EMPTY)
+                    values.add(cell);
+            }
+        }
+        return values;
+    }
+
+    void clear() {
+        Arrays.fill(tiles, null);
+        tileCount = 0;
+        head = tail = null;
+        bytes = 0;
+    }
+
+    long getEstimatedBytes() {
+        return bytes;
+    }
+
+    int getTileCount() {
+        return tileCount;
+    }
+
+    private void set(Tile tile, int slot, AbstractCellAdv cell) {
+        AbstractCellAdv old = tile.cells[slot];
+        boolean wasCell = old != null && old != EMPTY;
+        boolean isCell = cell != null && cell != EMPTY;
+        if (wasCell != isCell) {
+            tile.cellCount += isCell ? 1 : -1;
+            bytes += isCell ? CELL_BYTES : -CELL_BYTES;
+        }
+        tile.cells[slot] = cell;
+    }
+
+    /* Evict least recently used tiles, never the one just used */
+    private void evict(Tile keep) {
+        while (bytes > maxBytes && tail != null && tail != keep) {
+            Tile victim = tail;
+            unlink(victim);
+            removeTile(victim.key);
+            bytes -= TILE_BYTES + victim.cellCount * CELL_BYTES;
+        }
+    }
+
+    private Tile getOrCreateTile(long key) {
+        Tile tile = findTile(key);
+        if (tile == null) {
+            tile = new Tile(key);
+            insertTile(tile);
+            bytes += TILE_BYTES;
+        }
+        touch(tile);
+        return tile;
+    }
+
+    private void touch(Tile tile) {
+        if (head == tile)
+            return;
+        unlink(tile);
+        tile.next = head;
+        if (head != null)
+            head.prev = tile;
+        head = tile;
+        if (tail == null)
+            tail = tile;
+    }
+
+    private void unlink(Tile tile) {
+        if (tile.prev != null)
+            tile.prev.next = tile.next;
+        else if (head == tile)
+            head = tile.next;
+        if (tile.next != null)
+            tile.next.prev = tile.prev;
+        else if (tail == tile)
+            tail = tile.prev;
+        tile.prev = tile.next = null;
+    }
+
+    /* Hash table */
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Tile findTile(long key) {
+        int mask = tiles.length - 1;
+        for (int i = hash(key) & mask; tiles[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return tiles[i];
+        }
+        return null;
+    }
+
+    private void insertTile(Tile tile) {
+        if ((tileCount + 1) * 2 > tiles.length)
+            rehash(tiles.length * 2);
+        int mask = tiles.length - 1;
+        int i = hash(tile.key) & mask;
+        while (tiles[i] != null)
+            i = (i + 1) & mask;
+        keys[i] = tile.key;
+        tiles[i] = tile;
+        tileCount++;
+    }
+
+    private void removeTile(long key) {
+        int mask = tiles.length - 1;
+        int i = hash(key) & mask;
+        while (tiles[i] != null && keys[i] != key)
+            i = (i + 1) & mask;
+        if (tiles[i] == null)
+            return;
+        tiles[i] = null;
+        tileCount--;
+        // shift back the following entries of the probe sequence
+        for (int j = (i + 1) & mask; tiles[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                tiles[i] = tiles[j];
+                tiles[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Tile[] oldTiles = tiles;
+        keys = new long[capacity];
+        tiles = new Tile[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldTiles.length; j++) {
+            if (oldTiles[j] == null)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (tiles[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            tiles[i] = oldTiles[j];
+        }
+    }
+}
@@ -71,7 +71,7 @@ public class DependencyTableImpl extends DependencyTableAdv {
 		return getDependents(precedent,_map);
 	}
 
-	private Set<Ref> getDependents(Ref precedent,Map<Ref, Set<Ref>> base) {
+	protected Set<Ref> getDependents(Ref precedent,Map<Ref, Set<Ref>> base) {
 		// ZSS-818
 		if (_regionTypes.contains(precedent.getType())) {
 			SBook book = _books.getBook(precedent.getBookName());
@@ -137,7 +137,7 @@ public class DependencyTableImpl extends DependencyTableAdv {
 		return result;
 	}
 
-	private boolean isMatched(Ref a, Ref b) {
+	protected boolean isMatched(Ref a, Ref b) {
 		if(_regionTypes.contains(a.getType()) && _regionTypes.contains(b.getType())) {
 			return isIntersected(a, b);
 		} else {
@@ -209,7 +209,7 @@ public class DependencyTableImpl extends DependencyTableAdv {
 		return false;
 	}
 
-	private int[] getSheetIndex(SBook book, Ref ref) {
+	protected int[] getSheetIndex(SBook book, Ref ref) {
 		String sn = ref.getSheetName();
 		String lsn = ref.getLastSheetName();
 		int a = book.getSheetIndex(sn);
@@ -0,0 +1,270 @@
+package org.zkoss.zss.model.impl.sys;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+
+import com.github.davidmoten.rtree.RTree;
+import com.github.davidmoten.rtree.geometry.Geometries;
+import com.github.davidmoten.rtree.geometry.Rectangle;
+import org.zkoss.zss.model.SBook;
+import org.zkoss.zss.model.sys.dependency.Ref;
+import org.zkoss.zss.model.sys.dependency.Ref.RefType;
+
+/**
+ * Dependency table that keeps precedent cell/area references of every sheet
+ * in an R-tree, so looking up the dependents of a changed cell only visits
+ * the precedents overlapping it instead of scanning every formula.
+ * <p>
+ * Precedents that cannot be placed on a single sheet's grid (books, sheets,
+ * 3D references, names, tables, ...) are kept aside and still matched
+ * linearly; there are usually only a few of them.
+ * <p>
+ * Enable with the library property
+ * <code>org.zkoss.zss.model.DependencyTable.class</code>.
+ */
+public class DependencyTableRTreeImpl extends DependencyTableImpl {
+	private static final long serialVersionUID = 1L;
+
+	/** Map<precedent, dependants>, reverse of {@link #_map} */
+	protected transient Map<Ref, Set<Ref>> _reverse;
+	/** Map<book name, Map<sheet name, R-tree of precedents>> */
+	protected transient Map<String, Map<String, RTree<Ref, Rectangle>>> _index;
+	/** precedents not stored in {@link #_index} */
+	protected transient Set<Ref> _unindexed;
+
+	public DependencyTableRTreeImpl() {
+		initIndex();
+	}
+
+	private void initIndex() {
+		_reverse = new HashMap<Ref, Set<Ref>>();
+		_index = new HashMap<String, Map<String, RTree<Ref, Rectangle>>>();
+		_unindexed = new LinkedHashSet<Ref>();
+	}
+
+	@Override
+	public void add(Ref dependant, Ref precedent) {
+		super.add(dependant, precedent);
+		Set<Ref> dependants = _reverse.get(precedent);
+		if (dependants == null) {
+			dependants = new LinkedHashSet<Ref>();
+			_reverse.put(precedent, dependants);
+			indexPrecedent(precedent);
+		}
+		dependants.add(dependant);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		initIndex();
+	}
+
+	@Override
+	public void clearDependents(Ref dependant) {
+		Set<Ref> precedents = _map.remove(dependant);
+		if (precedents == null) {
+			return;
+		}
+		for (Ref precedent : precedents) {
+			Set<Ref> dependants = _reverse.get(precedent);
+			if (dependants == null) {
+				continue;
+			}
+			dependants.remove(dependant);
+			if (dependants.isEmpty()) {
+				_reverse.remove(precedent);
+				unindexPrecedent(precedent);
+			}
+		}
+	}
+
+	@Override
+	public Set<Ref> getDependents(Ref precedent) {
+		RefType precedentType = precedent.getType();
+		// ZSS-581, a book or sheet also matches the dependants inside it
+		if (precedentType == RefType.BOOK || precedentType == RefType.SHEET) {
+			return super.getDependents(precedent);
+		}
+		// ZSS-818
+		if (_regionTypes.contains(precedentType)) {
+			SBook book = _books.getBook(precedent.getBookName());
+			if (book == null) { // no such book
+				return Collections.emptySet();
+			}
+			int[] aSheetIndexes = getSheetIndex(book, precedent);
+			if (aSheetIndexes[0] < 0) { // no such sheet
+				return Collections.emptySet();
+			}
+		}
+
+		// search dependents and their dependents breadth first
+		Set<Ref> result = new LinkedHashSet<Ref>();
+		Queue<Ref> queue = new LinkedList<Ref>();
+		queue.add(precedent);
+		while (!queue.isEmpty()) {
+			Ref p = queue.remove();
+			for (Ref target : collectDirectDependents(p)) {
+				if (result.add(target)) {
+					queue.add(target);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Ref> getDirectDependents(Ref precedent) {
+		RefType precedentType = precedent.getType();
+		if (precedentType == RefType.BOOK || precedentType == RefType.SHEET) {
+			return super.getDirectDependents(precedent);
+		}
+		return collectDirectDependents(precedent);
+	}
+
+	/**
+	 * Collects the dependants whose precedents match the given reference.
+	 */
+	private Set<Ref> collectDirectDependents(Ref p) {
+		Set<Ref> matched = new LinkedHashSet<Ref>();
+		if (isIndexable(p)) {
+			Map<String, RTree<Ref, Rectangle>> sheets = _index.get(p.getBookName());
+			RTree<Ref, Rectangle> tree = sheets == null ? null : sheets.get(p.getSheetName());
+			if (tree != null) {
+				for (com.github.davidmoten.rtree.Entry<Ref, Rectangle> entry : tree.search(toRectangle(p))
+						.toBlocking().toIterable()) {
+					Ref pre = entry.value();
+					if (isMatched(pre, p)) { // rectangles are float, verify exactly
+						matched.add(pre);
+					}
+				}
+			}
+			for (Ref pre : _unindexed) {
+				if (isMatched(pre, p)) {
+					matched.add(pre);
+				}
+			}
+		} else if (_regionTypes.contains(p.getType())) {
+			// 3D or table reference, may overlap anything
+			for (Ref pre : _reverse.keySet()) {
+				if (isMatched(pre, p)) {
+					matched.add(pre);
+				}
+			}
+		} else if (_reverse.containsKey(p)) {
+			// name, object, indirect are only matched by equality
+			matched.add(p);
+		}
+
+		if (matched.isEmpty()) {
+			return Collections.emptySet();
+		}
+		Set<Ref> dependants = new LinkedHashSet<Ref>();
+		for (Ref pre : matched) {
+			dependants.addAll(_reverse.get(pre));
+		}
+		return dependants;
+	}
+
+	private void indexPrecedent(Ref precedent) {
+		if (!isIndexable(precedent)) {
+			_unindexed.add(precedent);
+			return;
+		}
+		Map<String, RTree<Ref, Rectangle>> sheets = _index.get(precedent.getBookName());
+		if (sheets == null) {
+			sheets = new HashMap<String, RTree<Ref, Rectangle>>();
+			_index.put(precedent.getBookName(), sheets);
+		}
+		RTree<Ref, Rectangle> tree = sheets.get(precedent.getSheetName());
+		if (tree == null) {
+			tree = RTree.star().create();
+		}
+		sheets.put(precedent.getSheetName(), tree.add(precedent, toRectangle(precedent)));
+	}
+
+	private void unindexPrecedent(Ref precedent) {
+		if (!isIndexable(precedent)) {
+			_unindexed.remove(precedent);
+			return;
+		}
+		Map<String, RTree<Ref, Rectangle>> sheets = _index.get(precedent.getBookName());
+		RTree<Ref, Rectangle> tree = sheets == null ? null : sheets.get(precedent.getSheetName());
+		if (tree == null) {
+			return;
+		}
+		tree = tree.delete(precedent, toRectangle(precedent));
+		if (tree.isEmpty()) {
+			sheets.remove(precedent.getSheetName());
+		} else {
+			sheets.put(precedent.getSheetName(), tree);
+		}
+	}
+
+	/**
+	 * @return true if the reference is a cell or area on a single sheet.
+	 */
+	private static boolean isIndexable(Ref ref) {
+		RefType type = ref.getType();
+		if (type != RefType.CELL && type != RefType.AREA) {
+			return false;
+		}
+		String lsn = ref.getLastSheetName();
+		return ref.getSheetName() != null && (lsn == null || lsn.equals(ref.getSheetName()));
+	}
+
+	/**
+	 * Column is x and row is y. Bounds are widened when they can't be
+	 * represented exactly as float, so the rectangle always covers the area.
+	 */
+	private static Rectangle toRectangle(Ref ref) {
+		return Geometries.rectangle(floor(ref.getColumn()), floor(ref.getRow()), ceil(ref.getLastColumn()),
+				ceil(ref.getLastRow()));
+	}
+
+	private static float floor(int v) {
+		float f = v;
+		return (double) f > v ? Math.nextDown(f) : f;
+	}
+
+	private static float ceil(int v) {
+		float f = v;
+		return (double) f < v ? Math.nextUp(f) : f;
+	}
+
+	@Override
+	public void merge(DependencyTableAdv dependencyTable) {
+		if (!(dependencyTable instanceof DependencyTableImpl)) {
+			super.merge(dependencyTable);
+			return;
+		}
+		for (Entry<Ref, Set<Ref>> entry : ((DependencyTableImpl) dependencyTable)._map.entrySet()) {
+			// replace, as the linear table does
+			clearDependents(entry.getKey());
+			for (Ref precedent : entry.getValue()) {
+				add(entry.getKey(), precedent);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		initIndex();
+		Map<Ref, Set<Ref>> map = _map;
+		_map = new LinkedHashMap<Ref, Set<Ref>>();
+		for (Entry<Ref, Set<Ref>> entry : map.entrySet()) {
+			for (Ref precedent : entry.getValue()) {
+				add(entry.getKey(), precedent);
+			}
+		}
+	}
+}
@@ -11,6 +11,8 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
  */
 package org.zkoss.zss.model.impl.sys.formula;
 
+import java.util.Arrays;
+
 import org.zkoss.poi.ss.SpreadsheetVersion;
 import org.zkoss.poi.ss.formula.EvaluationCell;
 import org.zkoss.poi.ss.formula.EvaluationName;
@@ -42,14 +44,17 @@ public final class EvalBook implements EvaluationWorkbook, FormulaParsingWorkboo
 
 	private SBook _nbook;
 	private IndexedUDFFinder _udfFinder = new IndexedUDFFinder(UDFFinder.DEFAULT);
-	private ParsingBook _parsingBook; // create new one when parsing new formula
+	private final ParsingBook _parsingBook; // its name and sheet indexes are kept by the book
+	private final Object _cellLock; // see EvalSheet
+	private volatile EvalSheet[] _sheets = new EvalSheet[0]; // by sheet index, checked against the book
 
 	public EvalBook(SBook book) {
-		this._nbook = book;
-		createParsingBook(); // just in case
+		this(book, null);
 	}
 
-	private void createParsingBook() {
+	/*package*/ EvalBook(SBook book, Object cellLock) {
+		this._nbook = book;
+		this._cellLock = cellLock;
 		this._parsingBook = new ParsingBook(_nbook);
 	}
 
@@ -64,13 +69,9 @@ public final class EvalBook implements EvaluationWorkbook, FormulaParsingWorkboo
 	}
 
 	public Ptg[] getFormulaTokens(int sheetIndex, String formula) {
-		//20140731, henrichen: multi-thread accessing could cause thread-B to
-		// reset _parsingBook(createParsingBook()) while thread-A is doing 
-		// parse(...). So we have to synchronize this 
-		synchronized(this) {
-			createParsingBook(); // create new parsing book before parsing formula
-			return FormulaParser.parse(formula, _parsingBook, FormulaType.CELL, sheetIndex);
-		}
+		// the parsing book only wraps the indexes of the book, which are synchronized,
+		// so it is shared by all parses instead of created for each
+		return FormulaParser.parse(formula, _parsingBook, FormulaType.CELL, sheetIndex);
 	}
 
 	public EvaluationName getName(String name, int sheetIndex) {
@@ -131,14 +132,37 @@ public final class EvalBook implements EvaluationWorkbook, FormulaParsingWorkboo
 
 	public EvaluationSheet getSheet(int sheetIndex) {
 		SSheet sheet = _nbook.getSheet(sheetIndex);
-		return sheet != null ? new EvalSheet(sheet) : null;
+		if(sheet == null) {
+			return null;
+		}
+		// reuse the sheet read last at this index, unless sheets were added, moved or deleted
+		EvalSheet[] sheets = _sheets;
+		EvalSheet evalSheet = sheetIndex < sheets.length ? sheets[sheetIndex] : null;
+		if(evalSheet == null || evalSheet.getNSheet() != sheet) {
+			evalSheet = new EvalSheet(sheet, _cellLock);
+			evalSheet.setCachedSheetIndex(sheetIndex);
+			if(sheetIndex >= sheets.length) {
+				sheets = Arrays.copyOf(sheets, _nbook.getNumOfSheet());
+			} else {
+				sheets = sheets.clone();
+			}
+			sheets[sheetIndex] = evalSheet;
+			_sheets = sheets;
+		}
+		return evalSheet;
 	}
 
 	public int getSheetIndex(EvaluationSheet evalSheet) {
 		// return sheet index (not external sheet index)
 		if(evalSheet instanceof EvalSheet) {
-			SSheet sheet = ((EvalSheet)evalSheet).getNSheet();
-			return _nbook.getSheetIndex(sheet);
+			EvalSheet es = (EvalSheet) evalSheet;
+			SSheet sheet = es.getNSheet();
+			int index = es.getCachedSheetIndex();
+			if(index < 0 || index >= _nbook.getNumOfSheet() || _nbook.getSheet(index) != sheet) {
+				index = _nbook.getSheetIndex(sheet);
+				es.setCachedSheetIndex(index);
+			}
+			return index;
 		}
 		return -1;
 	}
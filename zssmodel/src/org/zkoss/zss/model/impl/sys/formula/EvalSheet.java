@@ -11,17 +11,29 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
  */
 package org.zkoss.zss.model.impl.sys.formula;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.zkoss.lang.Library;
+import org.zkoss.poi.ss.formula.AreaAggregate;
+import org.zkoss.poi.ss.formula.ColumnarArea;
+import org.zkoss.poi.ss.formula.ColumnarEvaluationSheet;
 import org.zkoss.poi.ss.formula.EvaluationCell;
 import org.zkoss.poi.ss.formula.EvaluationSheet;
 import org.zkoss.poi.ss.usermodel.Cell;
 import org.zkoss.poi.ss.usermodel.FormulaError;
+import org.zkoss.zss.model.CellRegion;
 import org.zkoss.zss.model.ErrorValue;
-import org.zkoss.zss.model.SBook;
+import org.zkoss.zss.model.InvalidModelOpException;
 import org.zkoss.zss.model.SCell;
 import org.zkoss.zss.model.SCell.CellType;
+import org.zkoss.zss.model.SRichText;
 import org.zkoss.zss.model.SSheet;
 import org.zkoss.zss.model.impl.AbstractCellAdv;
 import org.zkoss.zss.model.impl.AbstractSheetAdv;
+import org.zkoss.zss.model.impl.Model;
 import org.zkoss.zss.model.sys.formula.FormulaExpression;
 
 /**
@@ -29,38 +41,196 @@ import org.zkoss.zss.model.sys.formula.FormulaExpression;
  * @author Pao
  * @since 3.5.0
  */
-public class EvalSheet implements EvaluationSheet {
+public class EvalSheet implements ColumnarEvaluationSheet {
+
+	//areas of a database backed sheet with as many cells are read at once, or aggregated, by its model
+	private static final int COLUMNAR_AREA_CELLS = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.formula.columnarAreaCells", "10000"));
+	//rows read from the model at once
+	private static final int COLUMNAR_PAGE_ROWS = 50000;
 
-	private SSheet _sheet;
+	private final SSheet _sheet;
+	//not null when evaluating in parallel, see RecalcScheduler
+	private final Object _cellLock;
+	//the last known index of the sheet in its book, see EvalBook#getSheetIndex()
+	private int _sheetIndex = -1;
 
 	public EvalSheet(SSheet sheet) {
+		this(sheet, null);
+	}
+
+	/**
+	 * A sheet for one of concurrent evaluators. Cells are read under the lock
+	 * and their values are copied; a formula cell whose result is cached reads
+	 * as its result, instead of being evaluated again.
+	 */
+	/*package*/ EvalSheet(SSheet sheet, Object cellLock) {
 		this._sheet = sheet;
+		this._cellLock = cellLock;
 	}
 	
 	public SSheet getNSheet() {
 		return _sheet;
 	}
 
+	/*package*/ int getCachedSheetIndex() {
+		return _sheetIndex;
+	}
+
+	/*package*/ void setCachedSheetIndex(int sheetIndex) {
+		_sheetIndex = sheetIndex;
+	}
+
 	public EvaluationCell getCell(int rowIndex, int columnIndex) {
+		if(_cellLock != null) {
+			synchronized(_cellLock) {
+				SCell cell = _sheet.getCell(rowIndex, columnIndex);
+				return cell != null ? new EvalCell(cell, true) : null;
+			}
+		}
 		SCell cell = _sheet.getCell(rowIndex, columnIndex);
 		return cell != null ? new EvalCell(cell) : null;
 	}
 
+	/**
+	 * Reads the cells of a large area of a database backed sheet from its
+	 * model, a column at a time, without loading them in the sheet.
+	 */
+	@Override
+	public ColumnarArea getColumnarArea(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		if((long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) < COLUMNAR_AREA_CELLS
+				|| _sheet.getDataModel() == null || !_sheet.getBook().hasSchema()) {
+			return null;
+		}
+		if(_cellLock != null) {
+			synchronized(_cellLock) {
+				return readColumnarArea(firstRow, firstColumn, lastRow, lastColumn);
+			}
+		}
+		return readColumnarArea(firstRow, firstColumn, lastRow, lastColumn);
+	}
+
+	/**
+	 * Aggregates a large area of a database backed sheet in its model.
+	 */
+	@Override
+	public AreaAggregate getAreaAggregate(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		if((long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1) < COLUMNAR_AREA_CELLS
+				|| _sheet.getDataModel() == null || !_sheet.getBook().hasSchema()) {
+			return null;
+		}
+		if(_cellLock != null) {
+			synchronized(_cellLock) {
+				return readAreaAggregate(new CellRegion(firstRow, firstColumn, lastRow, lastColumn));
+			}
+		}
+		return readAreaAggregate(new CellRegion(firstRow, firstColumn, lastRow, lastColumn));
+	}
+
+	private AreaAggregate readAreaAggregate(CellRegion region) {
+		//aggregate our own buffered writes too
+		((AbstractSheetAdv) _sheet).flushDirtyCells();
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			AreaAggregate aggregate = _sheet.getDataModel().getAggregate(new DBContext(connection), region);
+			connection.commit();
+			return aggregate;
+		} catch(SQLException e) {
+			throw new InvalidModelOpException("Cannot aggregate " + region.getReferenceString()
+					+ " of " + _sheet.getSheetName(), e);
+		}
+	}
+
+	private ColumnarArea readColumnarArea(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+		Model dataModel = _sheet.getDataModel();
+		//read our own buffered writes
+		((AbstractSheetAdv) _sheet).flushDirtyCells();
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			DBContext context = new DBContext(connection);
+			CellRegion bounds = dataModel.getBounds(context);
+			ColumnarArea area = new ColumnarArea(firstRow, firstColumn, lastRow, lastColumn,
+					bounds == null ? -1 : bounds.getLastRow());
+			if(bounds != null) {
+				int lastDataRow = Math.min(lastRow, bounds.getLastRow());
+				int lastDataColumn = Math.min(lastColumn, bounds.getLastColumn());
+				for(int c = firstColumn; c <= lastDataColumn; c++) {
+					for(int r = firstRow; r <= lastDataRow; r += COLUMNAR_PAGE_ROWS) {
+						CellRegion page = new CellRegion(r, c, Math.min(lastDataRow, r + COLUMNAR_PAGE_ROWS - 1), c);
+						for(AbstractCellAdv cell : dataModel.getCells(context, page)) {
+							setColumnarValue(area, cell);
+						}
+					}
+				}
+			}
+			connection.commit();
+			return area;
+		} catch(SQLException e) {
+			throw new InvalidModelOpException("Cannot read " + new CellRegion(firstRow, firstColumn, lastRow, lastColumn)
+					.getReferenceString() + " of " + _sheet.getSheetName(), e);
+		}
+	}
+
+	private static void setColumnarValue(ColumnarArea area, AbstractCellAdv cell) {
+		int row = cell.getRowIndex();
+		int column = cell.getColumnIndex();
+		switch(cell.getType()) {
+			case NUMBER:
+				area.setNumber(row, column, cell.getNumberValue().doubleValue());
+				break;
+			case STRING:
+				area.setString(row, column, cell.getStringValue());
+				break;
+			case BOOLEAN:
+				area.setBoolean(row, column, cell.getBooleanValue());
+				break;
+			case ERROR:
+				area.setError(row, column, toErrorCode(cell.getErrorValue()));
+				break;
+			case FORMULA:
+				area.setFormula(row, column);
+				break;
+			default:
+				//blank
+		}
+	}
+
+	private static int toErrorCode(ErrorValue errorValue) {
+		switch(errorValue.getCode()) {
+			case ErrorValue.INVALID_FORMULA:
+				return FormulaError.NA.getCode(); //TODO zss 3.5 this value is not in zpoi
+			default:
+				return errorValue.getCode();
+		}
+	}
+
 	/*package*/ class EvalCell implements EvaluationCell {
 
-		private SCell cell;
-		private Key key;
+		private final SCell cell;
+		//the row and column when read, in a long; the cell is its own identity key
+		private final long position;
+		//copied type and value, null if read from the cell
+		private CellType type;
+		private Object value;
 
 		public EvalCell(SCell cell) {
+			this(cell, false);
+		}
+
+		private EvalCell(SCell cell, boolean copy) {
 			this.cell = cell;
-			SSheet sheet = cell.getSheet();
-			SBook book = sheet.getBook();
-			int sheetIndex = book.getSheetIndex(sheet);
-			key = new Key(book.getBookName(), sheetIndex, cell.getRowIndex(), cell.getColumnIndex());
+			position = ((long) cell.getRowIndex() << 32) | (cell.getColumnIndex() & 0xFFFFFFFFL);
+			if(copy) {
+				if(((AbstractCellAdv) cell).hasFormulaResultCache()) {
+					type = cell.getFormulaResultType();
+					value = cell.getValue();
+				} else {
+					type = cell.getType();
+					value = type == CellType.FORMULA ? null : cell.getValue();
+				}
+			}
 		}
 
 		public Object getIdentityKey() {
-			return key;
+			return this;
 		}
 
 		public EvaluationSheet getSheet() {
@@ -76,7 +246,7 @@ public class EvalSheet implements EvaluationSheet {
 		}
 
 		public int getCellType() {
-			switch(cell.getType()) {
+			switch(type != null ? type : cell.getType()) {
 				case BLANK:
 					return Cell.CELL_TYPE_BLANK;
 				case BOOLEAN:
@@ -95,10 +265,17 @@ public class EvalSheet implements EvaluationSheet {
 		}
 
 		public double getNumericCellValue() {
+			if(type != null) {
+				return value instanceof Number ? ((Number) value).doubleValue() : 0;
+			}
 			return cell.getNumberValue().doubleValue();
 		}
 
 		public String getStringCellValue() {
+			if(type != null && type != CellType.FORMULA) {
+				return type != CellType.STRING ? null
+						: value instanceof SRichText ? ((SRichText) value).getText() : (String) value;
+			}
 			if(cell.getType() == CellType.FORMULA) {
 				return cell.getFormulaValue();
 			} else if(cell.getType() == CellType.STRING) {
@@ -109,17 +286,14 @@ public class EvalSheet implements EvaluationSheet {
 		}
 
 		public boolean getBooleanCellValue() {
+			if(type != null) {
+				return Boolean.TRUE.equals(value);
+			}
 			return cell.getBooleanValue();
 		}
 
 		public int getErrorCellValue() {
-			ErrorValue errorValue = cell.getErrorValue();
-			switch(errorValue.getCode()) {
-				case ErrorValue.INVALID_FORMULA:
-					return FormulaError.NA.getCode(); //TODO zss 3.5 this value is not in zpoi
-				default:
-					return errorValue.getCode();
-			}
+			return toErrorCode(type != null ? (ErrorValue) value : cell.getErrorValue());
 		}
 
 		public int getCachedFormulaResultType() {
@@ -131,20 +305,25 @@ public class EvalSheet implements EvaluationSheet {
 			return getRowIndex() + ":" + getColumnIndex() + " " + getStringCellValue();
 		}
 
+		//the same cell of the same sheet, whichever sheet adapter read it
 		@Override
 		public int hashCode() {
-			return key.hashCode();
+			long h = position * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32)) ^ _sheet.hashCode();
 		}
 
 		@Override
 		public boolean equals(Object obj) {
 			if(this == obj)
 				return true;
-			if(obj == null)
-				return false;
-			if(!(obj instanceof EvaluationCell))
+			if(!(obj instanceof EvalCell))
 				return false;
-			return key.equals(((EvaluationCell)obj).getIdentityKey());
+			EvalCell other = (EvalCell) obj;
+			return position == other.position && _sheet == other.getNSheet();
+		}
+
+		private SSheet getNSheet() {
+			return _sheet;
 		}
 		
 		//ZSS-759
@@ -154,49 +333,6 @@ public class EvalSheet implements EvaluationSheet {
         }
 	}
 
-	private static class Key {
-		public String bookName; //ZSS-910
-		public int sheet;
-		public int row;
-		public int column;
-
-		public Key(String bookName, int sheet, int row, int column) {
-			this.bookName = bookName; //ZSS-910
-			this.sheet = sheet;
-			this.row = row;
-			this.column = column;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = bookName == null ? 1 : bookName.hashCode(); //ZSS-910
-			result = prime * result + column;
-			result = prime * result + row;
-			result = prime * result + sheet;
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if(this == obj)
-				return true;
-			if(obj == null)
-				return false;
-			if(getClass() != obj.getClass())
-				return false;
-			Key other = (Key)obj;
-			if(bookName != other.bookName || (bookName != null && !bookName.equals(other.bookName))) //ZSS-910
-				return false;
-			if(column != other.column)
-				return false;
-			if(row != other.row)
-				return false;
-            return sheet == other.sheet;
-        }
-
-	}
-
 	//ZSS-596 Possible memory leak when formula evaluation
 	//implement hashCode and equals, use identity to implement equals
 	@Override
@@ -602,6 +602,31 @@ public class FormulaEngineImpl implements FormulaEngine {
 				EvaluationCell evalCell = evalSheet.getCell(cell.getRowIndex(), cell.getColumnIndex());
 				WorkbookEvaluator evaluator = ctx.getEvaluator();
 				evaluator.notifyUpdateCell(evalCell);
+			} else if(sheet != null && context.getRegion() != null) {
+				// cells of the region moved, only clear them and their dependents
+				EvalContext ctx = map.get(book.getBookName());
+				if(ctx == null) {
+					return;
+				}
+				int sheetIndex = ctx.getBook().getSheetIndex(sheet.getSheetName());
+				if(sheetIndex < 0) {
+					return;
+				}
+				CellRegion region = context.getRegion();
+				if(context.isValuesOnly()) {
+					// values changed, their dependents are cleared one by one
+					ctx.getEvaluator().notifyUpdateValues(sheetIndex, region.getRow(), region.getColumn(),
+							region.getLastRow(), region.getLastColumn());
+					return;
+				}
+				ctx.getEvaluator().notifyUpdateRegion(sheetIndex, region.getRow(), region.getColumn(),
+						region.getLastRow(), region.getLastColumn());
+			} else if(sheet == null && !context.isSheetsMoved()) {
+				// sheet indexes are unchanged, keep the results; the dependents of the
+				// sheet are cleared by their precedent update
+				for(EvalContext ctx : map.values()) {
+					ctx.getEvaluator().clearSheetIndexCache();
+				}
 			} else {
 				// no cell indicates clearing all cache
 				bookSeries.setAttribute(KEY_EVALUATORS, null);
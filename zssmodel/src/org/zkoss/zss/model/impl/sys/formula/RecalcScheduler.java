@@ -0,0 +1,361 @@
+package org.zkoss.zss.model.impl.sys.formula;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.zkoss.lang.Library;
+import org.zkoss.poi.ss.formula.EvaluationCell;
+import org.zkoss.poi.ss.formula.WorkbookEvaluator;
+import org.zkoss.poi.ss.formula.eval.ValueEval;
+import org.zkoss.poi.ss.formula.udf.UDFFinder;
+import org.zkoss.poi.ss.usermodel.ZssContext;
+import org.zkoss.poi.xssf.model.IndexedUDFFinder;
+import org.zkoss.util.logging.Log;
+import org.zkoss.zss.model.SBook;
+import org.zkoss.zss.model.SBookSeries;
+import org.zkoss.zss.model.SCell;
+import org.zkoss.zss.model.SCell.CellType;
+import org.zkoss.zss.model.SSheet;
+import org.zkoss.zss.model.impl.AbstractBookSeriesAdv;
+import org.zkoss.zss.model.impl.AbstractCellAdv;
+import org.zkoss.zss.model.impl.RefImpl;
+import org.zkoss.zss.model.impl.sys.DependencyTableAdv;
+import org.zkoss.zss.model.sys.dependency.Ref;
+import org.zkoss.zss.model.sys.dependency.Ref.RefType;
+import org.zkoss.zss.model.sys.formula.FormulaExpression;
+import org.zkoss.zss.model.sys.formula.FunctionResolver;
+import org.zkoss.zss.model.sys.formula.FunctionResolverFactory;
+
+/**
+ * Evaluates a set of formula cells at once, e.g. the dependents of an update,
+ * instead of one by one as they are read.
+ * <p>
+ * The cells are leveled by their precedents in the dependency table: a cell
+ * only reads cells of lower levels. The cells of a level are evaluated in
+ * parallel on a {@link ForkJoinPool}, each worker with its own
+ * {@link WorkbookEvaluator}, reading the cells already evaluated as their
+ * result. Results are pushed back through
+ * {@link AbstractCellAdv#setFormulaResultValue}. The sheet model is not thread
+ * safe, workers read cells under a lock; the evaluation itself runs unlocked.
+ * <p>
+ * Small levels, cells reading other books or resolving references while
+ * evaluated (INDIRECT, tables), cells failing in a worker and cells in a
+ * cycle are evaluated on the calling thread as before.
+ */
+public class RecalcScheduler {
+	private static final Log _logger = Log.lookup(RecalcScheduler.class.getName());
+
+	/** Levels with fewer cells to evaluate in parallel are evaluated on the calling thread */
+	static final int PARALLEL_THRESHOLD = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.formula.recalc.parallelThreshold", "64"));
+	/** Number of worker threads */
+	static final int PARALLELISM = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.formula.recalc.parallelism",
+					String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+	private static ForkJoinPool pool;
+
+	private final SBookSeries _bookSeries;
+	private final DependencyTableAdv _table;
+	private final Object _cellLock = new Object();
+	private final Queue<Worker> _workers = new ConcurrentLinkedQueue<Worker>();
+	private final ZssContext _context = ZssContext.getThreadLocal();
+
+	public RecalcScheduler(SBookSeries bookSeries) {
+		_bookSeries = bookSeries;
+		_table = (DependencyTableAdv) ((AbstractBookSeriesAdv) bookSeries).getDependencyTable();
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(PARALLELISM);
+		}
+		return pool;
+	}
+
+	/**
+	 * Evaluate the formula cells of the cell references whose result is not
+	 * cached. Other references are ignored.
+	 */
+	public void recalculate(Collection<Ref> refs) {
+		long start = System.currentTimeMillis();
+		List<Node> nodes = collect(refs);
+		if (nodes.isEmpty()) {
+			return;
+		}
+		List<Node> level = link(nodes);
+		int levels = 0;
+		while (!level.isEmpty()) {
+			evaluate(level);
+			levels++;
+			List<Node> next = new ArrayList<Node>();
+			for (Node node : level) {
+				for (Node dependent : node.dependents) {
+					if (--dependent.pending == 0) {
+						next.add(dependent);
+					}
+				}
+			}
+			level = next;
+		}
+		// left in a cycle
+		for (Node node : nodes) {
+			if (node.pending > 0) {
+				node.cell.getValue();
+			}
+		}
+		if (_logger.debugable()) {
+			_logger.debug("Recalculated " + nodes.size() + " cells in " + levels + " levels in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/* The formula cells to evaluate, by sheet and position */
+	private final Map<String, SheetNodes> _sheets = new HashMap<String, SheetNodes>();
+
+	private List<Node> collect(Collection<Ref> refs) {
+		List<Node> nodes = new ArrayList<Node>();
+		for (Ref ref : refs) {
+			if (ref.getType() != RefType.CELL) {
+				continue;
+			}
+			SBook book = _bookSeries.getBook(ref.getBookName());
+			SSheet sheet = book == null ? null : book.getSheetByName(ref.getSheetName());
+			if (sheet == null) {
+				continue;
+			}
+			SCell cell = sheet.getCell(ref.getRow(), ref.getColumn());
+			if (cell.getType() != CellType.FORMULA || ((AbstractCellAdv) cell).hasFormulaResultCache()) {
+				continue;
+			}
+			SheetNodes sheetNodes = getSheetNodes(ref.getBookName(), ref.getSheetName(), true);
+			long key = key(ref.getRow(), ref.getColumn());
+			if (!sheetNodes.byPosition.containsKey(key)) {
+				Node node = new Node((AbstractCellAdv) cell);
+				sheetNodes.add(key, node);
+				nodes.add(node);
+			}
+		}
+		return nodes;
+	}
+
+	/*
+	 * Link every cell to the cells to evaluate it reads, and decide whether it
+	 * can be evaluated by a worker. Returns the cells reading none of them.
+	 */
+	private List<Node> link(List<Node> nodes) {
+		List<Node> first = new ArrayList<Node>();
+		for (Node node : nodes) {
+			SSheet sheet = node.cell.getSheet();
+			String bookName = sheet.getBook().getBookName();
+			FormulaExpression expr = (FormulaExpression) node.cell.getValue(false);
+			node.parallel = !expr.hasError() && !expr.isMultipleAreaFormula();
+			Set<Ref> precedents = _table.getDirectPrecedents(new RefImpl(node.cell));
+			if (precedents == null) { // references nothing, e.g. =PI()
+				precedents = Collections.emptySet();
+			}
+			for (Ref precedent : precedents) {
+				RefType type = precedent.getType();
+				if ((type != RefType.CELL && type != RefType.AREA) || !bookName.equals(precedent.getBookName())
+						|| (precedent.getLastSheetName() != null
+								&& !precedent.getLastSheetName().equals(precedent.getSheetName()))) {
+					node.parallel = false;
+				}
+				if (type != RefType.CELL && type != RefType.AREA) {
+					continue;
+				}
+				SheetNodes sheetNodes = getSheetNodes(precedent.getBookName(), precedent.getSheetName(), false);
+				if (sheetNodes == null) {
+					continue;
+				}
+				for (Node read : sheetNodes.in(precedent.getRow(), precedent.getColumn(),
+						precedent.getLastRow(), precedent.getLastColumn())) {
+					if (read != node) {
+						read.dependents.add(node);
+						node.pending++;
+					}
+				}
+			}
+			if (node.pending == 0) {
+				first.add(node);
+			}
+		}
+		return first;
+	}
+
+	private void evaluate(List<Node> level) {
+		List<Node> parallel = new ArrayList<Node>(level.size());
+		List<Node> sequential = new ArrayList<Node>();
+		for (Node node : level) {
+			(node.parallel ? parallel : sequential).add(node);
+		}
+		if (parallel.size() < PARALLEL_THRESHOLD || PARALLELISM < 2) {
+			sequential.addAll(parallel);
+		} else {
+			sequential.addAll(evaluateInParallel(parallel));
+		}
+		for (Node node : sequential) {
+			node.cell.getValue();
+		}
+	}
+
+	/* Returns the cells that failed in a worker */
+	private List<Node> evaluateInParallel(List<Node> nodes) {
+		// more chunks than workers to even their load
+		int chunkSize = Math.max(PARALLEL_THRESHOLD / 4, (nodes.size() + PARALLELISM * 4 - 1) / (PARALLELISM * 4));
+		List<Callable<List<Node>>> tasks = new ArrayList<Callable<List<Node>>>();
+		for (int i = 0; i < nodes.size(); i += chunkSize) {
+			final List<Node> chunk = nodes.subList(i, Math.min(nodes.size(), i + chunkSize));
+			tasks.add(new Callable<List<Node>>() {
+				@Override
+				public List<Node> call() {
+					Worker worker = _workers.poll();
+					if (worker == null) {
+						worker = new Worker();
+					}
+					ZssContext old = ZssContext.setThreadLocal(_context);
+					try {
+						List<Node> failed = new ArrayList<Node>();
+						for (Node node : chunk) {
+							if (!worker.evaluate(node)) {
+								failed.add(node);
+							}
+						}
+						return failed;
+					} finally {
+						ZssContext.setThreadLocal(old);
+						_workers.add(worker);
+					}
+				}
+			});
+		}
+		List<Node> failed = new ArrayList<Node>();
+		for (Future<List<Node>> future : getPool().invokeAll(tasks)) {
+			try {
+				failed.addAll(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return failed;
+	}
+
+	private SheetNodes getSheetNodes(String bookName, String sheetName, boolean create) {
+		String key = bookName + '!' + sheetName;
+		SheetNodes sheetNodes = _sheets.get(key);
+		if (sheetNodes == null && create) {
+			sheetNodes = new SheetNodes();
+			_sheets.put(key, sheetNodes);
+		}
+		return sheetNodes;
+	}
+
+	private static long key(int row, int column) {
+		return ((long) row << 32) | (column & 0xFFFFFFFFL);
+	}
+
+	private static class Node {
+		final AbstractCellAdv cell;
+		final List<Node> dependents = new ArrayList<Node>(2);
+		// cells to evaluate this cell reads and are not evaluated yet
+		int pending;
+		boolean parallel;
+
+		Node(AbstractCellAdv cell) {
+			this.cell = cell;
+		}
+	}
+
+	private static class SheetNodes {
+		final Map<Long, Node> byPosition = new HashMap<Long, Node>();
+		final TreeMap<Integer, List<Node>> byRow = new TreeMap<Integer, List<Node>>();
+
+		void add(long key, Node node) {
+			byPosition.put(key, node);
+			List<Node> row = byRow.get(node.cell.getRowIndex());
+			if (row == null) {
+				row = new ArrayList<Node>(1);
+				byRow.put(node.cell.getRowIndex(), row);
+			}
+			row.add(node);
+		}
+
+		List<Node> in(int row, int column, int lastRow, int lastColumn) {
+			if (row == lastRow && column == lastColumn) {
+				Node node = byPosition.get(key(row, column));
+				return node == null ? Collections.<Node>emptyList() : Collections.singletonList(node);
+			}
+			List<Node> nodes = new ArrayList<Node>();
+			for (List<Node> rowNodes : byRow.subMap(row, true, lastRow, true).values()) {
+				for (Node node : rowNodes) {
+					int c = node.cell.getColumnIndex();
+					if (c >= column && c <= lastColumn) {
+						nodes.add(node);
+					}
+				}
+			}
+			return nodes;
+		}
+	}
+
+	/* The evaluators of one worker thread at a time */
+	private class Worker {
+		private final Map<String, EvalBook> _books = new HashMap<String, EvalBook>();
+		private final Map<String, WorkbookEvaluator> _evaluators = new HashMap<String, WorkbookEvaluator>();
+
+		boolean evaluate(Node node) {
+			try {
+				SSheet sheet = node.cell.getSheet();
+				SBook book = sheet.getBook();
+				EvalBook evalBook = _books.get(book.getBookName());
+				if (evalBook == null) {
+					evalBook = createEvaluator(book);
+				}
+				WorkbookEvaluator evaluator = _evaluators.get(book.getBookName());
+				EvaluationCell evalCell = evalBook.getSheet(book.getSheetIndex(sheet))
+						.getCell(node.cell.getRowIndex(), node.cell.getColumnIndex());
+				ValueEval value = evaluator.evaluate(evalCell, null);
+				synchronized (_cellLock) {
+					if (!node.cell.hasFormulaResultCache()) {
+						node.cell.setFormulaResultValue(value);
+					}
+				}
+				return true;
+			} catch (RuntimeException e) {
+				_logger.debug(e.getMessage() + " when evaluating " + node.cell.getReferenceString() + " in parallel");
+				return false;
+			}
+		}
+
+		private EvalBook createEvaluator(SBook book) {
+			EvalBook evalBook = new EvalBook(book, _cellLock);
+			// formula cells evaluated on the way keep their result too, as in FormulaEngineImpl
+			WorkbookEvaluator evaluator = new WorkbookEvaluator(evalBook, FormulaEngineImpl.noCacheClassifier, null,
+					new WorkbookEvaluator.CacheManager() {
+						@Override
+						public void onUpdateCacheResult(EvaluationCell srcCell, ValueEval result) {
+							SSheet sheet = ((EvalSheet) srcCell.getSheet()).getNSheet();
+							synchronized (_cellLock) {
+								SCell cell = sheet.getCell(srcCell.getRowIndex(), srcCell.getColumnIndex());
+								((AbstractCellAdv) cell).setFormulaResultValue(result);
+							}
+						}
+					});
+			FunctionResolver resolver = FunctionResolverFactory.createFunctionResolver();
+			UDFFinder zkUDFF = resolver.getUDFFinder();
+			if (zkUDFF != null) {
+				((IndexedUDFFinder) evalBook.getUDFFinder()).insert(0, zkUDFF);
+			}
+			_books.put(book.getBookName(), evalBook);
+			_evaluators.put(book.getBookName(), evaluator);
+			return evalBook;
+		}
+	}
+}
@@ -16,6 +16,7 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
  */
 package org.zkoss.zss.model.sys.formula;
 
+import org.zkoss.zss.model.CellRegion;
 import org.zkoss.zss.model.SBook;
 import org.zkoss.zss.model.SCell;
 import org.zkoss.zss.model.SSheet;
@@ -32,23 +33,63 @@ public class FormulaClearContext extends AbstractContext {
 	private final SBook _book;
 	private final SSheet _sheet;
 	private final SCell _cell;
+	private final CellRegion _region;
+	private final boolean _sheetsMoved;
+	private final boolean _valuesOnly;
 
 	public FormulaClearContext(SCell cell) {
-		this(cell.getSheet().getBook(), cell.getSheet(), cell);
+		this(cell.getSheet().getBook(), cell.getSheet(), cell, null);
 	}
 
 	public FormulaClearContext(SSheet sheet) {
-		this(sheet.getBook(), sheet, null);
+		this(sheet.getBook(), sheet, null, null);
+	}
+
+	/**
+	 * Clears only the cached results of the region and what depends on it.
+	 */
+	public FormulaClearContext(SSheet sheet, CellRegion region) {
+		this(sheet.getBook(), sheet, null, region);
+	}
+
+	/**
+	 * Drops only what was read at once from the values of the region, e.g. the
+	 * lookup indexes, after its values changed. Cached results are cleared by
+	 * their dependents.
+	 */
+	public FormulaClearContext(SSheet sheet, CellRegion region, boolean valuesOnly) {
+		this(sheet.getBook(), sheet, null, region, true, valuesOnly);
 	}
 
 	public FormulaClearContext(SBook book) {
-		this(book, null, null);
+		this(book, null, null, null, true);
+	}
+
+	/**
+	 * Clears the cache of a book after its sheets changed. If no sheet changed its
+	 * index, e.g. a sheet is appended or renamed, cached results are kept and only
+	 * the lookups of sheets by name are reset.
+	 */
+	public FormulaClearContext(SBook book, boolean sheetsMoved) {
+		this(book, null, null, null, sheetsMoved);
+	}
+
+	private FormulaClearContext(SBook book, SSheet sheet, SCell cell, CellRegion region) {
+		this(book, sheet, cell, region, true);
 	}
 
-	private FormulaClearContext(SBook book, SSheet sheet, SCell cell) {
+	private FormulaClearContext(SBook book, SSheet sheet, SCell cell, CellRegion region, boolean sheetsMoved) {
+		this(book, sheet, cell, region, sheetsMoved, false);
+	}
+
+	private FormulaClearContext(SBook book, SSheet sheet, SCell cell, CellRegion region, boolean sheetsMoved,
+			boolean valuesOnly) {
 		this._book = book;
 		this._sheet = sheet;
 		this._cell = cell;
+		this._region = region;
+		this._sheetsMoved = sheetsMoved;
+		this._valuesOnly = valuesOnly;
 	}
 
 	public SBook getBook() {
@@ -62,4 +103,16 @@ public class FormulaClearContext extends AbstractContext {
 	public SCell getCell() {
 		return _cell;
 	}
+
+	public CellRegion getRegion() {
+		return _region;
+	}
+
+	public boolean isSheetsMoved() {
+		return _sheetsMoved;
+	}
+
+	public boolean isValuesOnly() {
+		return _valuesOnly;
+	}
 }
@@ -21,6 +21,7 @@ import java.util.LinkedHashMap;
 
 import org.zkoss.lang.Library;
 import org.zkoss.util.logging.Log;
+import org.zkoss.zss.range.impl.imexp.CsvExportFactory;
 import org.zkoss.zss.range.impl.imexp.ExcelExportFactory;
 import org.zkoss.zss.range.impl.imexp.ExcelExportFactory.Type;
 
@@ -39,6 +40,7 @@ public class SExporters {
 		register("excel",new ExcelExportFactory(Type.XLSX));
 		register("xlsx",new ExcelExportFactory(Type.XLSX));
 		register("xls",new ExcelExportFactory(Type.XLS));
+		register("csv",new CsvExportFactory());
 		
 		// ex exporter registration
 		String clzs = Library.getProperty("org.zkoss.zssex.model.default.ExporterFactory.class");
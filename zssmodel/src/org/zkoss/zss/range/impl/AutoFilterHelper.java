@@ -17,9 +17,12 @@ Copyright (C) 2013 Potix Corporation. All Rights Reserved.
 package org.zkoss.zss.range.impl;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.zkoss.lang.Integers;
@@ -139,11 +142,21 @@ import org.zkoss.zss.range.impl.DataRegionHelper.FilterRegionHelper;
 		final Set cr1 = fc.getCriteria1();
 		//ZSS-1083(refix ZSS-838): Collect affected rows first
 		LinkedHashMap<Integer, Boolean> affectedRows = new LinkedHashMap<Integer, Boolean>(); 
+		//a database backed sheet is filtered a column at a time instead of faulting every cell in
+		final Map<NFilterColumn, BitSet> hiddenRows = ColumnScan.isSupported(sheet) ?
+				new HashMap<NFilterColumn, BitSet>() : null;
+		final BitSet hidden = hiddenRows == null ? null : getHiddenRows(hiddenRows, fc, col1, row, row2);
 //		final Set<Ref> all = new HashSet<Ref>();
 		for (int r = row; r <= row2; ++r) {
-			final SCell cell = sheet.getCell(r, col); 
-			final String val = isBlank(cell) ? "=" : getFormattedText(cell); //"=" means blank!
-			if (cr1 != null && !cr1.isEmpty() && !cr1.contains(val)) { //to be hidden
+			final boolean toHide;
+			if (hidden != null) {
+				toHide = hidden.get(r - row);
+			} else {
+				final SCell cell = sheet.getCell(r, col); 
+				final String val = isBlank(cell) ? "=" : getFormattedText(cell); //"=" means blank!
+				toHide = cr1 != null && !cr1.isEmpty() && !cr1.contains(val);
+			}
+			if (toHide) { //to be hidden
 				final SRow rowobj = sheet.getRow(r);
 				if (!rowobj.isHidden()) { //a non-hidden row
 					//ZSS-1083(refix ZSS-838): Collect affected rows first 
@@ -152,7 +165,7 @@ import org.zkoss.zss.range.impl.DataRegionHelper.FilterRegionHelper;
 				}
 			} else { //candidate to be shown (other FieldColumn might still hide this row!
 				final SRow rowobj = sheet.getRow(r);
-				if (rowobj.isHidden() && canUnhide(filter, fc, r, col1)) { //a hidden row and no other hidden filtering
+				if (rowobj.isHidden() && canUnhide(filter, fc, r, col1, hiddenRows, row, row2)) { //a hidden row and no other hidden filtering
 					// ZSS-646: we don't care about the columns at all; use 0.
 //					final int left = sheet.getStartCellIndex(r);
 //					final int right = sheet.getEndCellIndex(r);
@@ -187,11 +200,14 @@ import org.zkoss.zss.range.impl.DataRegionHelper.FilterRegionHelper;
 //		BookHelper.notifyCellChanges(_sheet.getBook(), all); //unhidden row must reevaluate
 	}
 	
-	private boolean canUnhide(SAutoFilter af, NFilterColumn fc, int row, int col) {
+	private boolean canUnhide(SAutoFilter af, NFilterColumn fc, int row, int col,
+			Map<NFilterColumn, BitSet> hiddenRows, int firstRow, int lastRow) {
 		final Collection<NFilterColumn> fltcs = af.getFilterColumns();
 		for(NFilterColumn fltc: fltcs) {
 			if (fc.equals(fltc)) continue;
-			if (shallHide(fltc, row, col)) { //any FilterColumn that shall hide the row
+			final boolean hide = hiddenRows == null ? shallHide(fltc, row, col)
+					: getHiddenRows(hiddenRows, fltc, col, firstRow, lastRow).get(row - firstRow);
+			if (hide) { //any FilterColumn that shall hide the row
 				return false;
 			}
 		}
@@ -206,6 +222,36 @@ import org.zkoss.zss.range.impl.DataRegionHelper.FilterRegionHelper;
 		return critera1 != null && !critera1.isEmpty() && !critera1.contains(val);
 	}
 
+	/**
+	 * The rows from firstRow to lastRow the filter column shall hide, indexed from firstRow.
+	 * The column is read from the sheet's model once and kept in hiddenRows.
+	 */
+	private BitSet getHiddenRows(Map<NFilterColumn, BitSet> hiddenRows, NFilterColumn fc, int col,
+			final int firstRow, int lastRow) {
+		BitSet hidden = hiddenRows.get(fc);
+		if (hidden != null) {
+			return hidden;
+		}
+		final BitSet result = new BitSet(lastRow - firstRow + 1);
+		hiddenRows.put(fc, result);
+		final Set criteria1 = fc.getCriteria1();
+		if (criteria1 == null || criteria1.isEmpty()) {
+			return result;
+		}
+		//rows without a cell are blank
+		if (!criteria1.contains("=")) {
+			result.set(0, lastRow - firstRow + 1);
+		}
+		ColumnScan.scan(sheet, col + fc.getIndex(), firstRow, lastRow, new ColumnScan.CellVisitor() {
+			@Override
+			public void visit(SCell cell) {
+				final String val = isBlank(cell) ? "=" : getFormattedText(cell); //"=" means blank!
+				result.set(cell.getRowIndex() - firstRow, !criteria1.contains(val));
+			}
+		});
+		return result;
+	}
+
 	@Deprecated
 	//refer to XRangeImpl#showAllData
 	public void resetAutoFilter() {
@@ -0,0 +1,72 @@
+package org.zkoss.zss.range.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.zkoss.zss.model.CellRegion;
+import org.zkoss.zss.model.InvalidModelOpException;
+import org.zkoss.zss.model.SCell;
+import org.zkoss.zss.model.SCell.CellType;
+import org.zkoss.zss.model.SSheet;
+import org.zkoss.zss.model.impl.AbstractCellAdv;
+import org.zkoss.zss.model.impl.AbstractSheetAdv;
+import org.zkoss.zss.model.impl.Model;
+
+/**
+ * Reads a column of a database backed sheet from its {@link Model}, one query
+ * per page of rows, instead of faulting every cell through the sheet's cell
+ * cache. Only the cells of the column are read, with the index on (col, row).
+ * Formula cells are taken from the sheet, to be evaluated.
+ */
+/*package*/ class ColumnScan {
+	//rows read from the model at once
+	static final int PAGE_ROWS = 50000;
+
+	interface CellVisitor {
+		/**
+		 * @param cell a non-null cell of the column, detached from the sheet unless it is a formula
+		 */
+		void visit(SCell cell);
+	}
+
+	/**
+	 * @return true if the sheet's cells are read from its model
+	 */
+	static boolean isSupported(SSheet sheet) {
+		return sheet.getDataModel() != null && sheet.getBook().hasSchema();
+	}
+
+	/**
+	 * Visit the cells of the column in the rows, in no particular order.
+	 */
+	static void scan(SSheet sheet, int column, int row, int lastRow, CellVisitor visitor) {
+		final Model dataModel = sheet.getDataModel();
+		//read our own buffered writes
+		((AbstractSheetAdv) sheet).flushDirtyCells();
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			DBContext context = new DBContext(connection);
+			CellRegion bounds = dataModel.getBounds(context);
+			//reading past the bounds would extend the sheet
+			if (bounds != null && column <= bounds.getLastColumn()) {
+				lastRow = Math.min(lastRow, bounds.getLastRow());
+				for (int r = row; r <= lastRow; r += PAGE_ROWS) {
+					CellRegion page = new CellRegion(r, column, Math.min(lastRow, r + PAGE_ROWS - 1), column);
+					for (AbstractCellAdv cell : dataModel.getCells(context, page)) {
+						if (cell.getType() == CellType.FORMULA) {
+							visitor.visit(sheet.getCell(cell.getRowIndex(), cell.getColumnIndex()));
+						} else {
+							//resolves the style, the cell is not added to the sheet
+							cell.setSheet((AbstractSheetAdv) sheet);
+							visitor.visit(cell);
+						}
+					}
+				}
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			throw new InvalidModelOpException("Cannot read column " + column + " of " + sheet.getSheetName(), e);
+		}
+	}
+}
@@ -65,6 +65,7 @@ import org.zkoss.zss.model.STable;
 import org.zkoss.zss.model.SheetRegion;
 import org.zkoss.zss.model.ViewAnchor;
 import org.zkoss.zss.model.impl.*;
+import org.zkoss.zss.model.impl.sys.formula.RecalcScheduler;
 import org.zkoss.zss.model.sys.EngineFactory;
 import org.zkoss.zss.model.sys.dependency.DependencyTable;
 import org.zkoss.zss.model.sys.dependency.DependencyTable.RefFilter;
@@ -2290,16 +2291,9 @@ public class RangeImpl implements SRange {
 				if (clearCache) {
 					FormulaCacheCleaner.getCurrent().clear(refs);
 				}
-				// evaluate
+				// evaluate, independent cells in parallel
 				if (enforceEval) {
-					for (Ref ref : refs) {
-						if (ref.getType() == RefType.CELL) {
-							SBook bk = bookSeries.getBook(ref.getBookName());
-							SSheet sh = bk.getSheetByName(ref.getSheetName());
-							SCell cell = sh.getCell(ref.getRow(), ref.getColumn());
-							cell.getValue();
-						}
-					}
+					new RecalcScheduler(bookSeries).recalculate(refs);
 				}
 				handleRefNotifyContentChange(bookSeries, refs, CellAttribute.ALL); //ZSS-939
 				return null;
@@ -23,6 +23,7 @@ import java.util.*;
 import org.zkoss.zk.ui.UiException;
 import org.zkoss.zss.model.*;
 import org.zkoss.zss.model.SCell.CellType;
+import org.zkoss.zss.model.impl.AbstractSheetAdv;
 import org.zkoss.zss.model.impl.CellBuffer;
 import org.zkoss.zss.model.impl.PasteCellHelper;
 import org.zkoss.zss.model.sys.formula.*;
@@ -41,6 +42,8 @@ public class SortHelper extends RangeHelperBase {
 	public static final int SORT_HEADER_NO  = 0;
 	public static final int SORT_HEADER_YES = 1;
 	static final Double ZERO = new Double(0);
+	//smaller inputs are sorted sequentially, as Arrays.parallelSort() would
+	private static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
 	private CellRegion sortingRegion; //a region contains only data to sort without headers
 	private List<CellRegion> mergedRegionBeforeSorting = new LinkedList<CellRegion>(); //merged regions which sorting region contains
 	private List<CellRegion> mergedRegionAfterSorting = new LinkedList<CellRegion>(); //merged regions changed by sorting
@@ -109,13 +112,20 @@ public class SortHelper extends RangeHelperBase {
 				mergedRegionBeforeSorting.add(r);
 			}
 		}
-		//collect keys upon specified row (column) index
-		final List<SortKey> sortKeys = collectKeys(sortByRows, keyCount, dataOptions, keyIndexes);
+		//rows of a database backed sheet are moved by their position instead of copying their cells
+		final boolean reorder = !sortByRows && sheet instanceof AbstractSheetAdv
+				&& ((AbstractSheetAdv) sheet).canReorderRows(sortingRegion);
+		//collect keys upon specified row (column) index, from the database for a database backed sheet
+		final List<SortKey> sortKeys = !sortByRows && ColumnScan.isSupported(sheet) ?
+				collectModelKeys(keyCount, dataOptions, keyIndexes)
+				: collectKeys(sortByRows, keyCount, dataOptions, keyIndexes);
 		
-		Collections.sort(sortKeys, new KeyComparator(descs, matchCase));
+		sortKeys(sortKeys, new KeyComparator(descs, matchCase));
 		sheet.removeMergedRegion(sortingRegion, true);
 		if (sortByRows){
 			repositionColumns(sortKeys);
+		}else if (reorder){
+			reorderRows(sortKeys);
 		}else{
 			repositionRows(sortKeys);
 		}
@@ -186,6 +196,42 @@ public class SortHelper extends RangeHelperBase {
 	}
 	
 
+	/**
+	 * collect keys of every row from the sheet's model, reading only the key columns. 
+	 * Blank rows are sorted too, their keys are null.
+	 */
+	private List<SortKey> collectModelKeys(int keyCount, final SortDataOption[] dataOptions, final int[] keyIndexes) {
+		final int firstRow = sortingRegion.getRow();
+		final Object[][] values = new Object[sortingRegion.getRowCount()][keyCount];
+		for (int j = 0; j < keyCount; ++j) {
+			final int key = j;
+			ColumnScan.scan(sheet, keyIndexes[j], firstRow, sortingRegion.getLastRow(), new ColumnScan.CellVisitor() {
+				@Override
+				public void visit(SCell cell) {
+					values[cell.getRowIndex() - firstRow][key] = getCellValue(cell, dataOptions[key]);
+				}
+			});
+		}
+		List<SortKey> sortKeys = new ArrayList<SortKey>(values.length);
+		for (int i = 0; i < values.length; ++i) {
+			sortKeys.add(new SortKey(firstRow + i, values[i]));
+		}
+		return sortKeys;
+	}
+
+	//both sorts are stable
+	private static void sortKeys(List<SortKey> sortKeys, Comparator<SortKey> comparator) {
+		if (sortKeys.size() < PARALLEL_SORT_THRESHOLD) {
+			Collections.sort(sortKeys, comparator);
+			return;
+		}
+		SortKey[] keys = sortKeys.toArray(new SortKey[sortKeys.size()]);
+		Arrays.parallelSort(keys, comparator);
+		for (int i = 0; i < keys.length; ++i) {
+			sortKeys.set(i, keys[i]);
+		}
+	}
+
 	/**
 	 * find the region that only contains data to sort without headers, blank rows and columns.
 	 * @return null for invalid sorting region
@@ -328,6 +374,25 @@ public class SortHelper extends RangeHelperBase {
 		}
 	}
 	
+	/**
+	 * Move whole rows to their sorted position without copying their cells.
+	 * @param sortKeys keys of every row of the sorting region
+	 */
+	private void reorderRows(List<SortKey> sortKeys) {
+		int[] order = new int[sortKeys.size()];
+		int[] newRowIndexes = new int[sortKeys.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = sortKeys.get(i).getIndex();
+			newRowIndexes[order[i] - sortingRegion.getRow()] = sortingRegion.getRow() + i;
+		}
+		// move merged regions upon new row index
+		for (CellRegion r : mergedRegionBeforeSorting){
+			int rowOffset = newRowIndexes[r.getRow() - sortingRegion.getRow()] - r.getRow();
+			mergedRegionAfterSorting.add(new CellRegion(r.getRow()+rowOffset, r.getColumn(), r.getLastRow()+rowOffset, r.getLastColumn()));
+		}
+		((AbstractSheetAdv) sheet).reorderRows(sortingRegion, order);
+	}
+
 	//ZSS-693
 	private void pasteToNewCell(PasteCellHelper helper, CellBuffer buffer, 
 			SCell cell, SheetRegion cutFrom, int rowOffset, int columnOffset) {
@@ -136,12 +136,19 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 				exportAutoFilter(sheet, poiSheet);
 			}
 
-			workbook.write(fos);
+			writePoiBook(book, fos);
 		} finally {
 			lock.readLock().unlock();
 		}
 	}
 	
+	/**
+	 * Write the exported POI book.
+	 */
+	protected void writePoiBook(SBook book, OutputStream fos) throws IOException {
+		workbook.write(fos);
+	}
+
 	//ZSS-735
 	protected void exportPictureData(SBook book) {
 		for (SPictureData picData : book.getPicturesDatas()) {
@@ -329,7 +336,10 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 			exportRow(sheet, poiSheet, row);
 		}
 
-		// export columns
+		exportColumns(sheet, poiSheet);
+	}
+
+	protected void exportColumns(SSheet sheet, Sheet poiSheet) {
 		Iterator<SColumnArray> columnArrayIterator = sheet.getColumnArrayIterator();
 		while (columnArrayIterator.hasNext()) {
 			SColumnArray columnArr = columnArrayIterator.next();
@@ -339,7 +349,17 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 
 	protected void exportRow(SSheet sheet, Sheet poiSheet, SRow row) {
 		Row poiRow = poiSheet.createRow(row.getIndex());
+		exportRowProperties(row, poiRow);
 
+		// Export Cell
+		Iterator<SCell> cellIterator = sheet.getCellIterator(row.getIndex());
+		while (cellIterator.hasNext()) {
+			SCell cell = cellIterator.next();
+			exportCell(poiRow, cell);
+		}
+	}
+
+	protected void exportRowProperties(SRow row, Row poiRow) {
 		if (row.isHidden()) {
 			// hidden, set height as 0
 			poiRow.setZeroHeight(true);
@@ -359,13 +379,6 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 		SCellStyle rowStyle = row.getCellStyle();
 		CellStyle poiRowStyle = toPOICellStyle(rowStyle);
 		poiRow.setRowStyle(poiRowStyle);
-
-		// Export Cell
-		Iterator<SCell> cellIterator = sheet.getCellIterator(row.getIndex());
-		while (cellIterator.hasNext()) {
-			SCell cell = cellIterator.next();
-			exportCell(poiRow, cell);
-		}
 	}
 
 	protected void exportCell(Row poiRow, SCell cell) {
@@ -390,7 +403,7 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 			poiCell.setCellValue(cell.getBooleanValue());
 			break;
 		case FORMULA:
-			if(cell.getFormulaResultType()==CellType.ERROR && cell.getErrorValue().getCode() == ErrorValue.INVALID_FORMULA){//ZSS-891
+			if(isInvalidFormula(cell)){//ZSS-891
 				//ignore the value of this cell, excel doesn't allow it invalid formula (pasring error).
 			}else{
 				poiCell.setCellType(Cell.CELL_TYPE_FORMULA);
@@ -474,6 +487,11 @@ abstract public class AbstractExcelExporter extends AbstractExporter {
 		}	
 	}
 	
+	//ZSS-891
+	protected boolean isInvalidFormula(SCell cell) {
+		return cell.getFormulaResultType()==CellType.ERROR && cell.getErrorValue().getCode() == ErrorValue.INVALID_FORMULA;
+	}
+
 	protected RichTextString toPOIRichText(SRichText richText) {
 
 		CreationHelper helper = workbook.getCreationHelper();
@@ -145,9 +145,7 @@ abstract public class AbstractExcelImporter extends AbstractImporter {
 			for (int i = 0; i < numberOfSheet; i++) {
 				SSheet sheet = book.getSheet(i);
 				Sheet poiSheet = workbook.getSheetAt(i);
-				for (Row poiRow : poiSheet) {
-					importRow(poiRow, sheet, null, true);
-				}
+				importRows(poiSheet, sheet, i);
 				importColumn(poiSheet, sheet);
 				importMergedRegions(poiSheet, sheet);
 				importDrawings(poiSheet, sheet);
@@ -400,6 +398,15 @@ abstract public class AbstractExcelImporter extends AbstractImporter {
 
 	abstract protected void importValidation(Sheet poiSheet, SSheet sheet);
 
+	/**
+	 * Import the rows of a sheet with their cells.
+	 */
+	protected void importRows(Sheet poiSheet, SSheet sheet, int poiSheetIndex) {
+		for (Row poiRow : poiSheet) {
+			importRow(poiRow, sheet, null, true);
+		}
+	}
+
 	protected SRow importRow(Row poiRow, SSheet sheet, Connection connection, boolean updateToDB) {
 		SRow row = sheet.getRow(poiRow.getRowNum());
 		row.setHeight(UnitUtil.twipToPx(poiRow.getHeight()));
@@ -485,27 +492,38 @@ abstract public class AbstractExcelImporter extends AbstractImporter {
 		
 		Hyperlink poiHyperlink = poiCell.getHyperlink();
 		if (poiHyperlink != null) {
-			String addr = poiHyperlink.getAddress();
-			String label = poiHyperlink.getLabel();
-			SHyperlink hyperlink = cell.setupHyperlink(PoiEnumConversion.toHyperlinkType(poiHyperlink.getType()),addr==null?"":addr,label==null?"":label);
-			cell.setHyperlink(hyperlink);
+			importHyperlink(poiHyperlink, cell);
 		}
 		
 		Comment poiComment = poiCell.getCellComment();
 		if(poiComment != null) {
-			SComment comment = cell.setupComment();
-			comment.setAuthor(poiComment.getAuthor());
-			comment.setVisible(poiComment.isVisible());
-			RichTextString poiRichTextString = poiComment.getString();
-			if (poiRichTextString != null && poiRichTextString.numFormattingRuns() > 0) {			
-				importRichText(poiCell, poiComment.getString(), comment.setupRichText());
-			} else {
-				comment.setText(poiComment.toString());
-			}
+			importComment(poiComment, poiCell, cell);
 		}
 
 		return cell;
 	}
+
+	protected void importHyperlink(Hyperlink poiHyperlink, SCell cell) {
+		String addr = poiHyperlink.getAddress();
+		String label = poiHyperlink.getLabel();
+		SHyperlink hyperlink = cell.setupHyperlink(PoiEnumConversion.toHyperlinkType(poiHyperlink.getType()),addr==null?"":addr,label==null?"":label);
+		cell.setHyperlink(hyperlink);
+	}
+
+	/**
+	 * @param poiCell the commented cell, null if it is not loaded
+	 */
+	protected void importComment(Comment poiComment, Cell poiCell, SCell cell) {
+		SComment comment = cell.setupComment();
+		comment.setAuthor(poiComment.getAuthor());
+		comment.setVisible(poiComment.isVisible());
+		RichTextString poiRichTextString = poiComment.getString();
+		if (poiRichTextString != null && poiRichTextString.numFormattingRuns() > 0) {			
+			importRichText(poiCell, poiComment.getString(), comment.setupRichText());
+		} else {
+			comment.setText(poiComment.toString());
+		}
+	}
 	
 	protected void importRichText(Cell poiCell, RichTextString poiRichTextString, SRichText richText) {
 		String cellValue = poiRichTextString.getString();
@@ -689,7 +707,7 @@ abstract public class AbstractExcelImporter extends AbstractImporter {
 		org.zkoss.poi.ss.usermodel.Font font = rstr instanceof HSSFRichTextString ? book.getFontAt(((HSSFRichTextString) rstr).getFontOfFormattingRun(run)) : ((XSSFRichTextString) rstr)
 				.getFontOfFormattingRun((XSSFWorkbook)book, run);
 		if (font == null) {
-			CellStyle style = cell.getCellStyle();
+			CellStyle style = cell != null ? cell.getCellStyle() : null;
 			short fontIndex = style != null ? style.getFontIndex() : (short) 0;
 			return book.getFontAt(fontIndex); 
 		}
@@ -0,0 +1,14 @@
+package org.zkoss.zss.range.impl.imexp;
+
+import org.zkoss.zss.range.SExporter;
+import org.zkoss.zss.range.SExporterFactory;
+
+/**
+ * Creates {@link CsvExporter}s.
+ */
+public class CsvExportFactory implements SExporterFactory {
+	@Override
+	public SExporter createExporter() {
+		return new CsvExporter();
+	}
+}
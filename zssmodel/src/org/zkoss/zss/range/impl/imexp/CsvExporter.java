@@ -0,0 +1,111 @@
+package org.zkoss.zss.range.impl.imexp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.opencsv.CSVWriter;
+import org.zkoss.zss.model.*;
+
+/**
+ * Exports the cells of a sheet as CSV, a row at a time.
+ * <p>
+ * The cells of a sheet backed by a {@link org.zkoss.zss.model.impl.Model} are
+ * paged from it by {@link SheetCellPager}, so memory stays bounded whatever
+ * the size of the sheet. Rows and columns without cells before the last one
+ * are written empty, so cells keep their position. Numbers, booleans and
+ * errors are written as Excel displays them unformatted; formulas are written
+ * as their text with a leading <code>=</code>, they are not evaluated.
+ */
+public class CsvExporter extends AbstractExporter {
+	private static final long serialVersionUID = 20261017102000L;
+
+	/**
+	 * Export the first sheet of the book.
+	 */
+	@Override
+	public void export(SBook book, OutputStream fos) throws IOException {
+		export(book.getSheet(0), fos);
+	}
+
+	@Override
+	public void export(SSheet sheet, OutputStream fos) throws IOException {
+		export(sheet, null, fos);
+	}
+
+	@Override
+	public void export(SheetRegion sheetRegion, OutputStream fos) throws IOException {
+		export(sheetRegion.getSheet(), sheetRegion.getRegion(), fos);
+	}
+
+	private void export(SSheet sheet, CellRegion region, OutputStream fos) throws IOException {
+		int firstRow = region == null ? 0 : region.getRow();
+		int firstColumn = region == null ? 0 : region.getColumn();
+		// the stream belongs to the caller, it is flushed but not closed
+		CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8)));
+		int nextRow = firstRow;
+		if (sheet.getDataModel() != null) {
+			SheetCellPager pager = new SheetCellPager(sheet, region);
+			int row;
+			while ((row = pager.nextRow()) >= 0) {
+				nextRow = writeRow(writer, nextRow, row, firstColumn, pager.getCells());
+			}
+		} else {
+			List<SCell> cells = new ArrayList<SCell>();
+			Iterator<SRow> rowIterator = sheet.getRowIterator();
+			while (rowIterator.hasNext()) {
+				int row = rowIterator.next().getIndex();
+				if (region != null && (row < region.getRow() || row > region.getLastRow())) {
+					continue;
+				}
+				cells.clear();
+				Iterator<SCell> cellIterator = sheet.getCellIterator(row);
+				while (cellIterator.hasNext()) {
+					SCell cell = cellIterator.next();
+					if (region == null || region.contains(row, cell.getColumnIndex())) {
+						cells.add(cell);
+					}
+				}
+				if (!cells.isEmpty()) {
+					nextRow = writeRow(writer, nextRow, row, firstColumn, cells);
+				}
+			}
+		}
+		writer.flush();
+	}
+
+	/* Write the rows up to the given one, returns the row after it */
+	private int writeRow(CSVWriter writer, int nextRow, int row, int firstColumn, List<SCell> cells) {
+		for (; nextRow < row; nextRow++) {
+			writer.writeNext(new String[0], false);
+		}
+		String[] fields = new String[cells.get(cells.size() - 1).getColumnIndex() - firstColumn + 1];
+		Arrays.fill(fields, "");
+		for (SCell cell : cells) {
+			fields[cell.getColumnIndex() - firstColumn] = toText(cell);
+		}
+		writer.writeNext(fields, false);
+		return row + 1;
+	}
+
+	static String toText(SCell cell) {
+		switch (cell.getType()) {
+		case STRING:
+			return cell.getStringValue();
+		case NUMBER:
+			double number = cell.getNumberValue();
+			if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+				return Long.toString((long) number);
+			}
+			return Double.toString(number);
+		case BOOLEAN:
+			return cell.getBooleanValue() ? "TRUE" : "FALSE";
+		case ERROR:
+			return cell.getErrorValue().getErrorString();
+		case FORMULA:
+			return "=" + cell.getFormulaValue();
+		default:
+			return "";
+		}
+	}
+}
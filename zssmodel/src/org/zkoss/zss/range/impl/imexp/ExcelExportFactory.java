@@ -42,7 +42,7 @@ public class ExcelExportFactory implements SExporterFactory{
 	@Override
 	public SExporter createExporter() {
 		AbstractExcelExporter exporter = _type == Type.XLSX ?
-			new ExcelXlsxExporter() : new ExcelXlsExporter();
+			new ExcelXlsxStreamExporter() : new ExcelXlsExporter();
 		exporter.setExportCache(isExportCache()); //ZSS-873
 		return exporter;
 	}
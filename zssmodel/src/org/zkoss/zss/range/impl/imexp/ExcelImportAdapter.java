@@ -39,7 +39,7 @@ public class ExcelImportAdapter extends AbstractImporter{
 		if (POIFSFileSystem.hasPOIFSHeader(is)) {
 			importer = new ExcelXlsImporter();
 		}else if (POIXMLDocument.hasOOXMLHeader(is)) {
-			importer =new ExcelXlsxImporter();
+			importer = new ExcelXlsxStreamImporter();
 		}
 		if (importer != null) {
 			importer.setImportCache(this.isImportCache()); //ZSS-873
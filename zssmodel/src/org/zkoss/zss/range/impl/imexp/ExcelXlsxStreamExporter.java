@@ -0,0 +1,126 @@
+package org.zkoss.zss.range.impl.imexp;
+
+import java.io.*;
+import java.util.*;
+
+import org.zkoss.lang.Library;
+import org.zkoss.poi.ss.usermodel.Row;
+import org.zkoss.poi.ss.usermodel.Sheet;
+import org.zkoss.poi.xssf.streaming.SXSSFWorkbook;
+import org.zkoss.poi.xssf.usermodel.XSSFWorkbook;
+import org.zkoss.util.logging.Log;
+import org.zkoss.zss.model.*;
+import org.zkoss.zss.model.sys.EngineFactory;
+import org.zkoss.zss.model.sys.formula.FormulaEngine;
+import org.zkoss.zss.model.sys.formula.FormulaParseContext;
+
+/**
+ * XLSX exporting that streams the cells out instead of building them all in
+ * the POI book.
+ * <p>
+ * Everything but the rows is exported into the POI book as usual. The rows
+ * are then written through a {@link SXSSFWorkbook}, which keeps a window of
+ * rows in memory and flushes the others to a compressed temporary file. The
+ * cells of a sheet backed by a {@link org.zkoss.zss.model.impl.Model} are
+ * paged from it by {@link SheetCellPager}, not only the ones loaded in the
+ * sheet, so memory stays bounded whatever the size of the sheet.
+ */
+public class ExcelXlsxStreamExporter extends ExcelXlsxExporter {
+	private static final long serialVersionUID = 20261017101500L;
+	private static final Log _logger = Log.lookup(ExcelXlsxStreamExporter.class.getName());
+
+	private transient FormulaEngine _engine;
+
+	/** Rows kept in memory per sheet while writing */
+	static final int WINDOW = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.export.streaming.window", "100"));
+
+	@Override
+	protected void exportRowColumn(SSheet sheet, Sheet poiSheet) {
+		// rows are written by writePoiBook()
+		exportColumns(sheet, poiSheet);
+	}
+
+	@Override
+	protected void writePoiBook(SBook book, OutputStream fos) throws IOException {
+		long start = System.currentTimeMillis();
+		long cellCount = 0;
+		SXSSFWorkbook streamingBook = new SXSSFWorkbook((XSSFWorkbook) workbook, WINDOW, true);
+		try {
+			for (int n = 0; n < book.getSheets().size(); n++) {
+				SSheet sheet = book.getSheet(n);
+				Sheet poiSheet = streamingBook.getSheetAt(n);
+				cellCount += sheet.getDataModel() != null ?
+						exportPagedRows(sheet, poiSheet) : exportLoadedRows(sheet, poiSheet);
+			}
+			streamingBook.write(fos);
+		} finally {
+			streamingBook.dispose();
+		}
+		long time = System.currentTimeMillis() - start;
+		_logger.info("Exported " + cellCount + " cells of " + book.getBookName() + " in " + time + "ms, "
+				+ (time == 0 ? cellCount : cellCount * 1000 / time) + " cells/s");
+	}
+
+	private long exportLoadedRows(SSheet sheet, Sheet poiSheet) {
+		long count = 0;
+		Iterator<SRow> rowIterator = sheet.getRowIterator();
+		while (rowIterator.hasNext()) {
+			SRow row = rowIterator.next();
+			Row poiRow = poiSheet.createRow(row.getIndex());
+			exportRowProperties(row, poiRow);
+			Iterator<SCell> cellIterator = sheet.getCellIterator(row.getIndex());
+			while (cellIterator.hasNext()) {
+				exportCell(poiRow, cellIterator.next());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Merge the rows with cells in the model with the loaded rows, for their
+	 * height, visibility and style, in ascending order as SXSSF requires.
+	 */
+	private long exportPagedRows(SSheet sheet, Sheet poiSheet) {
+		Iterator<SRow> rowIterator = sheet.getRowIterator();
+		SRow loaded = rowIterator.hasNext() ? rowIterator.next() : null;
+		SheetCellPager pager = new SheetCellPager(sheet, null);
+		int index;
+		while ((index = pager.nextRow()) >= 0) {
+			while (loaded != null && loaded.getIndex() < index) {
+				exportRowProperties(loaded, poiSheet.createRow(loaded.getIndex()));
+				loaded = rowIterator.hasNext() ? rowIterator.next() : null;
+			}
+			Row poiRow = poiSheet.createRow(index);
+			if (loaded != null && loaded.getIndex() == index) {
+				exportRowProperties(loaded, poiRow);
+				loaded = rowIterator.hasNext() ? rowIterator.next() : null;
+			}
+			for (SCell cell : pager.getCells()) {
+				exportCell(poiRow, cell);
+			}
+		}
+		while (loaded != null) {
+			exportRowProperties(loaded, poiSheet.createRow(loaded.getIndex()));
+			loaded = rowIterator.hasNext() ? rowIterator.next() : null;
+		}
+		return pager.getCellCount();
+	}
+
+	/**
+	 * Parse the formula instead of evaluating it, paged cells are not
+	 * evaluated and carry their formula unparsed. The parsing has no
+	 * dependent, so it leaves the dependency table as is.
+	 */
+	@Override
+	protected boolean isInvalidFormula(SCell cell) {
+		if (cell.isFormulaParsingError()) {
+			return true;
+		}
+		if (_engine == null) {
+			_engine = EngineFactory.getInstance().createFormulaEngine();
+		}
+		return _engine.parse(cell.getFormulaValue(), new FormulaParseContext(cell, null)).hasError();
+	}
+}
@@ -0,0 +1,568 @@
+package org.zkoss.zss.range.impl.imexp;
+
+import java.io.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.namespace.QName;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTComment;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTHyperlink;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.zkoss.lang.Library;
+import org.zkoss.poi.POIXMLDocumentPart;
+import org.zkoss.poi.openxml4j.exceptions.InvalidFormatException;
+import org.zkoss.poi.openxml4j.exceptions.OpenXML4JException;
+import org.zkoss.poi.openxml4j.opc.OPCPackage;
+import org.zkoss.poi.openxml4j.opc.PackageAccess;
+import org.zkoss.poi.ss.SpreadsheetVersion;
+import org.zkoss.poi.ss.formula.FormulaParser;
+import org.zkoss.poi.ss.formula.FormulaRenderer;
+import org.zkoss.poi.ss.formula.FormulaType;
+import org.zkoss.poi.ss.formula.SharedFormula;
+import org.zkoss.poi.ss.formula.ptg.Ptg;
+import org.zkoss.poi.ss.usermodel.*;
+import org.zkoss.poi.ss.util.CellRangeAddress;
+import org.zkoss.poi.ss.util.CellReference;
+import org.zkoss.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.zkoss.poi.xssf.eventusermodel.XSSFReader;
+import org.zkoss.poi.xssf.model.CommentsTable;
+import org.zkoss.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.zkoss.poi.xssf.usermodel.XSSFRelation;
+import org.zkoss.poi.xssf.usermodel.XSSFSheet;
+import org.zkoss.poi.xssf.usermodel.XSSFWorkbook;
+import org.zkoss.zss.model.*;
+import org.zkoss.zss.model.SCell.CellType;
+import org.zkoss.zss.model.impl.AbstractBookAdv;
+import org.zkoss.zss.model.impl.AbstractCellAdv;
+import org.zkoss.zss.model.impl.AbstractCellStyleAdv;
+import org.zkoss.zss.model.impl.AbstractSheetAdv;
+import org.zkoss.zss.model.impl.CellImpl;
+import org.zkoss.zss.model.impl.Model;
+
+/**
+ * XLSX importing that streams the cells of large workbooks into the database.
+ * <p>
+ * The upload is spooled to a temporary file. If its worksheets are larger than
+ * the threshold, the POI workbook is built from a copy whose worksheets keep
+ * everything but their cells, so sheet settings, merged cells, drawings,
+ * validations and so on are imported as usual. The cells are then read from
+ * the original worksheets with a SAX parser and written to the sheet's
+ * {@link Model} in batches, without being loaded into the sheet. Memory
+ * depends on the batch size and the shared strings, not on the sheet size.
+ * <p>
+ * Streamed cells skip rich text formatting of shared strings and cached
+ * formula results; formulas are evaluated when the cells are loaded.
+ */
+public class ExcelXlsxStreamImporter extends ExcelXlsxImporter {
+	private static final Logger logger = Logger.getLogger(ExcelXlsxStreamImporter.class.getName());
+
+	/** Uncompressed size of the worksheets from which cells are streamed, negative to never stream */
+	static final long THRESHOLD = Long.parseLong(
+			Library.getProperty("org.zkoss.zss.import.streaming.threshold", String.valueOf(16L << 20)));
+	/** Cells written per batch */
+	static final int BATCH_SIZE = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.import.streaming.batchSize", "10000"));
+
+	private static final String CONTENT_TYPES = "[Content_Types].xml";
+	private static final byte[] EMPTY_SHARED_STRINGS = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"0\" uniqueCount=\"0\"/>")
+			.getBytes();
+
+	private File source;
+	private File stripped;
+	private OPCPackage sourcePackage;
+	private OPCPackage poiPackage;
+	private XSSFReader reader;
+	private ReadOnlySharedStringsTable sharedStrings;
+	private boolean streaming;
+	/* POI style index -> style ID in the book's style table */
+	private int[] styleRefs;
+
+	@Override
+	public SBook imports(InputStream is, String bookName) throws IOException {
+		try {
+			return super.imports(is, bookName);
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	protected Workbook createPoiBook(InputStream is) throws IOException {
+		source = File.createTempFile("zss-import", ".xlsx");
+		try (OutputStream out = new FileOutputStream(source)) {
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+		try {
+			streaming = strip();
+			poiPackage = OPCPackage.open(streaming ? stripped : source, PackageAccess.READ_WRITE);
+			XSSFWorkbook poiBook = new XSSFWorkbook(poiPackage);
+			if (streaming) {
+				sourcePackage = OPCPackage.open(source, PackageAccess.READ);
+				reader = new XSSFReader(sourcePackage);
+				styleRefs = new int[poiBook.getNumCellStyles()];
+				Arrays.fill(styleRefs, -2);
+			}
+			return poiBook;
+		} catch (OpenXML4JException | XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Copy the workbook without the cells of its worksheets, if they are large.
+	 * Rows are kept only for their height, hidden state or style.
+	 *
+	 * @return true if the cells are to be streamed
+	 */
+	private boolean strip() throws IOException, XMLStreamException {
+		if (THRESHOLD < 0) {
+			return false;
+		}
+		try (ZipFile zip = new ZipFile(source)) {
+			Set<String> worksheets = new HashSet<String>();
+			Set<String> sharedStrings = new HashSet<String>();
+			ZipEntry contentTypes = zip.getEntry(CONTENT_TYPES);
+			if (contentTypes == null) {
+				return false;
+			}
+			try (InputStream in = zip.getInputStream(contentTypes)) {
+				readContentTypes(in, worksheets, sharedStrings);
+			}
+			long size = 0;
+			for (String name : worksheets) {
+				ZipEntry entry = zip.getEntry(name);
+				if (entry != null) {
+					size += entry.getSize();
+				}
+			}
+			if (size < THRESHOLD) {
+				return false;
+			}
+
+			stripped = File.createTempFile("zss-import", ".xlsx");
+			try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(stripped)))) {
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					out.putNextEntry(new ZipEntry(entry.getName()));
+					if (sharedStrings.contains(entry.getName())) {
+						out.write(EMPTY_SHARED_STRINGS);
+					} else {
+						try (InputStream in = zip.getInputStream(entry)) {
+							if (worksheets.contains(entry.getName())) {
+								stripCells(in, out);
+							} else {
+								copy(in, out);
+							}
+						}
+					}
+					out.closeEntry();
+				}
+			}
+			logger.info("Streaming " + (size >> 20) + "MB of worksheets");
+			return true;
+		}
+	}
+
+	/* Names of the worksheet and shared strings entries */
+	private static void readContentTypes(InputStream in, final Set<String> worksheets, final Set<String> sharedStrings)
+			throws IOException {
+		final String worksheetType = XSSFRelation.WORKSHEET.getContentType();
+		final String sharedStringsType = XSSFRelation.SHARED_STRINGS.getContentType();
+		parse(in, new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attributes) {
+				if ("Override".equals(localName)) {
+					String partName = attributes.getValue("PartName");
+					String type = attributes.getValue("ContentType");
+					if (partName != null && partName.startsWith("/")) {
+						if (worksheetType.equals(type)) {
+							worksheets.add(partName.substring(1));
+						} else if (sharedStringsType.equals(type)) {
+							sharedStrings.add(partName.substring(1));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private static void stripCells(InputStream in, OutputStream out) throws XMLStreamException {
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XMLEventReader events = inputFactory.createXMLEventReader(in);
+		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+		boolean inSheetData = false;
+		int skipped = 0; // depth in a dropped element
+		while (events.hasNext()) {
+			XMLEvent event = events.nextEvent();
+			if (skipped > 0) {
+				if (event.isStartElement()) {
+					skipped++;
+				} else if (event.isEndElement()) {
+					skipped--;
+				}
+				continue;
+			}
+			if (event.isStartElement()) {
+				StartElement element = event.asStartElement();
+				String name = element.getName().getLocalPart();
+				if (inSheetData && ("c".equals(name) || "row".equals(name) && !isFormattedRow(element))) {
+					skipped = 1;
+					continue;
+				}
+				inSheetData |= "sheetData".equals(name);
+			} else if (event.isEndElement() && "sheetData".equals(event.asEndElement().getName().getLocalPart())) {
+				inSheetData = false;
+			}
+			writer.add(event);
+		}
+		// leave the zip stream open
+		writer.flush();
+		events.close();
+	}
+
+	private static boolean isFormattedRow(StartElement row) {
+		return row.getAttributeByName(new QName("ht")) != null
+				|| isTrue(row.getAttributeByName(new QName("hidden")))
+				|| isTrue(row.getAttributeByName(new QName("customFormat")));
+	}
+
+	private static boolean isTrue(Attribute attribute) {
+		return attribute != null && ("1".equals(attribute.getValue()) || "true".equals(attribute.getValue()));
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+	}
+
+	private static void parse(InputStream in, DefaultHandler handler) throws IOException {
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			XMLReader xmlReader = factory.newSAXParser().getXMLReader();
+			xmlReader.setContentHandler(handler);
+			xmlReader.parse(new InputSource(in));
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	protected void importRows(Sheet poiSheet, SSheet sheet, int poiSheetIndex) {
+		// rows of a stripped sheet have no cells
+		super.importRows(poiSheet, sheet, poiSheetIndex);
+		if (!streaming) {
+			return;
+		}
+		book.checkDBSchema();
+		long start = System.currentTimeMillis();
+		String relId = ((XSSFWorkbook) workbook).getCTWorkbook().getSheets().getSheetArray(poiSheetIndex).getId();
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			DBContext context = new DBContext(connection);
+			if (sharedStrings == null) {
+				sharedStrings = new ReadOnlySharedStringsTable(sourcePackage);
+			}
+			CellHandler handler = new CellHandler(poiSheetIndex, (AbstractSheetAdv) sheet, context);
+			try (InputStream in = reader.getSheet(relId)) {
+				parse(in, handler);
+			}
+			handler.flush();
+			connection.commit();
+			importCellAttachments((XSSFSheet) poiSheet, sheet, context);
+			connection.commit();
+			logger.info("Imported " + handler.count + " cells of " + sheet.getSheetName() + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException | InvalidFormatException | SAXException | SQLException e) {
+			throw new IllegalStateException("Failed to import the cells of " + sheet.getSheetName(), e);
+		}
+	}
+
+	/**
+	 * Hyperlinks and comments are outside the cells, attach them to the
+	 * imported cells.
+	 */
+	private void importCellAttachments(XSSFSheet poiSheet, SSheet sheet, DBContext context) throws SQLException {
+		Model dataModel = sheet.getDataModel();
+		CTWorksheet worksheet = poiSheet.getCTWorksheet();
+		if (worksheet.getHyperlinks() != null) {
+			for (CTHyperlink ctHyperlink : worksheet.getHyperlinks().getHyperlinkArray()) {
+				CellReference ref = new CellReference(ctHyperlink.getRef());
+				Hyperlink poiHyperlink = poiSheet.getHyperlink(ref.getRow(), ref.getCol());
+				if (poiHyperlink != null) {
+					SCell cell = sheet.getCell(ref.getRow(), ref.getCol());
+					importHyperlink(poiHyperlink, cell);
+					dataModel.updateCells(context, Collections.singletonList((AbstractCellAdv) cell));
+				}
+			}
+		}
+		for (POIXMLDocumentPart part : poiSheet.getRelations()) {
+			if (!(part instanceof CommentsTable)) {
+				continue;
+			}
+			for (CTComment ctComment : ((CommentsTable) part).getCTComments().getCommentList().getCommentArray()) {
+				CellReference ref = new CellReference(ctComment.getRef());
+				Comment poiComment = poiSheet.getCellComment(ref.getRow(), ref.getCol());
+				if (poiComment != null) {
+					SCell cell = sheet.getCell(ref.getRow(), ref.getCol());
+					importComment(poiComment, null, cell);
+					dataModel.updateCells(context, Collections.singletonList((AbstractCellAdv) cell));
+				}
+			}
+		}
+	}
+
+	/* ID of the imported style of a POI style index, built on first use */
+	private int getStyleRef(int index) {
+		if (index < 0 || index >= styleRefs.length) {
+			return -1;
+		}
+		if (styleRefs[index] == -2) {
+			SCellStyle style = importCellStyle(workbook.getCellStyleAt((short) index));
+			styleRefs[index] = ((AbstractBookAdv) book).getStyleTable().getId((AbstractCellStyleAdv) style);
+			if (styleRefs[index] < 0) {
+				throw new IllegalStateException("Failed to store the cell style " + index + " of " + book.getBookName());
+			}
+		}
+		return styleRefs[index];
+	}
+
+	private void close() {
+		if (poiPackage != null) {
+			poiPackage.revert();
+			poiPackage = null;
+		}
+		if (sourcePackage != null) {
+			sourcePackage.revert();
+			sourcePackage = null;
+		}
+		reader = null;
+		sharedStrings = null;
+		styleRefs = null;
+		for (File file : new File[] {source, stripped}) {
+			if (file != null && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		source = null;
+		stripped = null;
+	}
+
+	/**
+	 * Reads the <code>sheetData</code> of a worksheet, writing its cells in
+	 * batches.
+	 */
+	private class CellHandler extends DefaultHandler {
+		private final int sheetIndex;
+		private final AbstractSheetAdv sheet;
+		private final DBContext context;
+		private final List<AbstractCellAdv> batch = new ArrayList<AbstractCellAdv>(BATCH_SIZE);
+		private final StringBuilder text = new StringBuilder();
+		/* shared formula index -> master formula, relative to the first cell of its range */
+		private final Map<String, Ptg[]> sharedFormulas = new HashMap<String, Ptg[]>();
+		private final Map<String, CellReference> sharedOrigins = new HashMap<String, CellReference>();
+		private XSSFEvaluationWorkbook evalBook;
+		private long count;
+
+		private int row = -1;
+		private int column;
+		private int style;
+		private String type;
+		private String value;
+		private String formula;
+		private boolean inValue;
+		private boolean inFormula;
+		private boolean inInlineString;
+		private boolean inInlineText;
+
+		CellHandler(int sheetIndex, AbstractSheetAdv sheet, DBContext context) {
+			this.sheetIndex = sheetIndex;
+			this.sheet = sheet;
+			this.context = context;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if ("row".equals(localName)) {
+				String r = attributes.getValue("r");
+				row = r != null ? Integer.parseInt(r) - 1 : row + 1;
+				column = -1;
+			} else if ("c".equals(localName)) {
+				String r = attributes.getValue("r");
+				column = r != null ? new CellReference(r).getCol() : column + 1;
+				String s = attributes.getValue("s");
+				style = s != null ? Integer.parseInt(s) : 0;
+				type = attributes.getValue("t");
+				value = null;
+				formula = null;
+			} else if ("v".equals(localName)) {
+				inValue = true;
+				text.setLength(0);
+			} else if ("f".equals(localName)) {
+				inFormula = true;
+				text.setLength(0);
+				if ("shared".equals(attributes.getValue("t"))) {
+					// the master holds the formula text, the other cells only its index
+					formula = attributes.getValue("si");
+					String ref = attributes.getValue("ref");
+					if (ref != null) {
+						sharedOrigins.put(formula, new CellReference(CellRangeAddress.valueOf(ref).getFirstRow(),
+								CellRangeAddress.valueOf(ref).getFirstColumn()));
+					}
+				}
+			} else if ("is".equals(localName)) {
+				inInlineString = true;
+				text.setLength(0);
+			} else if ("t".equals(localName) && inInlineString) {
+				inInlineText = true;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inValue || inFormula || inInlineText) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if ("v".equals(localName)) {
+				inValue = false;
+				value = text.toString();
+			} else if ("f".equals(localName)) {
+				inFormula = false;
+				formula = toFormula(formula, text.toString());
+			} else if ("t".equals(localName)) {
+				inInlineText = false;
+			} else if ("is".equals(localName)) {
+				inInlineString = false;
+				value = text.toString();
+			} else if ("c".equals(localName)) {
+				addCell();
+			} else if ("row".equals(localName) && batch.size() >= BATCH_SIZE) {
+				try {
+					flush();
+				} catch (SQLException e) {
+					throw new SAXException(e);
+				}
+			}
+		}
+
+		/**
+		 * @param si the shared formula index, null if not shared
+		 */
+		private String toFormula(String si, String text) {
+			if (si == null) {
+				return text.isEmpty() ? null : text;
+			}
+			try {
+				if (evalBook == null) {
+					evalBook = XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+				}
+				Ptg[] ptgs = sharedFormulas.get(si);
+				if (ptgs == null) {
+					if (text.isEmpty()) {
+						return null; // master not seen
+					}
+					ptgs = FormulaParser.parse(text, evalBook, FormulaType.CELL, sheetIndex);
+					sharedFormulas.put(si, ptgs);
+				}
+				CellReference origin = sharedOrigins.get(si);
+				int rowOffset = origin == null ? 0 : row - origin.getRow();
+				int columnOffset = origin == null ? 0 : column - origin.getCol();
+				Ptg[] converted = new SharedFormula(SpreadsheetVersion.EXCEL2007).convertSharedFormulas(ptgs,
+						rowOffset, columnOffset);
+				return FormulaRenderer.toFormulaString(evalBook, converted);
+			} catch (RuntimeException e) {
+				// keep the cached value
+				logger.log(Level.WARNING, "Cannot expand the shared formula of "
+						+ new CellReference(row, column).formatAsString(), e);
+				return null;
+			}
+		}
+
+		private void addCell() {
+			CellType cellType;
+			Object cellValue;
+			if (formula != null) {
+				cellType = CellType.FORMULA;
+				cellValue = formula;
+			} else if ("inlineStr".equals(type) || "str".equals(type)) {
+				cellType = CellType.STRING;
+				cellValue = value;
+			} else if (value == null || value.isEmpty()) {
+				cellType = CellType.BLANK;
+				cellValue = null;
+			} else if ("s".equals(type)) {
+				cellType = CellType.STRING;
+				cellValue = sharedStrings.getEntryAt(Integer.parseInt(value));
+			} else if ("b".equals(type)) {
+				cellType = CellType.BOOLEAN;
+				cellValue = "1".equals(value) || "true".equals(value);
+			} else if ("e".equals(type)) {
+				cellType = CellType.ERROR;
+				cellValue = toError(value);
+			} else {
+				cellType = CellType.NUMBER;
+				cellValue = Double.valueOf(value);
+			}
+			if (cellValue == null && style == 0) {
+				return; // nothing to keep
+			}
+			batch.add(CellImpl.createImported(sheet, row, column, cellValue == null ? CellType.BLANK : cellType,
+					cellValue, getStyleRef(style)));
+		}
+
+		private ErrorValue toError(String code) {
+			try {
+				return PoiEnumConversion.toErrorCode(FormulaError.forString(code).getCode());
+			} catch (IllegalArgumentException e) {
+				return new ErrorValue(ErrorValue.INVALID_VALUE);
+			}
+		}
+
+		void flush() throws SQLException {
+			if (batch.isEmpty()) {
+				return;
+			}
+			sheet.getDataModel().updateCells(context, batch);
+			count += batch.size();
+			batch.clear();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.zkoss.zss.range.impl.imexp;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+
+import org.model.DBContext;
+import org.model.DBHandler;
+import org.zkoss.lang.Library;
+import org.zkoss.zss.model.CellRegion;
+import org.zkoss.zss.model.SCell;
+import org.zkoss.zss.model.SSheet;
+import org.zkoss.zss.model.impl.AbstractCellAdv;
+import org.zkoss.zss.model.impl.AbstractSheetAdv;
+import org.zkoss.zss.model.impl.Model;
+
+/**
+ * Reads the cells of a sheet from its {@link Model} a page of rows at a time,
+ * row by row in column order, without loading them into the sheet. Only one
+ * page is held at a time, whatever the size of the sheet.
+ */
+class SheetCellPager {
+	/** Cells per page, at most */
+	static final int PAGE_CELLS = Integer.parseInt(
+			Library.getProperty("org.zkoss.zss.export.streaming.pageCells", "50000"));
+
+	private static final Comparator<AbstractCellAdv> CELL_ORDER = new Comparator<AbstractCellAdv>() {
+		@Override
+		public int compare(AbstractCellAdv c1, AbstractCellAdv c2) {
+			int d = Integer.compare(c1.getRowIndex(), c2.getRowIndex());
+			return d != 0 ? d : Integer.compare(c1.getColumnIndex(), c2.getColumnIndex());
+		}
+	};
+
+	private final AbstractSheetAdv sheet;
+	private final Model dataModel;
+	private final CellRegion region;
+	private final int pageRows;
+	private int nextPageRow;
+	private List<AbstractCellAdv> page = Collections.emptyList();
+	private int position;
+	private final List<SCell> rowCells = new ArrayList<SCell>();
+	private long count;
+
+	/**
+	 * @param within the region to read, null for the whole sheet
+	 */
+	SheetCellPager(SSheet sheet, CellRegion within) {
+		this.sheet = (AbstractSheetAdv) sheet;
+		this.dataModel = sheet.getDataModel();
+		// read our own buffered writes
+		this.sheet.flushDirtyCells();
+		CellRegion bounds;
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			bounds = dataModel.getBounds(new DBContext(connection));
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Failed to read the bounds of " + sheet.getSheetName(), e);
+		}
+		if (bounds != null && within != null) {
+			bounds = bounds.overlaps(within) ? bounds.getOverlap(within) : null;
+		}
+		region = bounds;
+		pageRows = region == null ? 1 : Math.max(1, PAGE_CELLS / region.getColumnCount());
+		nextPageRow = region == null ? 0 : region.getRow();
+	}
+
+	/**
+	 * @return the region read, null if the sheet has no cells there
+	 */
+	CellRegion getRegion() {
+		return region;
+	}
+
+	/**
+	 * Move to the next row with cells.
+	 *
+	 * @return its index, or -1 after the last row
+	 */
+	int nextRow() {
+		rowCells.clear();
+		while (position >= page.size()) {
+			if (!nextPage()) {
+				return -1;
+			}
+		}
+		int row = page.get(position).getRowIndex();
+		while (position < page.size() && page.get(position).getRowIndex() == row) {
+			rowCells.add(page.get(position++));
+		}
+		count += rowCells.size();
+		return row;
+	}
+
+	/**
+	 * @return the cells of the current row, by column
+	 */
+	List<SCell> getCells() {
+		return rowCells;
+	}
+
+	long getCellCount() {
+		return count;
+	}
+
+	private boolean nextPage() {
+		if (region == null || nextPageRow > region.getLastRow()) {
+			return false;
+		}
+		int lastRow = Math.min(region.getLastRow(), nextPageRow + pageRows - 1);
+		CellRegion pageRegion = new CellRegion(nextPageRow, region.getColumn(), lastRow, region.getLastColumn());
+		List<AbstractCellAdv> cells;
+		try (Connection connection = DBHandler.instance.getConnection()) {
+			cells = new ArrayList<AbstractCellAdv>(dataModel.getCells(new DBContext(connection), pageRegion));
+			connection.commit();
+		} catch (SQLException e) {
+			throw new IllegalStateException("Failed to read " + pageRegion + " of " + sheet.getSheetName(), e);
+		}
+		Collections.sort(cells, CELL_ORDER);
+		for (AbstractCellAdv cell : cells) {
+			// resolves the style, the cell is not added to the sheet
+			cell.setSheet(sheet);
+		}
+		page = cells;
+		position = 0;
+		nextPageRow = lastRow + 1;
+		return true;
+	}
+}